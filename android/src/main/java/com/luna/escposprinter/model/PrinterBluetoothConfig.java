@@ -8,10 +8,35 @@ public class PrinterBluetoothConfig extends PrinterConfig {
 
     private String deviceAddress;
 
+    private boolean isStreaming = false;
+
+    private int chunkSize = 0;
+
+    private boolean isCachedChannel = false;
+
+    private int heartbeatInterval = 0;
+
+    private int idleTimeout = 0;
+
     public PrinterBluetoothConfig(@Nullable ReadableMap options) {
         super(options);
         if (options != null) {
             this.deviceAddress = options.getString("btAddress");
+            if (options.hasKey("streaming")) {
+                this.isStreaming = options.getBoolean("streaming");
+            }
+            if (options.hasKey("chunkSize")) {
+                this.chunkSize = options.getInt("chunkSize");
+            }
+            if (options.hasKey("cachedChannel")) {
+                this.isCachedChannel = options.getBoolean("cachedChannel");
+            }
+            if (options.hasKey("heartbeatInterval")) {
+                this.heartbeatInterval = options.getInt("heartbeatInterval");
+            }
+            if (options.hasKey("idleTimeout")) {
+                this.idleTimeout = options.getInt("idleTimeout");
+            }
         }
     }
 
@@ -19,4 +44,39 @@ public class PrinterBluetoothConfig extends PrinterConfig {
         return deviceAddress;
     }
 
+    /**
+     * Send the print by chunks paced to the printer speed
+     **/
+    public boolean isStreaming() {
+        return isStreaming;
+    }
+
+    /**
+     * Default chunkSize is 0, the bluetooth link packet size
+     **/
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Default cachedChannel is false, the service discovery runs on each connection
+     **/
+    public boolean isCachedChannel() {
+        return isCachedChannel;
+    }
+
+    /**
+     * Default heartbeatInterval is 0, no keep-alive probe. Set it to probe the link when unused for this time in ms
+     **/
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Default idleTimeout is 0, the connection is kept open until disconnectPrinter
+     **/
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
 }
@@ -5,6 +5,8 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.ReadableMap;
+import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.job.PrioritySerialExecutor;
 
 abstract class PrinterConfig {
 
@@ -20,6 +22,14 @@ abstract class PrinterConfig {
 
     private int paperSize = 58;
 
+    private boolean isStatusFlowControl = false;
+
+    private boolean isStatusEvents = false;
+
+    private int priority = PrioritySerialExecutor.PRIORITY_RECEIPT;
+
+    private boolean isDirectBuffers = false;
+
     private final int characterPerLine;
 
     public PrinterConfig(@Nullable ReadableMap options) {
@@ -39,6 +49,18 @@ abstract class PrinterConfig {
             if (options.hasKey("paperSize")) {
                 paperSize = options.getInt("paperSize");
             }
+            if (options.hasKey("statusFlowControl")) {
+                isStatusFlowControl = options.getBoolean("statusFlowControl");
+            }
+            if (options.hasKey("statusEvents")) {
+                isStatusEvents = options.getBoolean("statusEvents");
+            }
+            if (options.hasKey("priority")) {
+                priority = parsePriority(options.getString("priority"));
+            }
+            if (options.hasKey("directBuffers")) {
+                isDirectBuffers = options.getBoolean("directBuffers");
+            }
         }
 
         this.characterPerLine = generateCharacterPerLine(paperSize);
@@ -56,6 +78,19 @@ abstract class PrinterConfig {
         return 32;
     }
 
+    /**
+     * priority: "receipt" (default), "kitchen" or "report"
+     **/
+    public static int parsePriority(@Nullable String priority) {
+        if ("kitchen".equals(priority)) {
+            return PrioritySerialExecutor.PRIORITY_KITCHEN;
+        }
+        if ("report".equals(priority)) {
+            return PrioritySerialExecutor.PRIORITY_REPORT;
+        }
+        return PrioritySerialExecutor.PRIORITY_RECEIPT;
+    }
+
     public boolean isCutPaper() {
         return isCutPaper;
     }
@@ -68,6 +103,39 @@ abstract class PrinterConfig {
         return isDisconnectAfterPrint;
     }
 
+    /**
+     * Pace the print by asking the printer status instead of waiting a fixed delay.
+     **/
+    public boolean isStatusFlowControl() {
+        return isStatusFlowControl;
+    }
+
+    /**
+     * Enable Automatic Status Back and emit the printer status changes to JS.
+     **/
+    public boolean isStatusEvents() {
+        return isStatusEvents;
+    }
+
+    /**
+     * Priority of the print jobs, PrioritySerialExecutor.PRIORITY_... constants
+     **/
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Hold the images and the queued commands in pooled direct buffers instead of the Java heap.
+     * USB printers only : the Bluetooth and socket streams would copy the direct buffers back to the heap.
+     **/
+    public boolean isDirectBuffers() {
+        return isDirectBuffers;
+    }
+
+    public int getFlowControl() {
+        return isStatusFlowControl ? DeviceConnection.FLOW_CONTROL_STATUS : DeviceConnection.FLOW_CONTROL_DELAY;
+    }
+
     public float getPaperFeed() {
         return paperFeed;
     }
@@ -95,6 +163,10 @@ abstract class PrinterConfig {
                 ", isDisconnectAfterPrint=" + isDisconnectAfterPrint +
                 ", paperFeed=" + paperFeed +
                 ", paperSize=" + paperSize +
+                ", isStatusFlowControl=" + isStatusFlowControl +
+                ", isStatusEvents=" + isStatusEvents +
+                ", priority=" + priority +
+                ", isDirectBuffers=" + isDirectBuffers +
                 ", characterPerLine=" + generateCharacterPerLine(paperSize) +
                 '}';
     }
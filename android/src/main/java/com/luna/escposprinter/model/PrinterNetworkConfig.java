@@ -8,10 +8,30 @@ public class PrinterNetworkConfig extends PrinterConfig {
 
     private String ipAddress;
 
+    private int coalesceWindow = 0;
+
+    private int coalesceMaxJobs = 8;
+
+    private int writeTimeout = 10000;
+
+    private int jobTimeout = 60000;
+
     public PrinterNetworkConfig(@Nullable ReadableMap options) {
         super(options);
         if (options != null) {
             this.ipAddress = options.getString("netIp");
+            if (options.hasKey("coalesceWindow")) {
+                this.coalesceWindow = options.getInt("coalesceWindow");
+            }
+            if (options.hasKey("coalesceMaxJobs")) {
+                this.coalesceMaxJobs = options.getInt("coalesceMaxJobs");
+            }
+            if (options.hasKey("writeTimeout")) {
+                this.writeTimeout = options.getInt("writeTimeout");
+            }
+            if (options.hasKey("jobTimeout")) {
+                this.jobTimeout = options.getInt("jobTimeout");
+            }
         }
     }
 
@@ -19,4 +39,32 @@ public class PrinterNetworkConfig extends PrinterConfig {
         return ipAddress;
     }
 
+    /**
+     * Default coalesceWindow is 0, jobs are not merged. Time in ms a job waits for the next jobs of the printer
+     **/
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Default coalesceMaxJobs is 8
+     **/
+    public int getCoalesceMaxJobs() {
+        return coalesceMaxJobs;
+    }
+
+    /**
+     * Default writeTimeout is 10000. Time in ms a write can block on a printer that stops reading, 0 to wait forever
+     **/
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Default jobTimeout is 60000. Time in ms to send a whole job, 0 for no limit
+     **/
+    public int getJobTimeout() {
+        return jobTimeout;
+    }
+
 }
@@ -5,6 +5,7 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.util.Log;
@@ -17,23 +18,30 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.luna.escposprinter.model.PrinterBluetoothConfig;
 import com.luna.escposprinter.model.PrinterNetworkConfig;
 import com.luna.escposprinter.sdk.EscPosCharsetEncoding;
 import com.luna.escposprinter.sdk.EscPosPrinter;
+import com.luna.escposprinter.sdk.EscPosPrinterCommands;
 import com.luna.escposprinter.sdk.connection.bluetooth.BluetoothConnection;
+import com.luna.escposprinter.sdk.connection.bluetooth.BluetoothEndpointCache;
+import com.luna.escposprinter.sdk.connection.bluetooth.BluetoothSession;
 import com.luna.escposprinter.sdk.connection.tcp.TcpConnection;
 import com.luna.escposprinter.sdk.exceptions.EscPosBarcodeException;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 import com.luna.escposprinter.sdk.exceptions.EscPosEncodingException;
 import com.luna.escposprinter.sdk.exceptions.EscPosParserException;
+import com.luna.escposprinter.sdk.job.PrioritySerialExecutor;
+import com.luna.escposprinter.sdk.status.AutomaticStatusDecoder;
 import com.luna.escposprinter.util.ConverterUtil;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
 
@@ -54,7 +62,18 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
     private final String TAG = getName();
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    static final String EVENT_PRINTER_STATUS = "LunaBluetoothPrinterStatus";
+
+    static final String ENDPOINT_PREFERENCES = "LunaBluetoothPrinterEndpoints";
+
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Print jobs are queued by priority, then run on executorService.
+     */
+    private final PrioritySerialExecutor printQueue = new PrioritySerialExecutor(executorService);
+
+    private volatile int mPrintPriority = PrioritySerialExecutor.PRIORITY_RECEIPT;
 
     private BluetoothAdapter mBluetoothAdapter;
 
@@ -64,6 +83,36 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
     private PrinterBluetoothConfig mPrinterConfig;
 
+    private final AutomaticStatusDecoder statusDecoder = new AutomaticStatusDecoder((connection, event, status) -> {
+        WritableMap statusMap = ConverterUtil.convertPrinterStatusToMap(event, status);
+        statusMap.putString("btAddress", ((BluetoothConnection) connection).getDevice().getAddress());
+        sendEvent(EVENT_PRINTER_STATUS, statusMap);
+    });
+
+    private BluetoothSession mBluetoothSession;
+
+    private final BluetoothSession.Listener sessionListener = new BluetoothSession.Listener() {
+        @Override
+        public void onSessionConnected(BluetoothSession session) {
+            saveEndpoint(session.getConnection().getDevice().getAddress());
+            if (mPrinterConfig == null || !mPrinterConfig.isStatusEvents()) {
+                return;
+            }
+            try {
+                // the printer may have been restarted, enable its status back again
+                new EscPosPrinterCommands(session.getConnection())
+                        .setAutomaticStatusBack(EscPosPrinterCommands.AUTOMATIC_STATUS_ALL);
+            } catch (EscPosConnectionException e) {
+                Log.e(TAG, "onSessionConnected: Failed", e);
+            }
+        }
+
+        @Override
+        public void onSessionDisconnected(BluetoothSession session) {
+            Log.i(TAG, "onSessionDisconnected: " + session.getConnection().getDevice().getAddress());
+        }
+    };
+
     private BluetoothAdapter getBluetoothAdapter() {
         if (mBluetoothAdapter == null) {
             BluetoothManager bManager = (BluetoothManager) getReactApplicationContext().getSystemService(Context.BLUETOOTH_SERVICE);
@@ -73,11 +122,11 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
     }
 
     private EscPosPrinter buildPrinterConnection() {
-        if (mPrinter == null) {
-            if (mPrinterConfig == null) {
-                return null;
-            }
+        if (mPrinterConfig == null) {
+            return null;
+        }
 
+        if (mBluetoothSession == null) {
             if (mBluetoothConnection != null) {
                 mBluetoothConnection.disconnect();
                 mBluetoothConnection = null;
@@ -86,31 +135,128 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
             mBluetoothConnection = new BluetoothConnection(
                     getBluetoothDevice(mPrinterConfig.getDeviceAddress())
             );
+            mBluetoothConnection.setFlowControl(mPrinterConfig.getFlowControl());
+            mBluetoothConnection.setCachedChannel(mPrinterConfig.isCachedChannel());
+            if (mPrinterConfig.isStreaming()) {
+                mBluetoothConnection.setStreaming(mPrinterConfig.getChunkSize(), 4096, 2048);
+            }
+            if (mPrinterConfig.isStatusEvents()) {
+                mBluetoothConnection.addResponseListener(statusDecoder);
+            }
 
-            try {
+            mBluetoothSession = new BluetoothSession(mBluetoothConnection, executorService)
+                    .setHeartbeatInterval(mPrinterConfig.getHeartbeatInterval())
+                    .setIdleTimeout(mPrinterConfig.getIdleTimeout())
+                    .setListener(sessionListener);
+        }
+
+        try {
+            mBluetoothSession.start();
+            mBluetoothSession.ensureConnected();
+            if (mPrinter == null) {
                 mPrinter = new EscPosPrinter(mBluetoothConnection,
                         203,
                         mPrinterConfig.getPaperWidthMM(),
                         mPrinterConfig.getCharacterPerLine(),
                         new EscPosCharsetEncoding("GBK", 0)
                 );
-            } catch (EscPosConnectionException e) {
-                Log.e(TAG, "buildPrinterConnection: Failed", e);
-                return null;
+                mPrinter.setRasterCache(ConverterUtil.getRasterCache(getReactApplicationContext()));
             }
+        } catch (EscPosConnectionException e) {
+            Log.e(TAG, "buildPrinterConnection: Failed", e);
+            // the connection forgot an endpoint it cannot reach, forget the persisted one too
+            saveEndpoint(mPrinterConfig.getDeviceAddress());
+            return null;
         }
         return mPrinter;
     }
 
+    private void closeSession() {
+        if (mBluetoothSession != null) {
+            mBluetoothSession.stop();
+            mBluetoothSession = null;
+        }
+    }
+
+    /**
+     * Reopen the connection in background when a print failed on a lost link.
+     */
+    private void onPrintFailed(Exception e) {
+        if (e instanceof EscPosConnectionException && mBluetoothSession != null) {
+            mBluetoothSession.reconnect();
+        }
+    }
+
     private BluetoothDevice getBluetoothDevice(String address) {
+        BluetoothDevice device = BluetoothEndpointCache.getDevice(address);
+        if (device != null) {
+            return device;
+        }
         try {
-            return getBluetoothAdapter().getRemoteDevice(address);
+            device = getBluetoothAdapter().getRemoteDevice(address);
+            BluetoothEndpointCache.putDevice(device);
+            loadEndpoint(address);
+            return device;
         } catch (Exception e) {
             Log.e(TAG, "getBluetoothDevice: Failed", e);
             return null;
         }
     }
 
+    private SharedPreferences getEndpointPreferences() {
+        return getReactApplicationContext().getSharedPreferences(ENDPOINT_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Restore the service resolved on a previous run, so the first connection can skip the discovery.
+     */
+    private void loadEndpoint(String address) {
+        if (BluetoothEndpointCache.getEndpoint(address) != null) {
+            return;
+        }
+        BluetoothEndpointCache.Endpoint endpoint = BluetoothEndpointCache.Endpoint.deserialize(
+                address,
+                getEndpointPreferences().getString(address, null)
+        );
+        if (endpoint != null) {
+            BluetoothEndpointCache.putEndpoint(endpoint);
+        }
+    }
+
+    /**
+     * Persist the endpoint of the printer, or remove the persisted one if the connection forgot it.
+     */
+    private void saveEndpoint(String address) {
+        BluetoothEndpointCache.Endpoint endpoint = BluetoothEndpointCache.getEndpoint(address);
+        SharedPreferences preferences = getEndpointPreferences();
+        if (endpoint == null) {
+            if (preferences.contains(address)) {
+                preferences.edit().remove(address).apply();
+            }
+            return;
+        }
+        String value = endpoint.serialize();
+        if (!value.equals(preferences.getString(address, null))) {
+            preferences.edit().putString(address, value).apply();
+        }
+    }
+
+    /**
+     * Streamed prints are already paced to the printer speed and don't need a delay.
+     */
+    private boolean isDelayAfterPrint() {
+        return mPrinterConfig.isDisconnectAfterPrint() && !mPrinterConfig.isStreaming();
+    }
+
+    @ReactMethod
+    public void getLastPrintSpeed(final Promise promise) {
+        if (mBluetoothConnection == null) {
+            promise.resolve(0);
+            return;
+        }
+        promise.resolve((double) mBluetoothConnection.getLastBytesPerSecond());
+    }
+
     @ReactMethod
     public void isBluetoothEnabled(final Promise promise) {
         BluetoothAdapter adapter = getBluetoothAdapter();
@@ -133,8 +279,10 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
             return;
         }
 
-        executorService.execute(() -> {
+        // the jobs queued before run with the previous connection, the jobs queued after with the new one
+        printQueue.executeBarrier(() -> {
             mPrinterConfig = new PrinterBluetoothConfig(options);
+            mPrintPriority = mPrinterConfig.getPriority();
             if (mPrinter != null) {
                 try {
                     mPrinter.disconnectPrinter();
@@ -142,6 +290,7 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
                 } catch (Exception ignored) {
                 }
             }
+            closeSession();
 
             if (buildPrinterConnection() != null) {
                 promise.resolve(true);
@@ -153,7 +302,7 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void disconnectPrinter(Promise promise) {
-        executorService.execute(() -> {
+        printQueue.executeBarrier(() -> {
             if (mPrinter != null) {
                 try {
                     mPrinter.disconnectPrinter();
@@ -163,11 +312,12 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
                 }
             }
 
+            closeSession();
             mPrinterConfig = null;
             mPrinter = null;
             mBluetoothConnection = null;
+            promise.resolve(true);
         });
-        promise.resolve(true);
     }
 
     @ReactMethod
@@ -206,7 +356,7 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void printImage(String base64, Promise promise) {
-        executorService.execute(() -> {
+        printQueue.execute(() -> {
             EscPosPrinter printer = buildPrinterConnection();
             if (printer == null) {
                 promise.reject("Error", "Cannot find connected printer");
@@ -220,16 +370,17 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
                     printer.printFormattedText(printText, 1f);
 
-                    if (mPrinterConfig.isDisconnectAfterPrint()) {
+                    if (isDelayAfterPrint()) {
                         Thread.sleep(200L);
                     }
                 }
                 promise.resolve(true);
             } catch (Exception e) {
                 Log.e(TAG, "printImage: Failed", e);
+                onPrintFailed(e);
                 promise.resolve(false);
             }
-        });
+        }, mPrintPriority);
     }
 
     @ReactMethod
@@ -246,9 +397,10 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void cutPaper(Promise promise) {
-        executorService.execute(() -> {
+        printQueue.execute(() -> {
             EscPosPrinter printer = buildPrinterConnection();
             if (printer == null) {
+                promise.reject("Error", "Cannot find connected printer");
                 return;
             }
 
@@ -257,16 +409,18 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
                 promise.resolve(true);
             } catch (EscPosConnectionException e) {
                 Log.e(TAG, "cutPaper: Failed", e);
+                onPrintFailed(e);
                 promise.resolve(false);
             }
-        });
+        }, mPrintPriority);
     }
 
     @ReactMethod
     public void openCashBox(Promise promise) {
-        executorService.execute(() -> {
+        printQueue.execute(() -> {
             EscPosPrinter printer = buildPrinterConnection();
             if (printer == null) {
+                promise.reject("Error", "Cannot find connected printer");
                 return;
             }
 
@@ -275,9 +429,10 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
                 promise.resolve(true);
             } catch (EscPosConnectionException e) {
                 Log.e(TAG, "openCashBox: Failed", e);
+                onPrintFailed(e);
                 promise.resolve(false);
             }
-        });
+        }, mPrintPriority);
     }
 
     @ReactMethod
@@ -287,13 +442,25 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
         Log.i(TAG, "printCaptainOrder: \n" + printText);
 
-        startPrintCaptainOrder(printText, delay, promise);
+        startPrintCaptainOrder(printText, delay, mPrintPriority, promise);
+    }
+
+    /**
+     * Print a captain order with its own priority: "receipt", "kitchen" or "report".
+     */
+    @ReactMethod
+    public void printCaptainOrderWithPriority(String printText, String priority, Promise promise) {
+        String[] spliter = printText.split("\n");
+        long delay = spliter.length * 30L;
+
+        startPrintCaptainOrder(printText, delay, PrinterBluetoothConfig.parsePriority(priority), promise);
     }
 
-    private void startPrintCaptainOrder(final String printText, long delay, Promise promise) {
-        executorService.execute(() -> {
+    private void startPrintCaptainOrder(final String printText, long delay, int priority, Promise promise) {
+        printQueue.execute(() -> {
             EscPosPrinter printer = buildPrinterConnection();
             if (printer == null) {
+                promise.reject("Error", "Cannot find connected printer");
                 return;
             }
 
@@ -308,22 +475,24 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
                 printer.printFormattedText(builderText.toString(), 0f);
                 Log.i(TAG, "startPrintCaptainOrder: \n" + builderText);
 
-                if (mPrinterConfig.isDisconnectAfterPrint()) {
+                if (isDelayAfterPrint()) {
                     Thread.sleep(delay);
                 }
 
                 promise.resolve(true);
             } catch (Exception e) {
                 Log.e(TAG, "startPrint: Failed", e);
+                onPrintFailed(e);
                 promise.resolve(false);
             }
-        });
+        }, priority);
     }
 
     private void startPrint(final String printText, int feedAfterPrint, long delay, Promise promise) {
-        executorService.execute(() -> {
+        printQueue.execute(() -> {
             EscPosPrinter printer = buildPrinterConnection();
             if (printer == null) {
+                promise.reject("Error", "Cannot find connected printer");
                 return;
             }
 
@@ -340,16 +509,23 @@ public class LunaBluetoothPrinterModule extends ReactContextBaseJavaModule {
 
                 printer.printFormattedText(textToPrint, printFeed);
 
-                if (mPrinterConfig.isDisconnectAfterPrint()) {
+                if (isDelayAfterPrint()) {
                     Thread.sleep(delay);
                 }
 
                 promise.resolve(true);
             } catch (Exception e) {
                 Log.e(TAG, "startPrint: Failed", e);
+                onPrintFailed(e);
                 promise.resolve(false);
             }
-        });
+        }, mPrintPriority);
+    }
+
+    private void sendEvent(String eventName, WritableMap params) {
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(eventName, params);
     }
 
     private Boolean isBluetoothPermissionsGranted() {
@@ -5,25 +5,41 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.luna.escposprinter.model.PrinterNetworkConfig;
 import com.luna.escposprinter.sdk.EscPosCharsetEncoding;
 import com.luna.escposprinter.sdk.EscPosPrinter;
+import com.luna.escposprinter.sdk.connection.PipelinedConnection;
 import com.luna.escposprinter.sdk.connection.tcp.TcpConnection;
+import com.luna.escposprinter.sdk.connection.tcp.TcpConnectionPool;
 import com.luna.escposprinter.sdk.exceptions.EscPosBarcodeException;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 import com.luna.escposprinter.sdk.exceptions.EscPosEncodingException;
 import com.luna.escposprinter.sdk.exceptions.EscPosParserException;
+import com.luna.escposprinter.sdk.exceptions.EscPosTimeoutException;
+import com.luna.escposprinter.sdk.job.FanOutPrinter;
+import com.luna.escposprinter.sdk.job.JobCoalescer;
+import com.luna.escposprinter.sdk.job.RenderedJob;
+import com.luna.escposprinter.sdk.status.AutomaticStatusDecoder;
 import com.luna.escposprinter.util.ConverterUtil;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 @ReactModule(name = LunaNetworkPrinterModule.NAME)
 public class LunaNetworkPrinterModule extends ReactContextBaseJavaModule {
@@ -37,33 +53,158 @@ public class LunaNetworkPrinterModule extends ReactContextBaseJavaModule {
         return NAME;
     }
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    static final int PRINTER_PORT = 9100;
+
+    static final int CONNECT_TIMEOUT = 150;
+
+    static final String EVENT_PRINT_RESULT = "LunaNetworkPrinterResult";
+
+    static final String EVENT_PRINTER_STATUS = "LunaNetworkPrinterStatus";
+
+    static final String ERROR_PRINT_TIMEOUT = "PRINT_TIMEOUT";
+
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+
+    private final TcpConnectionPool connectionPool = new TcpConnectionPool(8, 5 * 60 * 1000L, CONNECT_TIMEOUT);
+
+    private final Map<TcpConnection, EscPosPrinter> printers = new HashMap<>();
+
+    private final Map<TcpConnection, PipelinedConnection> pipelines = new HashMap<>();
+
+    private final ExecutorService fanOutExecutor = Executors.newFixedThreadPool(6);
+
+    private final FanOutPrinter fanOutPrinter = new FanOutPrinter(
+            connectionPool,
+            fanOutExecutor,
+            203,
+            new EscPosCharsetEncoding("GBK", 0)
+    );
+
+    private final Map<String, JobCoalescer> coalescers = new HashMap<>();
+
+    private final AutomaticStatusDecoder statusDecoder = new AutomaticStatusDecoder((connection, event, status) -> {
+        WritableMap statusMap = ConverterUtil.convertPrinterStatusToMap(event, status);
+        statusMap.putString("netIp", ((TcpConnection) connection).getAddress());
+        sendEvent(EVENT_PRINTER_STATUS, statusMap);
+    });
 
     public LunaNetworkPrinterModule(ReactApplicationContext reactContext) {
         super(reactContext);
+        // Forget the printer of a connection closed by the pool, and stop the writer thread of its pipeline
+        connectionPool.setConnectionListener(connection -> {
+            PipelinedConnection pipeline;
+            synchronized (this) {
+                printers.remove(connection);
+                pipeline = pipelines.remove(connection);
+            }
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+        });
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        // Queued jobs fail fast once the pool is closed, then the threads stop
+        executorService.shutdown();
+        fanOutExecutor.shutdown();
+        connectionPool.close();
+        List<PipelinedConnection> runningPipelines;
+        synchronized (this) {
+            runningPipelines = new ArrayList<>(pipelines.values());
+            pipelines.clear();
+            printers.clear();
+        }
+        for (PipelinedConnection pipeline : runningPipelines) {
+            pipeline.stop();
+        }
+    }
 
+    private synchronized EscPosPrinter getPrinter(TcpConnection connection, PrinterNetworkConfig config) throws EscPosConnectionException {
+        EscPosPrinter printer = printers.get(connection);
+        if (printer == null
+                || printer.getPrinterWidthMM() != config.getPaperWidthMM()
+                || printer.getPrinterNbrCharactersPerLine() != config.getCharacterPerLine()) {
+            printer = new EscPosPrinter(
+                    getPipeline(connection),
+                    203,
+                    config.getPaperWidthMM(),
+                    config.getCharacterPerLine(),
+                    new EscPosCharsetEncoding("GBK", 0)
+            );
+            printers.put(connection, printer);
+        }
+        return printer;
+    }
+
+    /**
+     * Get the pipeline writing the commands of a printer, the next lines are rendered while the previous are sent.
+     */
+    private synchronized PipelinedConnection getPipeline(TcpConnection connection) {
+        PipelinedConnection pipeline = pipelines.get(connection);
+        if (pipeline == null) {
+            pipeline = new PipelinedConnection(connection);
+            pipelines.put(connection, pipeline);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Open the connections of the network printers used by the app, so the first print does not wait for them.
+     *
+     * @param options Array of printer config, same as printCaptainOrder option
+     */
+    @ReactMethod
+    public void preparePrinters(ReadableArray options, Promise promise) {
+        executorService.execute(() -> {
+            int connectedCount = 0;
+            for (int i = 0; i < options.size(); i++) {
+                PrinterNetworkConfig config = new PrinterNetworkConfig(options.getMap(i));
+                try {
+                    connectionPool.preconnect(config.getIpAddress(), PRINTER_PORT);
+                    connectedCount++;
+                } catch (EscPosConnectionException e) {
+                    Log.e(TAG, "preparePrinters: Failed to connect " + config.getIpAddress(), e);
+                }
+            }
+            promise.resolve(connectedCount);
+        });
+    }
+
+
+    /**
+     * Jobs are queued by printer and sent by priority, set with the "priority" option.
+     */
     @ReactMethod
     public void printCaptainOrder(ReadableMap option, String textToPrint, Promise promise) {
         Log.i(TAG, "startPrintCaptainOrder: \n" + textToPrint);
-        executorService.execute(() -> {
+        final PrinterNetworkConfig config;
+        try {
+            config = new PrinterNetworkConfig(option);
+        } catch (Exception e) {
+            Log.e(TAG, "on print network", e);
+            promise.reject(e);
+            return;
+        }
+        if (config.getCoalesceWindow() > 0) {
+            printCoalesced(config, textToPrint, promise);
+            return;
+        }
+        String printerKey = TcpConnectionPool.getKey(config.getIpAddress(), PRINTER_PORT);
+        fanOutPrinter.getPrinterQueue(printerKey).execute(() -> {
+            TcpConnection connection = null;
             try {
-                PrinterNetworkConfig config = new PrinterNetworkConfig(option);
-
-                TcpConnection connection = new TcpConnection(
-                        config.getIpAddress(),
-                        9100,
-                        150
-                );
-
-                EscPosPrinter printer = new EscPosPrinter(
-                        connection,
-                        203,
-                        config.getPaperWidthMM(),
-                        config.getCharacterPerLine(),
-                        new EscPosCharsetEncoding("GBK", 0)
-                );
+                connection = connectionPool.acquire(config.getIpAddress(), PRINTER_PORT);
+                connection.setFlowControl(config.getFlowControl());
+                connection.setWriteTimeouts(config.getWriteTimeout(), config.getJobTimeout());
+                connection.beginJob();
+
+                EscPosPrinter printer = getPrinter(connection, config);
+                if (config.isStatusEvents() && !connection.isResponseReaderRunning()) {
+                    connection.addResponseListener(statusDecoder);
+                    printer.enableAutomaticStatusBack(true);
+                }
 
                 int feedValue = (int) config.getPaperFeed();
                 StringBuilder builderText = new StringBuilder();
@@ -82,15 +223,182 @@ public class LunaNetworkPrinterModule extends ReactContextBaseJavaModule {
                 if (config.isOpenCashBox()) {
                     printer.openCashBox();
                 }
+                int jobTimeout = config.getJobTimeout() > 0 ? config.getJobTimeout() : Integer.MAX_VALUE;
+                if (!getPipeline(connection).flush(jobTimeout)) {
+                    throw new EscPosTimeoutException("Print job not sent within " + jobTimeout + " ms.");
+                }
+                connection.endJob();
 
-                connection.disconnect();
+                if (config.isDisconnectAfterPrint()) {
+                    connectionPool.invalidate(connection);
+                } else {
+                    connectionPool.release(connection);
+                }
 
                 promise.resolve(true);
             } catch (Exception e) {
                 Log.e(TAG, "on print network", e);
+                if (connection != null) {
+                    connectionPool.invalidate(connection);
+                }
+                rejectPrint(promise, e);
+            }
+        }, config.getPriority());
+    }
+
+    /**
+     * Print the same order on several printers in parallel.
+     * Each printer result is emitted with the LunaNetworkPrinterResult event as soon as it completes,
+     * the promise is resolved with all the results.
+     *
+     * @param options     Array of printer config, same as printCaptainOrder option
+     * @param textToPrint Formatted text to be printed
+     */
+    @ReactMethod
+    public void printCaptainOrderToPrinters(ReadableArray options, String textToPrint, Promise promise) {
+        Log.i(TAG, "printCaptainOrderToPrinters: \n" + textToPrint);
+        executorService.execute(() -> {
+            try {
+                FanOutPrinter.Target[] targets = new FanOutPrinter.Target[options.size()];
+                for (int i = 0; i < options.size(); i++) {
+                    targets[i] = toTarget(new PrinterNetworkConfig(options.getMap(i)));
+                }
+
+                fanOutPrinter.print(textToPrint, targets, new FanOutPrinter.Listener() {
+                    @Override
+                    public void onPrinterCompleted(FanOutPrinter.Result result) {
+                        sendEvent(EVENT_PRINT_RESULT, resultToMap(result));
+                    }
+
+                    @Override
+                    public void onAllCompleted(FanOutPrinter.Result[] results) {
+                        try {
+                            WritableArray resultList = Arguments.createArray();
+                            for (FanOutPrinter.Result result : results) {
+                                resultList.pushMap(resultToMap(result));
+                            }
+                            promise.resolve(resultList);
+                        } catch (Exception e) {
+                            Log.e(TAG, "on print network fan-out result", e);
+                            promise.reject(e);
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "on print network fan-out", e);
+                promise.reject(e);
+            }
+        });
+    }
+
+    private FanOutPrinter.Target toTarget(PrinterNetworkConfig config) {
+        FanOutPrinter.Target target = new FanOutPrinter.Target(
+                config.getIpAddress(),
+                PRINTER_PORT,
+                config.getPaperWidthMM(),
+                config.getCharacterPerLine()
+        )
+                .setFeedLines((int) config.getPaperFeed())
+                .setCutPaper(config.isCutPaper())
+                .setOpenCashBox(config.isOpenCashBox())
+                .setDisconnectAfterPrint(config.isDisconnectAfterPrint())
+                .setFlowControl(config.getFlowControl())
+                .setPriority(config.getPriority())
+                .setWriteTimeouts(config.getWriteTimeout(), config.getJobTimeout());
+        if (config.isStatusEvents()) {
+            target.setResponseListener(statusDecoder);
+        }
+        return target;
+    }
+
+    /**
+     * Get the coalescer of a printer. A batch only holds jobs with the same connection options, sent with them.
+     */
+    private synchronized JobCoalescer getCoalescer(FanOutPrinter.Target target, PrinterNetworkConfig config) {
+        final String key = target.getKey();
+        JobCoalescer coalescer = coalescers.get(key);
+        if (coalescer == null) {
+            coalescer = new JobCoalescer(fanOutPrinter.getPrinterQueue(key), executorService, (batch, batchTarget) -> {
+                FanOutPrinter.Result result = fanOutPrinter.send(batchTarget, batch);
+                if (result.getError() instanceof EscPosConnectionException) {
+                    throw (EscPosConnectionException) result.getError();
+                }
+                if (!result.isSuccess()) {
+                    throw new EscPosConnectionException(result.getError().getMessage());
+                }
+            });
+            coalescers.put(key, coalescer);
+        }
+        coalescer.setBatchParameters(config.getCoalesceWindow(), config.getCoalesceMaxJobs(), 64 * 1024);
+        return coalescer;
+    }
+
+    /**
+     * Render the job now and let the printer coalescer send it with the jobs arriving in the same window.
+     */
+    private void printCoalesced(PrinterNetworkConfig config, String textToPrint, Promise promise) {
+        executorService.execute(() -> {
+            try {
+                FanOutPrinter.Target target = toTarget(config);
+                RenderedJob renderedJob = fanOutPrinter.render(textToPrint, target);
+                getCoalescer(target, config).submit(renderedJob, target, error -> {
+                    if (error == null) {
+                        promise.resolve(true);
+                    } else {
+                        rejectPrint(promise, error);
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "on print network coalesced", e);
                 promise.reject(e);
             }
         });
     }
 
-}
\ No newline at end of file
+    /**
+     * Get the print throughput of a printer using coalescing.
+     *
+     * @param netIp IP address of the printer
+     */
+    @ReactMethod
+    public void getPrintThroughput(String netIp, Promise promise) {
+        JobCoalescer coalescer;
+        synchronized (this) {
+            coalescer = coalescers.get(TcpConnectionPool.getKey(netIp, PRINTER_PORT));
+        }
+        WritableMap throughputMap = Arguments.createMap();
+        throughputMap.putInt("ticketsPerMinute", coalescer != null ? coalescer.getTicketsPerMinute() : 0);
+        throughputMap.putDouble("averageBatchSize", coalescer != null ? coalescer.getAverageBatchSize() : 0);
+        promise.resolve(throughputMap);
+    }
+
+    private WritableMap resultToMap(FanOutPrinter.Result result) {
+        WritableMap resultMap = Arguments.createMap();
+        resultMap.putString("netIp", result.getTarget().getAddress());
+        resultMap.putBoolean("success", result.isSuccess());
+        resultMap.putDouble("duration", result.getDuration());
+        resultMap.putBoolean("timeout", result.isTimeout());
+        if (result.getError() != null) {
+            resultMap.putString("error", result.getError().getMessage());
+        }
+        return resultMap;
+    }
+
+    /**
+     * Reject a print, with the PRINT_TIMEOUT code if the printer stopped reading, so the app can print elsewhere.
+     */
+    private void rejectPrint(Promise promise, Exception e) {
+        if (e instanceof EscPosTimeoutException) {
+            promise.reject(ERROR_PRINT_TIMEOUT, e.getMessage(), e);
+        } else {
+            promise.reject(e);
+        }
+    }
+
+    private void sendEvent(String eventName, WritableMap params) {
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(eventName, params);
+    }
+
+}
@@ -23,18 +23,29 @@ import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.luna.escposprinter.model.PrinterUsbConfig;
 import com.luna.escposprinter.sdk.EscPosCharsetEncoding;
 import com.luna.escposprinter.sdk.EscPosPrinter;
+import com.luna.escposprinter.sdk.connection.ByteArrayConnection;
+import com.luna.escposprinter.sdk.connection.DirectBufferPool;
 import com.luna.escposprinter.sdk.connection.usb.UsbConnection;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+import com.luna.escposprinter.sdk.spool.PrintJournal;
+import com.luna.escposprinter.sdk.spool.PrintSpooler;
+import com.luna.escposprinter.sdk.status.AutomaticStatusDecoder;
 import com.luna.escposprinter.util.ConverterUtil;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Main step to printing with USB device
@@ -54,6 +65,8 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
     public LunaUsbPrinterModule(ReactApplicationContext reactContext) {
         super(reactContext);
         initBroadcastReceiver();
+        // send the jobs left by a previous run once the printer is connected
+        executorService.execute(this::getPrintSpooler);
     }
 
     @NonNull
@@ -64,7 +77,24 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
 
     static final String ACTION_USB_PERMISSION = "com.luna.escposprinter.USB_PERMISSION";
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    static final String EVENT_PRINTER_STATUS = "LunaUsbPrinterStatus";
+
+    static final String EVENT_PRINT_JOB = "LunaUsbPrinterJob";
+
+    static final String SPOOL_DIRECTORY = "luna-usb-print-spool";
+
+    static final int DIRECT_BUFFER_POOL_LENGTH = 8 * 1024 * 1024;
+
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+
+    private PrintSpooler mPrintSpooler;
+
+    /**
+     * Direct buffers of the images, queued on the USB requests without copy with the "directBuffers" option.
+     */
+    private final DirectBufferPool bufferPool = new DirectBufferPool(DIRECT_BUFFER_POOL_LENGTH);
+
+    private final Map<Long, Promise> mJobPromises = new HashMap<>();
 
     private Promise mConnectionPromise;
 
@@ -102,6 +132,14 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
 
     private StringBuilder mTextToPrint = new StringBuilder();
 
+    private final AutomaticStatusDecoder statusDecoder = new AutomaticStatusDecoder((connection, event, status) -> {
+        UsbDevice usbDevice = ((UsbConnection) connection).getDevice();
+        WritableMap statusMap = ConverterUtil.convertPrinterStatusToMap(event, status);
+        statusMap.putInt("vendor_id", usbDevice.getVendorId());
+        statusMap.putInt("product_id", usbDevice.getProductId());
+        sendEvent(EVENT_PRINTER_STATUS, statusMap);
+    });
+
     private UsbManager getUsbManager() {
         if (mUsbManager == null) {
             mUsbManager = (UsbManager) getReactApplicationContext().getSystemService(Context.USB_SERVICE);
@@ -143,6 +181,7 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
     }
 
     private EscPosPrinter getPrinter(UsbConnection connection) throws EscPosConnectionException {
+        connection.setBufferPool(mPrinterConfig.isDirectBuffers() ? bufferPool : null);
         if (mPrinter == null) {
             mPrinter = new EscPosPrinter(
                     connection,
@@ -151,10 +190,113 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
                     mPrinterConfig.getCharacterPerLine(),
                     new EscPosCharsetEncoding("GBK", 0)
             );
+            mPrinter.setRasterCache(ConverterUtil.getRasterCache(getReactApplicationContext()));
         }
         return mPrinter;
     }
 
+    /**
+     * Open the spool journal and resume its unfinished jobs. Must be called from the executor.
+     */
+    private PrintSpooler getPrintSpooler() {
+        if (mPrintSpooler == null) {
+            try {
+                PrintJournal journal = new PrintJournal(new File(getReactApplicationContext().getFilesDir(), SPOOL_DIRECTORY));
+                mPrintSpooler = new PrintSpooler(journal, executorService, this::sendJob)
+                        .setListener(printJobListener);
+                if (journal.getPendingCount() > 0) {
+                    Log.i(TAG, "getPrintSpooler: " + journal.getPendingCount() + " jobs to resume");
+                    mPrintSpooler.resume();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "getPrintSpooler: Failed to open journal", e);
+            }
+        }
+        return mPrintSpooler;
+    }
+
+    /**
+     * Send a job from the spool journal. Its mapped pages are direct memory, the USB requests are queued on them
+     * without heap copy.
+     */
+    private void sendJob(ByteBuffer job) throws EscPosConnectionException {
+        if (mUsbConnection == null) {
+            throw new EscPosConnectionException("USB printer is not connected.");
+        }
+        mUsbConnection.connect();
+        mUsbConnection.writeShared(job);
+        // waiting time makes the connection wait for all the USB transfers
+        mUsbConnection.send(100);
+    }
+
+    private final PrintSpooler.Listener printJobListener = new PrintSpooler.Listener() {
+        @Override
+        public void onJobSent(long jobId) {
+            Promise promise = mJobPromises.remove(jobId);
+            if (promise != null) {
+                promise.resolve(true);
+            }
+            sendJobEvent(jobId, "done", null);
+        }
+
+        @Override
+        public void onJobFailed(long jobId, EscPosConnectionException e) {
+            // the promise is settled once the job is sent or given up
+            Log.e(TAG, "onJobFailed: job " + jobId + " will be sent again", e);
+            sendJobEvent(jobId, "queued", e.getMessage());
+        }
+
+        @Override
+        public void onJobCancelled(long jobId, @Nullable EscPosConnectionException e) {
+            Log.e(TAG, "onJobCancelled: job " + jobId + (e != null ? " given up" : " cancelled"), e);
+            Promise promise = mJobPromises.remove(jobId);
+            if (promise != null) {
+                if (e != null) {
+                    promise.reject("Failed to print", e);
+                } else {
+                    promise.reject("Print job cancelled", new Exception("Print job cancelled"));
+                }
+            }
+            sendJobEvent(jobId, "cancelled", e != null ? e.getMessage() : null);
+        }
+    };
+
+    private void sendJobEvent(long jobId, String state, @Nullable String error) {
+        WritableMap jobMap = Arguments.createMap();
+        jobMap.putDouble("jobId", jobId);
+        jobMap.putString("state", state);
+        if (error != null) {
+            jobMap.putString("error", error);
+        }
+        sendEvent(EVENT_PRINT_JOB, jobMap);
+    }
+
+    /**
+     * Render the job in ESC/POS commands, without the printer connection.
+     */
+    private byte[] renderJob(String textToPrint, float printFeed) throws Exception {
+        ByteArrayConnection connection = new ByteArrayConnection();
+        EscPosPrinter printer = new EscPosPrinter(
+                connection,
+                203,
+                mPrinterConfig.getPaperWidthMM(),
+                mPrinterConfig.getCharacterPerLine(),
+                new EscPosCharsetEncoding("GBK", 0)
+        );
+        printer.setRasterCache(ConverterUtil.getRasterCache(getReactApplicationContext()));
+
+        printer.printFormattedText(textToPrint, printFeed);
+
+        if (mPrinterConfig.isCutPaper()) {
+            printer.cutPaper();
+        }
+
+        if (mPrinterConfig.isOpenCashBox()) {
+            printer.openCashBox();
+        }
+        return connection.toByteArray();
+    }
+
     private StringBuilder getPrinterTextBuilder() {
         if (mTextToPrint == null) {
             mTextToPrint = new StringBuilder();
@@ -221,7 +363,14 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
                 mUsbConnection = buildUsbConnection(currentDevice);
                 mUsbConnection.connect();
                 mPrinter = getPrinter(mUsbConnection);
+                if (mPrinterConfig.isStatusEvents()) {
+                    mUsbConnection.addResponseListener(statusDecoder);
+                    mPrinter.enableAutomaticStatusBack(true);
+                }
                 setConnectionPromiseResolved(true);
+                if (mPrintSpooler != null) {
+                    mPrintSpooler.resume();
+                }
             } catch (EscPosConnectionException | NullPointerException e) {
                 Log.e(TAG, "On received USB permission failed", e);
                 setConnectionPromiseError("Cannot connect to USB Device",
@@ -301,34 +450,23 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
                         new Exception("Cannot find printer config"));
                 return;
             }
-            EscPosPrinter printer;
-            try {
-                printer = getPrinter(mUsbConnection);
-            } catch (EscPosConnectionException e) {
-                Log.e(TAG, "startPrint: Failed", e);
-                promise.reject("Cannot access printer device", e);
+            PrintSpooler spooler = getPrintSpooler();
+            if (spooler == null) {
+                promise.reject("Cannot access print spool", new Exception("Cannot open print spool"));
                 return;
             }
 
             try {
-                String textToPrint = mTextToPrint.toString();
+                String textToPrint = getPrinterTextBuilder().toString();
                 float printFeed = mPrinterConfig.getPaperFeed();
                 if (printFeed > 0) {
                     printFeed = printFeed / 10f;
                 }
                 printFeed += 8f;
 
-                printer.printFormattedText(textToPrint, printFeed);
-
-                if (mPrinterConfig.isCutPaper()) {
-                    printer.cutPaper();
-                }
-
-                if (mPrinterConfig.isOpenCashBox()) {
-                    printer.openCashBox();
-                }
-
-                promise.resolve(true);
+                // the job is journaled before being sent, the promise is settled once it is sent or given up
+                long jobId = spooler.submit(renderJob(textToPrint, printFeed));
+                mJobPromises.put(jobId, promise);
             } catch (Exception e) {
                 Log.e(TAG, "startPrint: Failed", e);
                 promise.reject("Failed to print", e);
@@ -338,6 +476,30 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
         });
     }
 
+    /**
+     * Remove a job waiting in the print spool, its startPrint promise is rejected.
+     *
+     * @param jobId Id of the job, given by the LunaUsbPrinterJob event
+     */
+    @ReactMethod
+    public void cancelPrintJob(double jobId, Promise promise) {
+        executorService.execute(() -> {
+            PrintSpooler spooler = getPrintSpooler();
+            promise.resolve(spooler != null && spooler.cancel((long) jobId));
+        });
+    }
+
+    /**
+     * Remove all the jobs waiting in the print spool, their startPrint promises are rejected.
+     */
+    @ReactMethod
+    public void purgePrintJobs(Promise promise) {
+        executorService.execute(() -> {
+            PrintSpooler spooler = getPrintSpooler();
+            promise.resolve(spooler != null ? spooler.purge() : 0);
+        });
+    }
+
     private void doAfterPrint() {
         mTextToPrint = null;
     }
@@ -379,5 +541,10 @@ public class LunaUsbPrinterModule extends ReactContextBaseJavaModule {
         }
     }
 
+    private void sendEvent(String eventName, WritableMap params) {
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(eventName, params);
+    }
 
 }
@@ -1,19 +1,44 @@
 package com.luna.escposprinter.sdk;
 
+import com.luna.escposprinter.sdk.connection.ByteArrayConnection;
 import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.DirectBufferPool;
 import com.luna.escposprinter.sdk.exceptions.EscPosBarcodeException;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 import com.luna.escposprinter.sdk.exceptions.EscPosEncodingException;
 import com.luna.escposprinter.sdk.exceptions.EscPosParserException;
+import com.luna.escposprinter.sdk.image.RasterBandStream;
+import com.luna.escposprinter.sdk.image.RasterCache;
+import com.luna.escposprinter.sdk.job.PrintFuture;
+import com.luna.escposprinter.sdk.job.RenderedJob;
+import com.luna.escposprinter.sdk.job.SerialExecutor;
 import com.luna.escposprinter.sdk.textparser.IPrinterTextParserElement;
 import com.luna.escposprinter.sdk.textparser.PrinterTextParser;
 import com.luna.escposprinter.sdk.textparser.PrinterTextParserColumn;
+import com.luna.escposprinter.sdk.textparser.PrinterTextParserImg;
 import com.luna.escposprinter.sdk.textparser.PrinterTextParserLine;
 import com.luna.escposprinter.sdk.textparser.PrinterTextParserString;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class EscPosPrinter extends EscPosPrinterSize {
 
+    /**
+     * Part of an asynchronous job running in the printer queue.
+     */
+    private interface AsyncTask {
+        void run() throws Exception;
+    }
+
+    private static Executor defaultAsyncExecutor = null;
+
     private EscPosPrinterCommands printer = null;
+    private Executor asyncExecutor = null;
+    private SerialExecutor printerQueue = null;
+    private RasterCache rasterCache = null;
 
     /**
      * Create new instance of EscPosPrinter.
@@ -68,6 +93,39 @@ public class EscPosPrinter extends EscPosPrinterSize {
         return this;
     }
 
+    /**
+     * @return Pool of direct buffers holding the images, null if images are held in the heap
+     */
+    public DirectBufferPool getBufferPool() {
+        return this.printer != null ? this.printer.getBufferPool() : null;
+    }
+
+    /**
+     * Set the cache of the images given to the img tag with a dither attribute, so an image printed again
+     * is not decoded and rasterized again.
+     *
+     * @param rasterCache Cache shared by the printers, null to rasterize the images on each print
+     * @return Fluent interface
+     */
+    public EscPosPrinter setRasterCache(RasterCache rasterCache) {
+        this.rasterCache = rasterCache;
+        return this;
+    }
+
+    /**
+     * @return Cache of the rasterized images, null if the images are rasterized on each print
+     */
+    public RasterCache getRasterCache() {
+        return this.rasterCache;
+    }
+
+    /**
+     * @return Maximum number of rows by "GS v 0" command of the images printed by bands
+     */
+    public int getRasterBandHeight() {
+        return this.printer != null ? this.printer.getRasterBandHeight() : RasterBandStream.DEFAULT_BAND_HEIGHT;
+    }
+
     /**
      * Active "ESC *" command for image printing.
      *
@@ -117,26 +175,40 @@ public class EscPosPrinter extends EscPosPrinterSize {
                 .setFormattedText(text)
                 .parse();
 
-        this.printer.reset();
+        try {
+            this.printer.reset();
 
-        for (PrinterTextParserLine line : linesParsed) {
-            PrinterTextParserColumn[] columns = line.getColumns();
+            for (PrinterTextParserLine line : linesParsed) {
+                PrinterTextParserColumn[] columns = line.getColumns();
 
-            IPrinterTextParserElement lastElement = null;
-            for (PrinterTextParserColumn column : columns) {
-                IPrinterTextParserElement[] elements = column.getElements();
-                for (IPrinterTextParserElement element : elements) {
-                    element.print(this.printer);
-                    lastElement = element;
+                IPrinterTextParserElement lastElement = null;
+                for (PrinterTextParserColumn column : columns) {
+                    IPrinterTextParserElement[] elements = column.getElements();
+                    for (IPrinterTextParserElement element : elements) {
+                        element.print(this.printer);
+                        lastElement = element;
+                    }
                 }
-            }
 
-            if (lastElement instanceof PrinterTextParserString) {
-                this.printer.newLine();
+                if (lastElement instanceof PrinterTextParserString) {
+                    this.printer.newLine();
+                }
+            }
+        } finally {
+            // Give back the direct buffers of the images not printed because of an error
+            for (PrinterTextParserLine line : linesParsed) {
+                for (PrinterTextParserColumn column : line.getColumns()) {
+                    for (IPrinterTextParserElement element : column.getElements()) {
+                        if (element instanceof PrinterTextParserImg) {
+                            ((PrinterTextParserImg) element).release();
+                        }
+                    }
+                }
             }
         }
 
         this.printer.feedPaper(dotsFeedPaper);
+        this.printer.sendPendingData();
         return this;
     }
 
@@ -217,6 +289,231 @@ public class EscPosPrinter extends EscPosPrinterSize {
         return this;
     }
 
+    /**
+     * Set the executor running the asynchronous jobs, must be called before the first asynchronous job.
+     * By default, the jobs run on a cached thread pool shared by all the printers.
+     *
+     * @param executor Executor rendering and sending the asynchronous jobs
+     * @return Fluent interface
+     */
+    public synchronized EscPosPrinter setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Print a formatted text asynchronously. Read the README.md for more information about text formatting options.
+     *
+     * Jobs of this printer are sent one after the other, in the order of the calls. The text is parsed and rendered
+     * as soon as the method is called, while the previous jobs are sent. Synchronous methods must not be called
+     * while asynchronous jobs are pending.
+     *
+     * @param text Formatted text to be printed.
+     * @return Future completed once the job has been sent
+     */
+    public PrintFuture<EscPosPrinter> printFormattedTextAsync(String text) {
+        return this.printFormattedTextAsync(text, 20f);
+    }
+
+    /**
+     * Print a formatted text asynchronously. Read the README.md for more information about text formatting options.
+     *
+     * @param text        Formatted text to be printed.
+     * @param mmFeedPaper millimeter distance feed paper at the end.
+     * @return Future completed once the job has been sent
+     */
+    public PrintFuture<EscPosPrinter> printFormattedTextAsync(String text, float mmFeedPaper) {
+        return this.printRenderedAsync(text, this.mmToPx(mmFeedPaper), false, false);
+    }
+
+    /**
+     * Print a formatted text and cut the paper asynchronously. Read the README.md for more information about text formatting options.
+     *
+     * @param text Formatted text to be printed.
+     * @return Future completed once the job has been sent
+     */
+    public PrintFuture<EscPosPrinter> printFormattedTextAndCutAsync(String text) {
+        return this.printFormattedTextAndCutAsync(text, 20f);
+    }
+
+    /**
+     * Print a formatted text and cut the paper asynchronously. Read the README.md for more information about text formatting options.
+     *
+     * @param text        Formatted text to be printed.
+     * @param mmFeedPaper millimeter distance feed paper at the end.
+     * @return Future completed once the job has been sent
+     */
+    public PrintFuture<EscPosPrinter> printFormattedTextAndCutAsync(String text, float mmFeedPaper) {
+        return this.printRenderedAsync(text, this.mmToPx(mmFeedPaper), true, false);
+    }
+
+    /**
+     * Print a formatted text, cut the paper and open the cash box asynchronously. Read the README.md for more information about text formatting options.
+     *
+     * @param text        Formatted text to be printed.
+     * @param mmFeedPaper millimeter distance feed paper at the end.
+     * @return Future completed once the job has been sent
+     */
+    public PrintFuture<EscPosPrinter> printFormattedTextAndOpenCashBoxAsync(String text, float mmFeedPaper) {
+        return this.printRenderedAsync(text, this.mmToPx(mmFeedPaper), true, true);
+    }
+
+    /**
+     * Cut the paper asynchronously, after the pending jobs.
+     *
+     * @return Future completed once the command has been sent
+     */
+    public PrintFuture<EscPosPrinter> cutPaperAsync() {
+        PrintFuture<EscPosPrinter> future = new PrintFuture<>();
+        this.runAsync(future, () -> this.printer.cutPaper());
+        return future;
+    }
+
+    /**
+     * Open the cash box asynchronously, after the pending jobs.
+     *
+     * @return Future completed once the command has been sent
+     */
+    public PrintFuture<EscPosPrinter> openCashBoxAsync() {
+        PrintFuture<EscPosPrinter> future = new PrintFuture<>();
+        this.runAsync(future, () -> this.printer.openCashBox());
+        return future;
+    }
+
+    /**
+     * Render the text on the async executor right away, then send it in the printer queue once the previous jobs are sent.
+     */
+    private PrintFuture<EscPosPrinter> printRenderedAsync(final String text, final int dotsFeedPaper, final boolean isCutPaper, final boolean isOpenCashBox) {
+        if (this.printer == null) {
+            return PrintFuture.failed(new EscPosConnectionException("Unable to print, the printer is disconnected."));
+        }
+        if (this.printerNbrCharactersPerLine == 0) {
+            return PrintFuture.completed(this);
+        }
+
+        final PrintFuture<EscPosPrinter> future = new PrintFuture<>();
+        final PrintFuture<RenderedJob> rendering = new PrintFuture<>();
+        // Rendered by the first of the render task and the queue task, the queue never waits for a task not started
+        final AtomicBoolean isRenderingClaimed = new AtomicBoolean(false);
+        final EscPosCharsetEncoding charsetEncoding = this.printer.getCharsetEncoding();
+        final boolean useEscAsteriskCommand = this.printer.isEscAsteriskCommandUsed();
+        final int rasterBandHeight = this.printer.getRasterBandHeight();
+        final DirectBufferPool bufferPool = this.getBufferPool();
+        final AsyncTask renderTask = () -> {
+            try {
+                rendering.complete(this.render(text, dotsFeedPaper, isCutPaper, charsetEncoding, useEscAsteriskCommand, rasterBandHeight, bufferPool));
+            } catch (Exception e) {
+                rendering.completeExceptionally(e);
+            }
+        };
+
+        this.getAsyncExecutor().execute(() -> {
+            if (!future.isDone() && isRenderingClaimed.compareAndSet(false, true)) {
+                try {
+                    renderTask.run();
+                } catch (Exception e) {
+                    rendering.completeExceptionally(e);
+                }
+            }
+        });
+
+        this.runAsync(future, () -> {
+            if (isRenderingClaimed.compareAndSet(false, true)) {
+                renderTask.run();
+            }
+            RenderedJob job;
+            try {
+                job = rendering.get();
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+            // Sent in the steps of the synchronous print, with the waiting times of the images, the cut and the feed
+            this.printer.printRenderedJob(job);
+            if (isOpenCashBox) {
+                this.printer.openCashBox();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Render a formatted text in ESC/POS command with the paper, image and raster cache options of this printer.
+     */
+    private RenderedJob render(String text, int dotsFeedPaper, boolean isCutPaper, EscPosCharsetEncoding charsetEncoding, boolean useEscAsteriskCommand, int rasterBandHeight, DirectBufferPool bufferPool) throws EscPosConnectionException, EscPosParserException, EscPosEncodingException, EscPosBarcodeException {
+        ByteArrayConnection connection = new ByteArrayConnection();
+        connection.setBufferPool(bufferPool);
+        EscPosPrinter printer = new EscPosPrinter(new EscPosPrinterCommands(connection, charsetEncoding).setRasterBandHeight(rasterBandHeight), this.printerDpi, this.printerWidthMM, this.printerNbrCharactersPerLine);
+        printer.useEscAsteriskCommand(useEscAsteriskCommand);
+        // The images rasterized for this printer are found by the render printer, and kept for the next jobs
+        printer.setRasterCache(this.rasterCache);
+        if (isCutPaper) {
+            printer.printFormattedTextAndCut(text, dotsFeedPaper);
+        } else {
+            printer.printFormattedText(text, dotsFeedPaper);
+        }
+        return RenderedJob.fromConnection(connection);
+    }
+
+    /**
+     * Run a task in the printer queue and complete the future with its result.
+     * The commands are silently skipped on a closed connection, so the future fails if the printer is disconnected.
+     */
+    private void runAsync(final PrintFuture<EscPosPrinter> future, final AsyncTask task) {
+        this.getPrinterQueue().execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            EscPosPrinterCommands printer = this.printer;
+            if (printer == null || !printer.isConnected()) {
+                future.completeExceptionally(new EscPosConnectionException("Unable to print, the printer is disconnected."));
+                return;
+            }
+            try {
+                task.run();
+                future.complete(this);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private synchronized SerialExecutor getPrinterQueue() {
+        if (this.printerQueue == null) {
+            this.printerQueue = new SerialExecutor(this.getAsyncExecutor());
+        }
+        return this.printerQueue;
+    }
+
+    private synchronized Executor getAsyncExecutor() {
+        if (this.asyncExecutor == null) {
+            this.asyncExecutor = EscPosPrinter.getDefaultAsyncExecutor();
+        }
+        return this.asyncExecutor;
+    }
+
+    private static synchronized Executor getDefaultAsyncExecutor() {
+        if (EscPosPrinter.defaultAsyncExecutor == null) {
+            EscPosPrinter.defaultAsyncExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "EscPosPrinterAsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return EscPosPrinter.defaultAsyncExecutor;
+    }
+
+    /**
+     * Enable or disable Automatic Status Back on all status items.
+     * The status responses are received by the response listeners of the connection.
+     *
+     * @param enable true to let the printer send its status changes
+     * @return Fluent interface
+     */
+    public EscPosPrinter enableAutomaticStatusBack(boolean enable) throws EscPosConnectionException {
+        this.printer.setAutomaticStatusBack(enable ? EscPosPrinterCommands.AUTOMATIC_STATUS_ALL : 0);
+        return this;
+    }
+
     /**
      * @return Charset encoding
      */
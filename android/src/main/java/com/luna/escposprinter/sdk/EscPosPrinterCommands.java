@@ -4,9 +4,17 @@ import android.graphics.Bitmap;
 
 import com.luna.escposprinter.sdk.barcode.Barcode;
 import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.DirectBufferPool;
 import com.luna.escposprinter.sdk.exceptions.EscPosBarcodeException;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 import com.luna.escposprinter.sdk.exceptions.EscPosEncodingException;
+import com.luna.escposprinter.sdk.image.Ditherer;
+import com.luna.escposprinter.sdk.image.GradientDitherer;
+import com.luna.escposprinter.sdk.image.ImageBandDecoder;
+import com.luna.escposprinter.sdk.image.ParallelRasterizer;
+import com.luna.escposprinter.sdk.image.RasterBandStream;
+import com.luna.escposprinter.sdk.image.ThresholdDitherer;
+import com.luna.escposprinter.sdk.job.RenderedJob;
 import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
@@ -15,6 +23,7 @@ import com.google.zxing.qrcode.encoder.Encoder;
 import com.google.zxing.qrcode.encoder.QRCode;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.EnumMap;
 
@@ -63,6 +72,12 @@ public class EscPosPrinterCommands {
     public static final byte[] TEXT_COLOR_REVERSE_OFF = new byte[]{0x1D, 0x42, 0x00};
     public static final byte[] TEXT_COLOR_REVERSE_ON = new byte[]{0x1D, 0x42, 0x01};
 
+    public static final int AUTOMATIC_STATUS_DRAWER = 0x01;
+    public static final int AUTOMATIC_STATUS_ONLINE = 0x02;
+    public static final int AUTOMATIC_STATUS_ERROR = 0x04;
+    public static final int AUTOMATIC_STATUS_PAPER = 0x08;
+    public static final int AUTOMATIC_STATUS_ALL = 0x0F;
+
 
     public static final int BARCODE_TYPE_UPCA = 65;
     public static final int BARCODE_TYPE_UPCE = 66;
@@ -82,6 +97,7 @@ public class EscPosPrinterCommands {
     private DeviceConnection printerConnection;
     private EscPosCharsetEncoding charsetEncoding;
     private boolean useEscAsteriskCommand;
+    private int rasterBandHeight = RasterBandStream.DEFAULT_BAND_HEIGHT;
 
 
     public static byte[] initGSv0Command(int bytesByLine, int bitmapHeight) {
@@ -104,63 +120,38 @@ public class EscPosPrinterCommands {
     }
 
     /**
-     * Convert Bitmap instance to a byte array compatible with ESC/POS printer.
+     * @param bytes  Bytes contain "GS v 0" commands
+     * @param offset Index of the command
+     * @return Length of the command, header included
+     */
+    public static int getGSv0CommandLength(byte[] bytes, int offset) {
+        int
+            bytesByLine = (bytes[offset + 4] & 0xFF) + (bytes[offset + 5] & 0xFF) * 256,
+            bitmapHeight = (bytes[offset + 6] & 0xFF) + (bytes[offset + 7] & 0xFF) * 256;
+        return 8 + bytesByLine * bitmapHeight;
+    }
+
+    /**
+     * Convert Bitmap instance to a byte array compatible with ESC/POS printer, by bands in parallel for large bitmaps.
+     * Transparent pixels are printed as if they were over white paper.
      *
      * @param bitmap Bitmap to be convert
      * @param gradient false : Black and white image, true : Grayscale image
      * @return Bytes contain the image in ESC/POS command
      */
     public static byte[] bitmapToBytes(Bitmap bitmap, boolean gradient) {
-        int
-            bitmapWidth = bitmap.getWidth(),
-            bitmapHeight = bitmap.getHeight(),
-            bytesByLine = (int) Math.ceil(((float) bitmapWidth) / 8f);
-
-        byte[] imageBytes = EscPosPrinterCommands.initGSv0Command(bytesByLine, bitmapHeight);
-
-        int i = 8,
-            greyscaleCoefficientInit = 0,
-            gradientStep = 6;
-
-        double
-            colorLevelStep = 765.0 / (15 * gradientStep + gradientStep - 1);
-
-        for (int posY = 0; posY < bitmapHeight; posY++) {
-            int greyscaleCoefficient = greyscaleCoefficientInit,
-                greyscaleLine = posY % gradientStep;
-            for (int j = 0; j < bitmapWidth; j += 8) {
-                int b = 0;
-                for (int k = 0; k < 8; k++) {
-                    int posX = j + k;
-                    if (posX < bitmapWidth) {
-                        int color = bitmap.getPixel(posX, posY),
-                            red = (color >> 16) & 255,
-                            green = (color >> 8) & 255,
-                            blue = color & 255;
-
-                        if (
-                            (gradient && (red + green + blue) < ((greyscaleCoefficient * gradientStep + greyscaleLine) * colorLevelStep)) ||
-                                (!gradient && (red < 160 || green < 160 || blue < 160))
-                        ) {
-                            b |= 1 << (7 - k);
-                        }
-
-                        greyscaleCoefficient += 5;
-                        if (greyscaleCoefficient > 15) {
-                            greyscaleCoefficient -= 16;
-                        }
-                    }
-                }
-                imageBytes[i++] = (byte) b;
-            }
-
-            greyscaleCoefficientInit += 2;
-            if (greyscaleCoefficientInit > 15) {
-                greyscaleCoefficientInit = 0;
-            }
-        }
+        return EscPosPrinterCommands.bitmapToBytes(bitmap, gradient ? GradientDitherer.INSTANCE : ThresholdDitherer.INSTANCE);
+    }
 
-        return imageBytes;
+    /**
+     * Convert Bitmap instance to a byte array compatible with ESC/POS printer.
+     *
+     * @param bitmap Bitmap to be convert
+     * @param ditherer Ditherer deciding the printed dots, used by one image at a time
+     * @return Bytes contain the image in ESC/POS command
+     */
+    public static byte[] bitmapToBytes(Bitmap bitmap, Ditherer ditherer) {
+        return ParallelRasterizer.getDefault().rasterize(bitmap, ditherer);
     }
 
     public static byte[][] convertGSv0ToEscAsterisk(byte[] bytes) {
@@ -319,6 +310,13 @@ public class EscPosPrinterCommands {
         this.printerConnection.disconnect();
     }
 
+    /**
+     * @return true if the connection with the device is open
+     */
+    public boolean isConnected() {
+        return this.printerConnection.isConnected();
+    }
+
     /**
      * Reset printers parameters.
      */
@@ -327,6 +325,12 @@ public class EscPosPrinterCommands {
             return this;
         }
         this.printerConnection.write(EscPosPrinterCommands.RESET_PRINTER);
+        this.currentTextSize = new byte[0];
+        this.currentTextColor = new byte[0];
+        this.currentTextReverseColor = new byte[0];
+        this.currentTextBold = new byte[0];
+        this.currentTextUnderline = new byte[0];
+        this.currentTextDoubleStrike = new byte[0];
         return this;
     }
 
@@ -590,10 +594,145 @@ public class EscPosPrinterCommands {
         byte[][] bytesToPrint = this.useEscAsteriskCommand ? EscPosPrinterCommands.convertGSv0ToEscAsterisk(image) : new byte[][]{image};
 
         for (byte[] bytes : bytesToPrint) {
-            this.printerConnection.write(bytes);
+            this.printerConnection.writeShared(bytes);
+            this.printerConnection.sendIfNeeded();
+        }
+
+        return this;
+    }
+
+    /**
+     * Print an image held by a pooled direct buffer with the connected printer.
+     * The connection keeps its own reference on the buffer until the data is sent.
+     *
+     * @param image  Direct buffer contain the image in "GS v 0" command
+     * @param length Number of bytes of the command
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands printImage(DirectBufferPool.Buffer image, int length) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+
+        if (this.useEscAsteriskCommand) {
+            // "ESC *" bands are rebuilt from a heap copy of the image
+            byte[] bytes = new byte[length];
+            image.getByteBuffer().duplicate().get(bytes, 0, length);
+            return this.printImage(bytes);
+        }
+
+        this.printerConnection.writeShared(image, 0, length);
+        this.printerConnection.sendIfNeeded();
+        return this;
+    }
+
+    /**
+     * Print a sequence of "GS v 0" commands, as rasterized by bands, with the connected printer.
+     *
+     * @param bands Bytes contain the bands of the image, which are not copied and must not be modified
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands printImageBands(byte[] bands) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+
+        int offset = 0;
+        while (offset < bands.length) {
+            int length = EscPosPrinterCommands.getGSv0CommandLength(bands, offset);
+            if (this.useEscAsteriskCommand) {
+                for (byte[] bytes : EscPosPrinterCommands.convertGSv0ToEscAsterisk(Arrays.copyOfRange(bands, offset, offset + length))) {
+                    this.printerConnection.writeShared(bytes);
+                }
+            } else {
+                this.printerConnection.writeShared(ByteBuffer.wrap(bands, offset, length));
+            }
             this.printerConnection.send();
+            offset += length;
         }
+        return this;
+    }
+
+    /**
+     * @return Number of rows of the "GS v 0" commands sent by printBitmap()
+     */
+    public int getRasterBandHeight() {
+        return this.rasterBandHeight;
+    }
 
+    /**
+     * Set the number of rows of the "GS v 0" commands sent by printBitmap().
+     *
+     * @param rasterBandHeight Number of rows by band, lower values use less memory on both sides
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands setRasterBandHeight(int rasterBandHeight) {
+        this.rasterBandHeight = Math.max(rasterBandHeight, 1);
+        return this;
+    }
+
+    /**
+     * Print a bitmap of any height with the connected printer, by bands of rasterBandHeight rows.
+     * A band is sent while the next one is converted, only two bands are in memory at a time.
+     *
+     * @param bitmap      Bitmap to be print, it must not be modified during the print
+     * @param ditherer    Ditherer deciding the printed dots, used by one image at a time
+     * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands printBitmap(Bitmap bitmap, Ditherer ditherer, int leftPadding) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+        return this.printBands(new RasterBandStream(bitmap, ditherer, leftPadding, this.rasterBandHeight));
+    }
+
+    /**
+     * Print an image file of any height with the connected printer, decoded and converted by bands of
+     * rasterBandHeight rows. Only the file and two bands are in memory at a time.
+     *
+     * @param decoder     Decoder of the image file, it must not be recycled during the print
+     * @param ditherer    Ditherer deciding the printed dots, used by one image at a time
+     * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands printBitmap(ImageBandDecoder decoder, Ditherer ditherer, int leftPadding) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+        return this.printBands(new RasterBandStream(decoder, ditherer, leftPadding, this.rasterBandHeight));
+    }
+
+    /**
+     * Send the bands of a stream, in pooled direct buffers if the connection has a buffer pool.
+     */
+    private EscPosPrinterCommands printBands(RasterBandStream bands) throws EscPosConnectionException {
+        DirectBufferPool bufferPool = this.printerConnection.getBufferPool();
+        try {
+            while (bands.hasNext()) {
+                byte[] band = bands.next();
+                if (this.useEscAsteriskCommand) {
+                    for (byte[] bytes : EscPosPrinterCommands.convertGSv0ToEscAsterisk(band)) {
+                        this.printerConnection.writeShared(bytes);
+                    }
+                } else if (bufferPool != null) {
+                    DirectBufferPool.Buffer pooledBand = bufferPool.acquire(band.length);
+                    try {
+                        pooledBand.getByteBuffer().duplicate().put(band);
+                        this.printerConnection.writeShared(pooledBand, 0, band.length);
+                    } finally {
+                        // the connection holds its own reference until the band is sent
+                        pooledBand.release();
+                    }
+                } else {
+                    this.printerConnection.writeShared(band);
+                }
+                // Transmit the band while the next one is converted
+                this.printerConnection.send();
+            }
+        } finally {
+            bands.close();
+        }
         return this;
     }
 
@@ -665,7 +804,7 @@ public class EscPosPrinterCommands {
             byte[] qrCodeCommand = new byte[textBytes.length + 8];
             System.arraycopy(new byte[]{0x1D, 0x28, 0x6B, (byte) pL, (byte) pH, 0x31, 0x50, 0x30}, 0, qrCodeCommand, 0, 8);
             System.arraycopy(textBytes, 0, qrCodeCommand, 8, textBytes.length);
-            this.printerConnection.write(qrCodeCommand);
+            this.printerConnection.writeShared(qrCodeCommand);
             this.printerConnection.write(new byte[]{0x1D, 0x28, 0x6B, 0x03, 0x00, 0x31, 0x51, 0x30});
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
@@ -695,7 +834,7 @@ public class EscPosPrinterCommands {
         }
 
         this.printerConnection.write(new byte[]{EscPosPrinterCommands.LF});
-        this.printerConnection.send();
+        this.printerConnection.sendIfNeeded();
 
         if (align != null) {
             this.printerConnection.write(align);
@@ -703,6 +842,20 @@ public class EscPosPrinterCommands {
         return this;
     }
 
+    /**
+     * Send the data kept by the flush policy of the connection.
+     *
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands sendPendingData() throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected() || this.printerConnection.getDataLength() == 0) {
+            return this;
+        }
+
+        this.printerConnection.send();
+        return this;
+    }
+
     /**
      * Feed the paper
      *
@@ -752,10 +905,73 @@ public class EscPosPrinterCommands {
         return this;
     }
 
+    /**
+     * Enable or disable Automatic Status Back (GS a).
+     * The printer answers with its current status, then sends a new status each time an enabled item changes.
+     *
+     * @param statusItems Items to watch, combination of EscPosPrinterCommands.AUTOMATIC_STATUS_... constants, 0 to disable
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands setAutomaticStatusBack(int statusItems) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+
+        this.printerConnection.write(new byte[]{0x1D, 0x61, (byte) statusItems});
+        this.printerConnection.send();
+        return this;
+    }
+
+    /**
+     * Print bytes already rendered in ESC/POS command, as the bytes of a ByteArrayConnection.
+     *
+     * @param bytes          Bytes contain the print job in ESC/POS command, referenced until they are sent
+     * @param addWaitingTime Waiting time in milliseconds after the bytes are sent
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands printRenderedBytes(byte[] bytes, int addWaitingTime) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+
+        this.printerConnection.writeShared(bytes);
+        this.printerConnection.send(addWaitingTime);
+        return this;
+    }
+
+    /**
+     * Print a rendered job, sent in the steps and with the waiting times of its rendering.
+     *
+     * @param job Print job rendered on a ByteArrayConnection
+     * @return Fluent interface
+     */
+    public EscPosPrinterCommands printRenderedJob(RenderedJob job) throws EscPosConnectionException {
+        if (!this.printerConnection.isConnected()) {
+            return this;
+        }
+
+        job.sendTo(this.printerConnection);
+        return this;
+    }
+
     /**
      * @return Charset encoding
      */
     public EscPosCharsetEncoding getCharsetEncoding() {
         return this.charsetEncoding;
     }
+
+    /**
+     * @return Pool of direct buffers of the connection, null if images are held in the heap
+     */
+    public DirectBufferPool getBufferPool() {
+        return this.printerConnection.getBufferPool();
+    }
+
+    /**
+     * @return true if images are printed with "ESC *", false with "GS v 0"
+     */
+    public boolean isEscAsteriskCommandUsed() {
+        return this.useEscAsteriskCommand;
+    }
 }
@@ -3,6 +3,8 @@ package com.luna.escposprinter.sdk;
 
 import android.graphics.Bitmap;
 
+import com.luna.escposprinter.sdk.image.Ditherer;
+
 public abstract class EscPosPrinterSize {
 
     public static final float INCH_TO_MM = 25.4f;
@@ -86,11 +88,39 @@ public abstract class EscPosPrinterSize {
      * @return Bytes contain the image in ESC/POS command
      */
     public byte[] bitmapToBytes(Bitmap bitmap, boolean gradient) {
+        return EscPosPrinterCommands.bitmapToBytes(this.scaleBitmap(bitmap, 256), gradient);
+    }
+
+    /**
+     * Convert Bitmap object to ESC/POS image.
+     *
+     * @param bitmap Instance of Bitmap
+     * @param ditherer Ditherer deciding the printed dots, used by one image at a time
+     * @return Bytes contain the image in ESC/POS command
+     */
+    public byte[] bitmapToBytes(Bitmap bitmap, Ditherer ditherer) {
+        return EscPosPrinterCommands.bitmapToBytes(this.scaleBitmap(bitmap, 256), ditherer);
+    }
+
+    /**
+     * Scale a bitmap down to fit the printer width, whatever its height. Use it for images printed by bands
+     * with EscPosPrinterCommands.printBitmap().
+     *
+     * @param bitmap Instance of Bitmap
+     * @return the bitmap itself if it fits, a scaled copy otherwise
+     */
+    public Bitmap scaleBitmapToPrinterWidth(Bitmap bitmap) {
+        return this.scaleBitmap(bitmap, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Scale a bitmap down to fit the printer width and a maximum image height.
+     */
+    private Bitmap scaleBitmap(Bitmap bitmap, int maxHeight) {
         boolean isSizeEdit = false;
         int bitmapWidth = bitmap.getWidth(),
                 bitmapHeight = bitmap.getHeight(),
-                maxWidth = this.printerWidthPx,
-                maxHeight = 256;
+                maxWidth = this.printerWidthPx;
 
         if (bitmapWidth > maxWidth) {
             bitmapHeight = Math.round(((float) bitmapHeight) * ((float) maxWidth) / ((float) bitmapWidth));
@@ -107,6 +137,6 @@ public abstract class EscPosPrinterSize {
             bitmap = Bitmap.createScaledBitmap(bitmap, bitmapWidth, bitmapHeight, true);
         }
 
-        return EscPosPrinterCommands.bitmapToBytes(bitmap, gradient);
+        return bitmap;
     }
 }
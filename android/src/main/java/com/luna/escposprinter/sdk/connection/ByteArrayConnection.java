@@ -0,0 +1,113 @@
+package com.luna.escposprinter.sdk.connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Connection keeping all the sent data in memory.
+ * Used to render a print job once and send the bytes later to one or more devices.
+ */
+public class ByteArrayConnection extends DeviceConnection {
+    private boolean isConnected = false;
+    private final ArrayList<int[]> waitingPoints = new ArrayList<>();
+
+    /**
+     * Create un instance of ByteArrayConnection.
+     */
+    public ByteArrayConnection() {
+        super();
+        this.setFlushPolicy(FlushPolicy.endOfJob());
+    }
+
+    /**
+     * Check if the connection accepts data.
+     *
+     * @return true if is connected
+     */
+    @Override
+    public boolean isConnected() {
+        return this.isConnected;
+    }
+
+    /**
+     * Start accepting data.
+     */
+    @Override
+    public ByteArrayConnection connect() {
+        this.isConnected = true;
+        return this;
+    }
+
+    /**
+     * Stop accepting data and discard the rendered bytes.
+     */
+    @Override
+    public ByteArrayConnection disconnect() {
+        this.isConnected = false;
+        this.clearData();
+        this.waitingPoints.clear();
+        return this;
+    }
+
+    /**
+     * Keep the data in memory, nothing is sent. The send is recorded at the current offset with its waiting time,
+     * so the bytes are sent to a device in the same steps, as if the job was printed directly on it.
+     */
+    @Override
+    public void send(int addWaitingTime) {
+        int offset = this.getDataLength();
+        int size = this.waitingPoints.size();
+        if (addWaitingTime > 0 || offset > (size > 0 ? this.waitingPoints.get(size - 1)[0] : 0)) {
+            this.waitingPoints.add(new int[]{offset, Math.max(addWaitingTime, 0)});
+        }
+    }
+
+    /**
+     * Get a copy of all the data written since the last reset.
+     *
+     * @return Bytes contain the print job in ESC/POS command
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[this.getDataLength()];
+        int position = 0;
+        for (ByteBuffer buffer : this.getDataBuffers(false)) {
+            int length = buffer.remaining();
+            buffer.get(bytes, position, length);
+            position += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Offsets in bytes where the data has been sent, in ascending order
+     */
+    public int[] getWaitingOffsets() {
+        int[] waitingOffsets = new int[this.waitingPoints.size()];
+        for (int i = 0; i < waitingOffsets.length; i++) {
+            waitingOffsets[i] = this.waitingPoints.get(i)[0];
+        }
+        return waitingOffsets;
+    }
+
+    /**
+     * @return Waiting times in milliseconds asked at each waiting offset, 0 for a send without waiting time
+     */
+    public int[] getWaitingTimes() {
+        int[] waitingTimes = new int[this.waitingPoints.size()];
+        for (int i = 0; i < waitingTimes.length; i++) {
+            waitingTimes[i] = this.waitingPoints.get(i)[1];
+        }
+        return waitingTimes;
+    }
+
+    /**
+     * Discard the rendered bytes to render a new print job.
+     *
+     * @return Fluent interface
+     */
+    public ByteArrayConnection reset() {
+        this.clearData();
+        this.waitingPoints.clear();
+        return this;
+    }
+}
@@ -1,17 +1,84 @@
 package com.luna.escposprinter.sdk.connection;
 
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+import com.luna.escposprinter.sdk.exceptions.EscPosTimeoutException;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class DeviceConnection {
+    /**
+     * Wait a fixed delay after each send, proportional to the data length.
+     */
+    public static final int FLOW_CONTROL_DELAY = 0;
+    /**
+     * Wait for the printer to answer a status request, processed after the data sent before it, before sending
+     * more data. Fallback to FLOW_CONTROL_DELAY when the connection cannot read printer responses, or while the
+     * printer does not answer.
+     */
+    public static final int FLOW_CONTROL_STATUS = 1;
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    // Shorter shared arrays are copied, a segment costs more than copying a few bytes
+    private static final int MIN_SHARED_LENGTH = 256;
+    private static final int TRANSFER_BUFFER_SIZE = 8192;
+    // Processed in order with the print data, the answer comes once the data sent before has been processed
+    private static final byte[] TRANSMIT_PAPER_SENSOR_STATUS = new byte[]{0x1D, 0x72, 0x01};
+    // Processed on receipt, the answer only tells that the device is there
+    private static final byte[] TRANSMIT_REAL_TIME_STATUS = new byte[]{0x10, 0x04, 0x01};
+    // Delay before probing again a printer which did not answer a status request
+    private static final int STATUS_RETRY_DELAY = 30000;
+    // Maximum time to wait for a stopped response reader to end before starting a new one
+    private static final int RESPONSE_READER_EXIT_TIMEOUT = 1000;
+
     protected OutputStream outputStream;
+    protected InputStream inputStream;
     protected byte[] data;
+    protected int dataLength;
+
+    /**
+     * Buffer referenced by the job instead of being copied, inserted at a position of the copied data.
+     */
+    private static class SharedSegment {
+        private final int position;
+        private final ByteBuffer buffer;
+        private final DirectBufferPool.Buffer pooledBuffer;
+
+        private SharedSegment(int position, ByteBuffer buffer, DirectBufferPool.Buffer pooledBuffer) {
+            this.position = position;
+            this.buffer = buffer;
+            this.pooledBuffer = pooledBuffer;
+        }
+    }
+
+    private final ArrayList<SharedSegment> sharedSegments = new ArrayList<>();
+    private int sharedLength = 0;
+    private DirectBufferPool bufferPool = null;
+    private byte[] transferBuffer = null;
+    private int flowControl = DeviceConnection.FLOW_CONTROL_DELAY;
+    private int flowControlTimeout = 3000;
+    private int flowControlWindow = 4096;
+    private int unacknowledgedLength = 0;
+    private long statusUnsupportedUntil = 0;
+    private volatile int writeTimeout = 0;
+    private volatile int jobTimeout = 0;
+    private volatile long jobDeadline = 0;
+    private FlushPolicy flushPolicy = FlushPolicy.eachLine();
+    private long pendingSince = 0;
+    private final CopyOnWriteArrayList<DeviceResponseListener> responseListeners = new CopyOnWriteArrayList<>();
+    private DeviceResponseReader responseReader = null;
+    private DeviceResponseReader stoppedResponseReader = null;
 
     public DeviceConnection() {
         this.outputStream = null;
-        this.data = new byte[0];
+        this.inputStream = null;
+        this.data = new byte[DeviceConnection.DEFAULT_BUFFER_SIZE];
+        this.dataLength = 0;
     }
 
     public abstract DeviceConnection connect() throws EscPosConnectionException;
@@ -26,16 +93,505 @@ public abstract class DeviceConnection {
         return this.outputStream != null;
     }
 
+    /**
+     * Check if the printer responses can be read.
+     *
+     * @return true if an InputStream is open
+     */
+    public boolean isReadable() {
+        return this.inputStream != null;
+    }
+
+    /**
+     * Read the bytes already sent back by the printer, without blocking.
+     * Not available while the response reader is running, responses are given to the listeners instead.
+     *
+     * @param buffer Buffer receiving the bytes
+     * @return Number of bytes read, 0 if nothing has been received
+     */
+    public int read(byte[] buffer) throws EscPosConnectionException {
+        if (!this.isReadable()) {
+            throw new EscPosConnectionException("Unable to read data from device.");
+        }
+        if (this.isResponseReaderRunning()) {
+            throw new EscPosConnectionException("Device responses are read by the response reader.");
+        }
+        try {
+            int available = this.inputStream.available();
+            if (available <= 0) {
+                return 0;
+            }
+            int length = this.inputStream.read(buffer, 0, Math.min(available, buffer.length));
+            if (length == -1) {
+                throw new IOException("Connection closed by the device.");
+            }
+            return length;
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new EscPosConnectionException(e.getMessage());
+        }
+    }
+
+    /**
+     * Add a listener receiving the printer responses. The response reader is started if the connection is open.
+     *
+     * @param listener Listener called from the response reader thread
+     * @return Fluent interface
+     */
+    public DeviceConnection addResponseListener(DeviceResponseListener listener) {
+        this.responseListeners.addIfAbsent(listener);
+        this.startResponseReader();
+        return this;
+    }
+
+    /**
+     * Remove a listener of the printer responses.
+     *
+     * @param listener Listener to remove
+     * @return Fluent interface
+     */
+    public DeviceConnection removeResponseListener(DeviceResponseListener listener) {
+        this.responseListeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * @return true if a background thread is reading the printer responses
+     */
+    public boolean isResponseReaderRunning() {
+        DeviceResponseReader reader = this.responseReader;
+        return reader != null && reader.isRunning();
+    }
+
+    /**
+     * Check that the device still answers, while the response reader owns the input stream.
+     * The real-time status request (DLE EOT 1) is written, a write error means the device is gone. If the device
+     * already answered such a request, it must answer again before the timeout.
+     *
+     * @param timeout Maximum time to wait for the answer in milliseconds
+     * @return true if the device is still there
+     */
+    protected boolean probeResponseReader(long timeout) {
+        DeviceResponseReader reader = this.responseReader;
+        if (reader == null || !reader.isRunning()) {
+            return false;
+        }
+        long responseCount = reader.getResponseCount(DeviceResponse.TYPE_REAL_TIME_STATUS);
+        try {
+            this.outputStream.write(DeviceConnection.TRANSMIT_REAL_TIME_STATUS);
+            this.outputStream.flush();
+            if (responseCount == 0) {
+                // The device may not support the request, the write succeeding is all that can be checked
+                return true;
+            }
+            return reader.awaitResponse(DeviceResponse.TYPE_REAL_TIME_STATUS, responseCount, timeout) != null;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Start reading the printer responses in background if there are listeners and the connection is readable.
+     * Called by the connections once connected. A single thread reads the connection : the reader is not started
+     * while the thread of the previous reader is still reading, it ends once its stream is closed.
+     */
+    protected synchronized void startResponseReader() {
+        if (this.responseListeners.isEmpty() || !this.isReadable() || this.isResponseReaderRunning()) {
+            return;
+        }
+        if (this.stoppedResponseReader != null) {
+            try {
+                if (!this.stoppedResponseReader.awaitExit(DeviceConnection.RESPONSE_READER_EXIT_TIMEOUT)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            this.stoppedResponseReader = null;
+        }
+        this.responseReader = new DeviceResponseReader(this, this.inputStream, this.responseListeners).start();
+    }
+
+    /**
+     * Stop reading the printer responses. Called by the connections before closing the streams.
+     */
+    protected synchronized void stopResponseReader() {
+        if (this.responseReader != null) {
+            this.responseReader.stop();
+            this.stoppedResponseReader = this.responseReader;
+            this.responseReader = null;
+        }
+    }
+
+    /**
+     * Set how the connection wait for the printer between two sends.
+     *
+     * @param flowControl Use DeviceConnection.FLOW_CONTROL_... constants
+     * @return Fluent interface
+     */
+    public DeviceConnection setFlowControl(int flowControl) {
+        this.flowControl = flowControl;
+        this.statusUnsupportedUntil = 0;
+        this.unacknowledgedLength = 0;
+        return this;
+    }
+
+    /**
+     * Set the status flow control parameters.
+     *
+     * @param timeout Maximum time in milliseconds to wait for a printer status
+     * @param window  Number of bytes that can be sent before waiting for the printer to be ready
+     * @return Fluent interface
+     */
+    public DeviceConnection setFlowControlParameters(int timeout, int window) {
+        this.flowControlTimeout = timeout;
+        this.flowControlWindow = window;
+        return this;
+    }
+
+    /**
+     * Set the deadlines of the writes. When a deadline expires, the connection is aborted by the WriteWatchdog
+     * and the send fails with an EscPosTimeoutException instead of blocking while the device does not read.
+     *
+     * @param writeTimeout Maximum time in milliseconds a send can take to write the data, 0 to wait forever
+     * @param jobTimeout   Maximum time in milliseconds between beginJob() and endJob(), 0 for no job deadline
+     * @return Fluent interface
+     */
+    public DeviceConnection setWriteTimeouts(int writeTimeout, int jobTimeout) {
+        this.writeTimeout = writeTimeout;
+        this.jobTimeout = jobTimeout;
+        return this;
+    }
+
+    /**
+     * Start the job deadline, the sends fail once the job timeout is elapsed.
+     *
+     * @return Fluent interface
+     */
+    public DeviceConnection beginJob() {
+        this.jobDeadline = this.jobTimeout > 0 ? System.currentTimeMillis() + this.jobTimeout : 0;
+        return this;
+    }
+
+    /**
+     * Stop the job deadline.
+     *
+     * @return Fluent interface
+     */
+    public DeviceConnection endJob() {
+        this.jobDeadline = 0;
+        return this;
+    }
+
+    /**
+     * Set when the data written at the end of a line or of an image band is sent, see sendIfNeeded().
+     *
+     * @param flushPolicy Policy deciding when the pending data is sent
+     * @return Fluent interface
+     */
+    public DeviceConnection setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /**
+     * @return Policy deciding when the pending data is sent
+     */
+    public FlushPolicy getFlushPolicy() {
+        return this.flushPolicy;
+    }
+
+    /**
+     * @return Current flow control, DeviceConnection.FLOW_CONTROL_... constants
+     */
+    public int getFlowControl() {
+        return this.flowControl;
+    }
+
     /**
      * Add data to send.
      */
     public void write(byte[] bytes) {
-        byte[] data = new byte[bytes.length + this.data.length];
-        System.arraycopy(this.data, 0, data, 0, this.data.length);
-        System.arraycopy(bytes, 0, data, this.data.length, bytes.length);
-        this.data = data;
+        this.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Add a part of an array to the data to send.
+     *
+     * @param bytes  Array containing the data
+     * @param offset Index of the first byte to send
+     * @param length Number of bytes to send
+     */
+    public void write(byte[] bytes, int offset, int length) {
+        this.startPending();
+        this.ensureCapacity(this.dataLength + length);
+        System.arraycopy(bytes, offset, this.data, this.dataLength, length);
+        this.dataLength += length;
+    }
+
+    /**
+     * Add data to send without copying it, for large payloads as raster images or rendered jobs.
+     * The array is referenced until the data is sent or discarded, it must not be modified meanwhile.
+     */
+    public void writeShared(byte[] bytes) {
+        this.writeShared(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Add a part of an array to the data to send without copying it.
+     * The array is referenced until the data is sent or discarded, it must not be modified meanwhile.
+     *
+     * @param bytes  Array containing the data
+     * @param offset Index of the first byte to send
+     * @param length Number of bytes to send
+     */
+    public void writeShared(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("Invalid shared segment " + offset + "+" + length + " of " + bytes.length + " bytes.");
+        }
+        if (length < DeviceConnection.MIN_SHARED_LENGTH) {
+            this.write(bytes, offset, length);
+            return;
+        }
+        this.addSharedSegment(ByteBuffer.wrap(bytes, offset, length), null);
     }
 
+    /**
+     * Add the remaining bytes of a buffer to the data to send without copying them, the buffer can be direct.
+     * The buffer is referenced until the data is sent or discarded, it must not be modified meanwhile.
+     *
+     * @param buffer Buffer containing the data between its position and its limit
+     */
+    public void writeShared(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (length < DeviceConnection.MIN_SHARED_LENGTH) {
+            this.startPending();
+            this.ensureCapacity(this.dataLength + length);
+            buffer.duplicate().get(this.data, this.dataLength, length);
+            this.dataLength += length;
+            return;
+        }
+        this.addSharedSegment(buffer.slice(), null);
+    }
+
+    /**
+     * Add a part of a pooled direct buffer to the data to send without copying it.
+     * The connection keeps a reference on the buffer until the data is sent or discarded.
+     *
+     * @param pooledBuffer Buffer borrowed from a DirectBufferPool
+     * @param offset       Index of the first byte to send
+     * @param length       Number of bytes to send
+     */
+    public void writeShared(DirectBufferPool.Buffer pooledBuffer, int offset, int length) {
+        ByteBuffer buffer = pooledBuffer.getByteBuffer().duplicate();
+        buffer.limit(offset + length).position(offset);
+        this.addSharedSegment(buffer.slice(), pooledBuffer.retain());
+    }
+
+    private void addSharedSegment(ByteBuffer buffer, DirectBufferPool.Buffer pooledBuffer) {
+        int length = buffer.remaining();
+        if (this.sharedLength + length < 0) {
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+            }
+            throw new OutOfMemoryError("Job size exceeds the maximum array size.");
+        }
+        this.startPending();
+        this.sharedSegments.add(new SharedSegment(this.dataLength, buffer, pooledBuffer));
+        this.sharedLength += length;
+    }
+
+    /**
+     * Allocate raster images and job buffers in direct buffers of a pool instead of the Java heap.
+     * Ignored by connections writing through a stream, which would copy the direct buffers back to the heap.
+     *
+     * @param bufferPool Pool of direct buffers, null to use the heap
+     * @return Fluent interface
+     */
+    public DeviceConnection setBufferPool(DirectBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * @return Pool of direct buffers, null if the heap is used
+     */
+    public DirectBufferPool getBufferPool() {
+        return this.isWritingDirectBuffers() ? this.bufferPool : null;
+    }
+
+    /**
+     * @return true if the connection hands direct buffers to the device without copying them to the heap
+     */
+    public boolean isWritingDirectBuffers() {
+        return false;
+    }
+
+    private void startPending() {
+        if (this.dataLength == 0 && this.sharedLength == 0) {
+            this.pendingSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Get the number of bytes waiting to be sent.
+     *
+     * @return pending data length
+     */
+    public int getDataLength() {
+        return this.dataLength + this.sharedLength;
+    }
+
+    /**
+     * Get the pending data as a list of buffers in sending order. Shared buffers are not copied.
+     *
+     * @param isCopyingBuffer true to copy the bytes written in the job buffer, required if the buffers are
+     *                        used after clearData(). All of them are copied once in a single new array.
+     * @return Buffers of the pending data, without empty buffer
+     */
+    protected ByteBuffer[] getDataBuffers(boolean isCopyingBuffer) {
+        return this.getDataBuffers(isCopyingBuffer, null);
+    }
+
+    /**
+     * Get the pending data as a list of buffers in sending order, to be used after clearData().
+     * Shared buffers are not copied, the bytes written in the job buffer are copied once, in a pooled direct
+     * buffer if the connection has a buffer pool.
+     *
+     * @param isCopyingBuffer true to copy the bytes written in the job buffer
+     * @param pooledBuffers   Receive a reference on each pooled buffer used by the returned buffers, to be
+     *                        released once they are written. null if the buffers are used before clearData().
+     * @return Buffers of the pending data, without empty buffer
+     */
+    protected ByteBuffer[] getDataBuffers(boolean isCopyingBuffer, ArrayList<DirectBufferPool.Buffer> pooledBuffers) {
+        ByteBuffer dataBuffer;
+        if (!isCopyingBuffer) {
+            dataBuffer = ByteBuffer.wrap(this.data);
+        } else if (pooledBuffers != null && this.getBufferPool() != null && this.dataLength > 0) {
+            DirectBufferPool.Buffer pooledBuffer = this.getBufferPool().acquire(this.dataLength);
+            dataBuffer = pooledBuffer.getByteBuffer().duplicate();
+            dataBuffer.put(this.data, 0, this.dataLength);
+            pooledBuffers.add(pooledBuffer);
+        } else {
+            dataBuffer = ByteBuffer.wrap(Arrays.copyOf(this.data, this.dataLength));
+        }
+
+        ArrayList<ByteBuffer> buffers = new ArrayList<>(this.sharedSegments.size() * 2 + 1);
+        int position = 0;
+        for (SharedSegment segment : this.sharedSegments) {
+            if (segment.position > position) {
+                buffers.add(DeviceConnection.slice(dataBuffer, position, segment.position - position));
+                position = segment.position;
+            }
+            buffers.add(segment.buffer.duplicate());
+            if (pooledBuffers != null && segment.pooledBuffer != null) {
+                pooledBuffers.add(segment.pooledBuffer.retain());
+            }
+        }
+        if (this.dataLength > position) {
+            buffers.add(DeviceConnection.slice(dataBuffer, position, this.dataLength - position));
+        }
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice.slice();
+    }
+
+    /**
+     * Write the pending data to a stream, shared arrays are written directly from their own storage.
+     *
+     * @param outputStream Stream receiving the data
+     */
+    protected void writeData(OutputStream outputStream) throws IOException {
+        if (this.sharedSegments.isEmpty()) {
+            outputStream.write(this.data, 0, this.dataLength);
+            return;
+        }
+        for (ByteBuffer buffer : this.getDataBuffers(false)) {
+            if (buffer.hasArray()) {
+                outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                this.writeDirectBuffer(outputStream, buffer);
+            }
+        }
+    }
+
+    /**
+     * Write a direct buffer to a stream through a reused transfer array.
+     * Connections with a stream reading direct buffers override it to avoid the copy.
+     *
+     * @param outputStream Stream receiving the data
+     * @param buffer       Direct buffer, its remaining bytes are written
+     */
+    protected void writeDirectBuffer(OutputStream outputStream, ByteBuffer buffer) throws IOException {
+        byte[] transferBuffer = this.getTransferBuffer();
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buffer.remaining(), transferBuffer.length);
+            buffer.get(transferBuffer, 0, length);
+            outputStream.write(transferBuffer, 0, length);
+        }
+    }
+
+    /**
+     * @return an array reused to copy direct buffers to streams
+     */
+    protected byte[] getTransferBuffer() {
+        if (this.transferBuffer == null) {
+            this.transferBuffer = new byte[DeviceConnection.TRANSFER_BUFFER_SIZE];
+        }
+        return this.transferBuffer;
+    }
+
+    /**
+     * Grow the job buffer by doubling its capacity until minCapacity bytes fit.
+     *
+     * @param minCapacity Minimum number of bytes the buffer must hold
+     */
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("Job buffer size exceeds the maximum array size.");
+        }
+        if (minCapacity <= this.data.length) {
+            return;
+        }
+        int newCapacity = this.data.length << 1;
+        if (newCapacity < minCapacity) {
+            newCapacity = minCapacity;
+        }
+        this.data = Arrays.copyOf(this.data, newCapacity);
+    }
+
+    /**
+     * Discard pending data. The buffer is kept allocated to be reused by the next job, shared buffers are released.
+     */
+    protected void clearData() {
+        this.dataLength = 0;
+        for (SharedSegment segment : this.sharedSegments) {
+            if (segment.pooledBuffer != null) {
+                segment.pooledBuffer.release();
+            }
+        }
+        this.sharedSegments.clear();
+        this.sharedLength = 0;
+    }
+
+
+    /**
+     * Send the pending data if the flush policy asks for it. Called at the end of each line and image band.
+     */
+    public void sendIfNeeded() throws EscPosConnectionException {
+        int pendingLength = this.getDataLength();
+        if (pendingLength > 0 && this.flushPolicy.shouldFlush(pendingLength, System.currentTimeMillis() - this.pendingSince)) {
+            this.send();
+        }
+    }
 
     /**
      * Send data to the device.
@@ -51,10 +607,33 @@ public abstract class DeviceConnection {
             throw new EscPosConnectionException("Unable to send data to device.");
         }
         try {
-            this.outputStream.write(this.data);
-            this.outputStream.flush();
-            int waitingTime = addWaitingTime + this.data.length / 16;
-            this.data = new byte[0];
+            WriteWatchdog.Deadline deadline = this.startWriteDeadline();
+            try {
+                this.writeData(this.outputStream);
+                this.outputStream.flush();
+            } catch (IOException e) {
+                this.stopWriteDeadline(deadline);
+                throw e;
+            }
+            this.stopWriteDeadline(deadline);
+            int sentLength = this.getDataLength();
+            this.clearData();
+
+            if (this.isStatusFlowControlEnabled()) {
+                this.unacknowledgedLength += sentLength;
+                if (addWaitingTime <= 0 && this.unacknowledgedLength < this.flowControlWindow) {
+                    return;
+                }
+                this.unacknowledgedLength = 0;
+                if (this.waitPrinterReady()) {
+                    // The printer processed the data, including the commands the waiting time is for
+                    return;
+                }
+                // Fallback to the delay for a while, the printer may only have been busy
+                this.statusUnsupportedUntil = System.currentTimeMillis() + DeviceConnection.STATUS_RETRY_DELAY;
+            }
+
+            int waitingTime = addWaitingTime + sentLength / 16;
             if(waitingTime > 0) {
                 Thread.sleep(waitingTime);
             }
@@ -63,4 +642,123 @@ public abstract class DeviceConnection {
             throw new EscPosConnectionException(e.getMessage());
         }
     }
+
+    /**
+     * Start watching the write of the pending data, with the shortest of the write and job deadlines.
+     *
+     * @return the deadline, null if the write is not watched
+     */
+    protected WriteWatchdog.Deadline startWriteDeadline() throws EscPosTimeoutException {
+        long timeout = this.writeTimeout;
+        if (this.jobDeadline > 0) {
+            long remaining = this.jobDeadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                this.clearData();
+                throw new EscPosTimeoutException("Print job not sent within " + this.jobTimeout + " ms.");
+            }
+            timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+        }
+        if (timeout <= 0) {
+            return null;
+        }
+        return WriteWatchdog.watch(timeout, this::abort);
+    }
+
+    /**
+     * Stop watching the write. Called once the write completed, and before handling a write error.
+     *
+     * @param deadline Deadline returned by startWriteDeadline()
+     * @throws EscPosTimeoutException if the deadline expired, the connection has been aborted
+     */
+    protected void stopWriteDeadline(WriteWatchdog.Deadline deadline) throws EscPosTimeoutException {
+        if (deadline != null && deadline.cancel()) {
+            this.clearData();
+            throw new EscPosTimeoutException("Device did not read data before the deadline, connection aborted.");
+        }
+    }
+
+    /**
+     * Abort the connection to unblock a write, called from the watchdog thread.
+     * The output stream is closed, connections override it to close their socket.
+     */
+    protected void abort() {
+        OutputStream outputStream = this.outputStream;
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean isStatusFlowControlEnabled() {
+        return this.flowControl == DeviceConnection.FLOW_CONTROL_STATUS && System.currentTimeMillis() >= this.statusUnsupportedUntil && this.isReadable();
+    }
+
+    /**
+     * Request the paper sensor status (GS r 1) and wait for the answer.
+     * The request is processed in order, the printer answers once all the data sent before it has been processed.
+     * The answer byte has no header bit, the parser takes the first byte received after the request as a frame start,
+     * so only a status frame acknowledges the request and the bytes of an Automatic Status Back frame are skipped.
+     *
+     * @return true if the printer answered before the flow control timeout
+     */
+    protected boolean waitPrinterReady() throws EscPosConnectionException, IOException, InterruptedException {
+        DeviceResponseReader reader = this.responseReader;
+        if (reader != null && reader.isRunning()) {
+            long responseCount = reader.getResponseCount(DeviceResponse.TYPE_STATUS);
+            reader.synchronizeParser();
+            this.writeStatusRequest(DeviceConnection.TRANSMIT_PAPER_SENSOR_STATUS);
+            return reader.awaitResponse(DeviceResponse.TYPE_STATUS, responseCount, this.flowControlTimeout) != null;
+        }
+
+        this.skipAvailableBytes();
+        this.writeStatusRequest(DeviceConnection.TRANSMIT_PAPER_SENSOR_STATUS);
+
+        DeviceResponseParser parser = new DeviceResponseParser();
+        parser.synchronize();
+        long deadline = System.currentTimeMillis() + this.flowControlTimeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (this.inputStream.available() > 0) {
+                int value = this.inputStream.read();
+                if (value == -1) {
+                    throw new IOException("Connection closed by the device.");
+                }
+                DeviceResponse response = parser.parse((byte) value);
+                if (response != null && response.getType() == DeviceResponse.TYPE_STATUS) {
+                    return true;
+                }
+            } else {
+                Thread.sleep(5);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write a status request, under the write deadline like the print data.
+     */
+    private void writeStatusRequest(byte[] request) throws EscPosConnectionException, IOException {
+        WriteWatchdog.Deadline deadline = this.startWriteDeadline();
+        try {
+            this.outputStream.write(request);
+            this.outputStream.flush();
+        } catch (IOException e) {
+            this.stopWriteDeadline(deadline);
+            throw e;
+        }
+        this.stopWriteDeadline(deadline);
+    }
+
+    private void skipAvailableBytes() throws IOException {
+        int available = this.inputStream.available();
+        while (available > 0) {
+            long skipped = this.inputStream.skip(available);
+            if (skipped <= 0) {
+                break;
+            }
+            available = this.inputStream.available();
+        }
+    }
 }
@@ -0,0 +1,75 @@
+package com.luna.escposprinter.sdk.connection;
+
+import java.util.Arrays;
+
+/**
+ * A frame sent back by the printer.
+ */
+public class DeviceResponse {
+    /**
+     * Automatic Status Back (GS a), 4 bytes.
+     */
+    public static final int TYPE_AUTOMATIC_STATUS = 1;
+    /**
+     * Real-time status (DLE EOT), 1 byte.
+     */
+    public static final int TYPE_REAL_TIME_STATUS = 2;
+    /**
+     * Status (GS r), 1 byte.
+     */
+    public static final int TYPE_STATUS = 3;
+    /**
+     * Block data (printer ID, process ID...), header byte followed by data terminated by NUL.
+     */
+    public static final int TYPE_BLOCK_DATA = 4;
+    /**
+     * Byte that does not match any known response.
+     */
+    public static final int TYPE_UNKNOWN = 0;
+
+    private final int type;
+    private final byte[] bytes;
+
+    /**
+     * Create new instance of DeviceResponse.
+     *
+     * @param type  Use DeviceResponse.TYPE_... constants
+     * @param bytes Bytes of the frame
+     */
+    public DeviceResponse(int type, byte[] bytes) {
+        this.type = type;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return DeviceResponse.TYPE_... constants
+     */
+    public int getType() {
+        return this.type;
+    }
+
+    /**
+     * @return Bytes of the frame
+     */
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Get a byte of the frame as an unsigned value.
+     *
+     * @param index Index of the byte in the frame
+     * @return int between 0 and 255
+     */
+    public int getByte(int index) {
+        return this.bytes[index] & 0xFF;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceResponse{" +
+                "type=" + type +
+                ", bytes=" + Arrays.toString(bytes) +
+                '}';
+    }
+}
@@ -0,0 +1,8 @@
+package com.luna.escposprinter.sdk.connection;
+
+/**
+ * Receive the frames sent back by the printer. Called from the DeviceResponseReader thread.
+ */
+public interface DeviceResponseListener {
+    void onDeviceResponse(DeviceConnection connection, DeviceResponse response);
+}
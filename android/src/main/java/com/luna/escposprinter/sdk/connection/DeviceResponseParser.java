@@ -0,0 +1,93 @@
+package com.luna.escposprinter.sdk.connection;
+
+import java.util.Arrays;
+
+/**
+ * Split the bytes sent back by an ESC/POS printer into DeviceResponse frames.
+ *
+ * The parser may start in the middle of a frame, when the reader starts while the printer is sending an
+ * Automatic Status Back. The trailing bytes of such a frame look like a status byte, so the bytes are reported
+ * as unknown until a byte with the header bit (bit 4) set starts a frame the parser can recognize, or until
+ * synchronize() is called right before a request whose answer starts a frame.
+ */
+public class DeviceResponseParser {
+    private static final int MAX_BLOCK_DATA_LENGTH = 80;
+
+    private final byte[] frame = new byte[DeviceResponseParser.MAX_BLOCK_DATA_LENGTH];
+    private int frameLength = 0;
+    private int frameType = DeviceResponse.TYPE_UNKNOWN;
+    private boolean isSynchronized = false;
+
+    /**
+     * Check if the byte starts a block data frame.
+     */
+    private static boolean isBlockDataHeader(int b) {
+        return b == 0x37 || b == 0x3B || b == 0x3D || b == 0x5F;
+    }
+
+    /**
+     * Add a byte received from the printer.
+     *
+     * @param value byte received
+     * @return the completed frame, null if the frame needs more bytes
+     */
+    public DeviceResponse parse(byte value) {
+        int b = value & 0xFF;
+
+        if (this.frameLength == 0) {
+            if (!this.isSynchronized) {
+                if ((b & 0x10) == 0x00) {
+                    return new DeviceResponse(DeviceResponse.TYPE_UNKNOWN, new byte[]{value});
+                }
+                this.isSynchronized = true;
+            }
+            if ((b & 0x93) == 0x10) {
+                this.frameType = DeviceResponse.TYPE_AUTOMATIC_STATUS;
+            } else if ((b & 0x93) == 0x12) {
+                return new DeviceResponse(DeviceResponse.TYPE_REAL_TIME_STATUS, new byte[]{value});
+            } else if ((b & 0x90) == 0x00) {
+                return new DeviceResponse(DeviceResponse.TYPE_STATUS, new byte[]{value});
+            } else if (DeviceResponseParser.isBlockDataHeader(b)) {
+                this.frameType = DeviceResponse.TYPE_BLOCK_DATA;
+            } else {
+                return new DeviceResponse(DeviceResponse.TYPE_UNKNOWN, new byte[]{value});
+            }
+            this.frame[this.frameLength++] = value;
+            return null;
+        }
+
+        this.frame[this.frameLength++] = value;
+
+        if (this.frameType == DeviceResponse.TYPE_AUTOMATIC_STATUS && this.frameLength == 4) {
+            return this.completeFrame();
+        }
+        if (this.frameType == DeviceResponse.TYPE_BLOCK_DATA && (b == 0x00 || this.frameLength == this.frame.length)) {
+            return this.completeFrame();
+        }
+        return null;
+    }
+
+    /**
+     * Take the next byte as the start of a frame, even without the header bit. Called before sending a request,
+     * the answer of GS r has no header bit. Has no effect in the middle of a frame.
+     */
+    public void synchronize() {
+        if (this.frameLength == 0) {
+            this.isSynchronized = true;
+        }
+    }
+
+    /**
+     * Forget the bytes of an incomplete frame.
+     */
+    public void reset() {
+        this.frameLength = 0;
+        this.frameType = DeviceResponse.TYPE_UNKNOWN;
+    }
+
+    private DeviceResponse completeFrame() {
+        DeviceResponse response = new DeviceResponse(this.frameType, Arrays.copyOf(this.frame, this.frameLength));
+        this.reset();
+        return response;
+    }
+}
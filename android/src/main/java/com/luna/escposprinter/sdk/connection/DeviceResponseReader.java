@@ -0,0 +1,158 @@
+package com.luna.escposprinter.sdk.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Background thread reading the printer responses and dispatching them to the listeners.
+ * The write path is not blocked by the reader, waiting methods are only used to wait for a specific answer.
+ */
+public class DeviceResponseReader implements Runnable {
+    private final DeviceConnection connection;
+    private final InputStream inputStream;
+    private final List<DeviceResponseListener> listeners;
+    private final DeviceResponseParser parser = new DeviceResponseParser();
+    private final long[] responseCounts = new long[5];
+    private final DeviceResponse[] lastResponses = new DeviceResponse[5];
+    private final Thread thread;
+    private volatile boolean isRunning = false;
+    private volatile boolean isSynchronizeRequested = false;
+
+    /**
+     * Create new instance of DeviceResponseReader.
+     *
+     * @param connection  Connection the responses come from
+     * @param inputStream Stream to read
+     * @param listeners   Listeners receiving the responses, the list must be thread safe
+     */
+    public DeviceResponseReader(DeviceConnection connection, InputStream inputStream, List<DeviceResponseListener> listeners) {
+        this.connection = connection;
+        this.inputStream = inputStream;
+        this.listeners = listeners;
+        this.thread = new Thread(this, "DeviceResponseReader");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the reader thread.
+     *
+     * @return Fluent interface
+     */
+    public DeviceResponseReader start() {
+        this.isRunning = true;
+        this.thread.start();
+        return this;
+    }
+
+    /**
+     * Stop dispatching responses, the bytes read after this call are dropped. The thread ends when the stream is closed.
+     */
+    public void stop() {
+        this.isRunning = false;
+        synchronized (this) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the reader thread to end, once the stream is closed.
+     *
+     * @param timeout Maximum time to wait in milliseconds
+     * @return true if the thread has ended
+     */
+    public boolean awaitExit(long timeout) throws InterruptedException {
+        this.thread.join(timeout);
+        return !this.thread.isAlive();
+    }
+
+    /**
+     * Take the next byte read as the start of a frame, see DeviceResponseParser.synchronize().
+     * Call it before sending a request whose answer has no header bit.
+     */
+    public void synchronizeParser() {
+        this.isSynchronizeRequested = true;
+    }
+
+    /**
+     * @return true if the reader thread is running
+     */
+    public boolean isRunning() {
+        return this.isRunning;
+    }
+
+    /**
+     * Get the number of responses of a type received since the reader started.
+     *
+     * @param type Use DeviceResponse.TYPE_... constants
+     * @return number of responses
+     */
+    public synchronized long getResponseCount(int type) {
+        return this.responseCounts[type];
+    }
+
+    /**
+     * Wait for a response of a type, received after the response number responseCount.
+     *
+     * @param type          Use DeviceResponse.TYPE_... constants
+     * @param responseCount Value of getResponseCount() before the request was sent
+     * @param timeout       Maximum time to wait in milliseconds
+     * @return the last response of the type, null if the timeout expired or the reader stopped
+     */
+    public synchronized DeviceResponse awaitResponse(int type, long responseCount, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (this.responseCounts[type] <= responseCount) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !this.isRunning) {
+                return null;
+            }
+            this.wait(remaining);
+        }
+        return this.lastResponses[type];
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[256];
+        try {
+            while (this.isRunning) {
+                int length = this.inputStream.read(buffer);
+                if (length == -1) {
+                    break;
+                }
+                for (int i = 0; i < length && this.isRunning; i++) {
+                    if (this.isSynchronizeRequested) {
+                        this.isSynchronizeRequested = false;
+                        this.parser.synchronize();
+                    }
+                    DeviceResponse response = this.parser.parse(buffer[i]);
+                    // a read blocked while the reader was stopped returns bytes no listener waits for anymore
+                    if (response != null && this.isRunning) {
+                        this.dispatch(response);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (this.isRunning) {
+                e.printStackTrace();
+            }
+        } finally {
+            this.stop();
+        }
+    }
+
+    private void dispatch(DeviceResponse response) {
+        synchronized (this) {
+            this.responseCounts[response.getType()]++;
+            this.lastResponses[response.getType()] = response;
+            this.notifyAll();
+        }
+        for (DeviceResponseListener listener : this.listeners) {
+            try {
+                listener.onDeviceResponse(this.connection, response);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
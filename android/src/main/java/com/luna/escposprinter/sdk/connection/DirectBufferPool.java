@@ -0,0 +1,148 @@
+package com.luna.escposprinter.sdk.connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct ByteBuffer holding raster images and job data out of the Java heap.
+ *
+ * Buffers are allocated by power of two size classes and reference counted : the job holding a buffer and each
+ * connection still writing it keep a reference, the buffer goes back to the pool once all of them released it.
+ * Buffers larger than the biggest size class are allocated on demand and not pooled.
+ */
+public class DirectBufferPool {
+    private static final int MIN_SIZE_CLASS = 12;
+    private static final int MAX_SIZE_CLASS = 22;
+
+    /**
+     * Direct buffer borrowed from the pool.
+     */
+    public static class Buffer {
+        private final DirectBufferPool pool;
+        private final ByteBuffer byteBuffer;
+        private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+        private Buffer(DirectBufferPool pool, ByteBuffer byteBuffer) {
+            this.pool = pool;
+            this.byteBuffer = byteBuffer;
+        }
+
+        /**
+         * @return the direct buffer, position 0 and limit set to the acquired capacity
+         */
+        public ByteBuffer getByteBuffer() {
+            return this.byteBuffer;
+        }
+
+        /**
+         * Keep the buffer until release() is called once more.
+         *
+         * @return Fluent interface
+         */
+        public Buffer retain() {
+            if (this.referenceCount.getAndIncrement() <= 0) {
+                throw new IllegalStateException("Buffer already released.");
+            }
+            return this;
+        }
+
+        /**
+         * Give back a reference, the buffer returns to the pool with the last one.
+         */
+        public void release() {
+            int referenceCount = this.referenceCount.decrementAndGet();
+            if (referenceCount == 0) {
+                this.pool.recycle(this.byteBuffer);
+            } else if (referenceCount < 0) {
+                throw new IllegalStateException("Buffer already released.");
+            }
+        }
+    }
+
+    private final ArrayDeque<ByteBuffer>[] freeBuffers;
+    private final long maxPooledLength;
+    private long pooledLength = 0;
+    private long allocatedCount = 0;
+
+    /**
+     * Create new instance of DirectBufferPool.
+     *
+     * @param maxPooledLength Number of bytes the free buffers can hold, the buffers released above are dropped
+     */
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(long maxPooledLength) {
+        this.maxPooledLength = maxPooledLength;
+        this.freeBuffers = new ArrayDeque[DirectBufferPool.MAX_SIZE_CLASS - DirectBufferPool.MIN_SIZE_CLASS + 1];
+        for (int i = 0; i < this.freeBuffers.length; i++) {
+            this.freeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Borrow a direct buffer.
+     *
+     * @param capacity Number of bytes the buffer must hold
+     * @return a buffer with one reference, to be released once the data has been sent
+     */
+    public Buffer acquire(int capacity) {
+        int sizeClass = DirectBufferPool.getSizeClass(capacity);
+        ByteBuffer byteBuffer = null;
+        if (sizeClass <= DirectBufferPool.MAX_SIZE_CLASS) {
+            synchronized (this) {
+                byteBuffer = this.freeBuffers[sizeClass - DirectBufferPool.MIN_SIZE_CLASS].poll();
+                if (byteBuffer != null) {
+                    this.pooledLength -= byteBuffer.capacity();
+                }
+            }
+        }
+        if (byteBuffer == null) {
+            byteBuffer = ByteBuffer.allocateDirect(sizeClass <= DirectBufferPool.MAX_SIZE_CLASS ? 1 << sizeClass : capacity);
+            synchronized (this) {
+                this.allocatedCount++;
+            }
+        }
+        byteBuffer.clear();
+        byteBuffer.limit(capacity);
+        return new Buffer(this, byteBuffer);
+    }
+
+    /**
+     * @return Number of bytes held by the free buffers
+     */
+    public synchronized long getPooledLength() {
+        return this.pooledLength;
+    }
+
+    /**
+     * @return Number of direct buffers allocated since the pool creation, a growing count means the pool is too small
+     */
+    public synchronized long getAllocatedCount() {
+        return this.allocatedCount;
+    }
+
+    /**
+     * Drop all the free buffers, their memory is freed by the next garbage collections.
+     */
+    public synchronized void trim() {
+        for (ArrayDeque<ByteBuffer> buffers : this.freeBuffers) {
+            buffers.clear();
+        }
+        this.pooledLength = 0;
+    }
+
+    private synchronized void recycle(ByteBuffer byteBuffer) {
+        int capacity = byteBuffer.capacity();
+        int sizeClass = DirectBufferPool.getSizeClass(capacity);
+        if (sizeClass > DirectBufferPool.MAX_SIZE_CLASS || capacity != 1 << sizeClass || this.pooledLength + capacity > this.maxPooledLength) {
+            return;
+        }
+        this.freeBuffers[sizeClass - DirectBufferPool.MIN_SIZE_CLASS].add(byteBuffer);
+        this.pooledLength += capacity;
+    }
+
+    private static int getSizeClass(int capacity) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(sizeClass, DirectBufferPool.MIN_SIZE_CLASS);
+    }
+}
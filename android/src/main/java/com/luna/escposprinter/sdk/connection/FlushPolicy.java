@@ -0,0 +1,127 @@
+package com.luna.escposprinter.sdk.connection;
+
+/**
+ * Decide when the data written at the end of a line or of an image band is sent to the device.
+ *
+ * Sending after every line makes a receipt a lot of tiny packets, each one followed by a waiting time.
+ * A policy batches the data until it fills a packet of the transport, or until the oldest pending byte
+ * waited too long. Feed, cut and cash box commands are always sent at once.
+ *
+ * The policy is only checked at line and image band boundaries, by the thread writing the commands : no timer
+ * flushes the data in between. The maximum delay is best-effort, a line taking longer to render than maxDelay
+ * is sent once it is complete.
+ */
+public class FlushPolicy {
+    /**
+     * Send at the end of each line and image band.
+     */
+    public static final int MODE_EACH_LINE = 0;
+    /**
+     * Send once enough bytes are pending.
+     */
+    public static final int MODE_SIZE = 1;
+    /**
+     * Send once the oldest pending byte waited long enough, checked at line boundaries.
+     */
+    public static final int MODE_TIME = 2;
+    /**
+     * Send once enough bytes are pending or the oldest pending byte waited long enough, checked at line boundaries.
+     */
+    public static final int MODE_SIZE_OR_TIME = 3;
+    /**
+     * Send only with the feed, cut and cash box commands, or at the end of the job.
+     */
+    public static final int MODE_END_OF_JOB = 4;
+
+    /**
+     * @return a policy sending at the end of each line, as before flush policies
+     */
+    public static FlushPolicy eachLine() {
+        return new FlushPolicy(FlushPolicy.MODE_EACH_LINE, 0, 0);
+    }
+
+    /**
+     * @param sizeThreshold Number of pending bytes triggering a send
+     * @return a policy sending by packets of sizeThreshold bytes
+     */
+    public static FlushPolicy bySize(int sizeThreshold) {
+        return new FlushPolicy(FlushPolicy.MODE_SIZE, sizeThreshold, 0);
+    }
+
+    /**
+     * @param maxDelay Time in milliseconds the oldest pending byte can wait, best-effort, checked at line boundaries
+     * @return a policy sending the data about every maxDelay milliseconds
+     */
+    public static FlushPolicy byTime(int maxDelay) {
+        return new FlushPolicy(FlushPolicy.MODE_TIME, 0, maxDelay);
+    }
+
+    /**
+     * @param sizeThreshold Number of pending bytes triggering a send
+     * @param maxDelay      Time in milliseconds the oldest pending byte can wait, best-effort, checked at line boundaries
+     * @return a policy filling the packets of the transport without delaying the print start
+     */
+    public static FlushPolicy bySizeOrTime(int sizeThreshold, int maxDelay) {
+        return new FlushPolicy(FlushPolicy.MODE_SIZE_OR_TIME, sizeThreshold, maxDelay);
+    }
+
+    /**
+     * @return a policy sending the job at once
+     */
+    public static FlushPolicy endOfJob() {
+        return new FlushPolicy(FlushPolicy.MODE_END_OF_JOB, 0, 0);
+    }
+
+
+    private final int mode;
+    private final int sizeThreshold;
+    private final int maxDelay;
+
+    /**
+     * Create new instance of FlushPolicy.
+     *
+     * @param mode          Use FlushPolicy.MODE_... constants
+     * @param sizeThreshold Number of pending bytes triggering a send, for size modes
+     * @param maxDelay      Time in milliseconds the oldest pending byte can wait, for time modes, checked at line boundaries
+     */
+    public FlushPolicy(int mode, int sizeThreshold, int maxDelay) {
+        this.mode = mode;
+        this.sizeThreshold = sizeThreshold;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMode() {
+        return this.mode;
+    }
+
+    public int getSizeThreshold() {
+        return this.sizeThreshold;
+    }
+
+    public int getMaxDelay() {
+        return this.maxDelay;
+    }
+
+    /**
+     * @param pendingLength Number of bytes waiting to be sent
+     * @param pendingTime   Time in milliseconds the oldest pending byte has waited
+     * @return true if the pending data must be sent now
+     */
+    public boolean shouldFlush(int pendingLength, long pendingTime) {
+        if (pendingLength <= 0) {
+            return false;
+        }
+        switch (this.mode) {
+            case FlushPolicy.MODE_EACH_LINE:
+                return true;
+            case FlushPolicy.MODE_SIZE:
+                return pendingLength >= this.sizeThreshold;
+            case FlushPolicy.MODE_TIME:
+                return pendingTime >= this.maxDelay;
+            case FlushPolicy.MODE_SIZE_OR_TIME:
+                return pendingLength >= this.sizeThreshold || pendingTime >= this.maxDelay;
+            default:
+                return false;
+        }
+    }
+}
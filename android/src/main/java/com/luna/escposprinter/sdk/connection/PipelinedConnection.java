@@ -0,0 +1,371 @@
+package com.luna.escposprinter.sdk.connection;
+
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection writing to another connection from a dedicated writer thread.
+ *
+ * send() moves the pending data to a single-producer single-consumer ring buffer and returns, so the commands of
+ * the next lines are generated while the previous ones are written. send() waits only when the ring is full or
+ * holds more than maxPendingLength bytes. A write error is thrown by the next send() or flush(), the data queued
+ * after the error is dropped. The writer thread waits for data without polling and stops on disconnect() or stop().
+ *
+ * Only one thread must write and send on this connection.
+ */
+public class PipelinedConnection extends DeviceConnection implements Runnable {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int DEFAULT_MAX_PENDING_LENGTH = 256 * 1024;
+    private static final int DISCONNECT_TIMEOUT = 10000;
+
+    /**
+     * Data of a send, with its waiting time and the pooled buffers to release once written.
+     */
+    private static class Chunk {
+        private final ByteBuffer[] buffers;
+        private final ArrayList<DirectBufferPool.Buffer> pooledBuffers;
+        private final int length;
+        private final int waitingTime;
+
+        private Chunk(ByteBuffer[] buffers, ArrayList<DirectBufferPool.Buffer> pooledBuffers, int length, int waitingTime) {
+            this.buffers = buffers;
+            this.pooledBuffers = pooledBuffers;
+            this.length = length;
+            this.waitingTime = waitingTime;
+        }
+
+        private void release() {
+            for (DirectBufferPool.Buffer pooledBuffer : this.pooledBuffers) {
+                pooledBuffer.release();
+            }
+        }
+    }
+
+    private final DeviceConnection connection;
+    private final Chunk[] ring;
+    private final int mask;
+    private final int maxPendingLength;
+    // Index of the next chunk to write, updated by the writer thread only
+    private final AtomicLong head = new AtomicLong(0);
+    // Index of the next chunk to queue, updated by the producer thread only
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong pendingLength = new AtomicLong(0);
+    // Notified when a chunk is queued or written, and when the writer thread is stopped
+    private final Object progress = new Object();
+    private volatile Thread writerThread = null;
+    private volatile boolean isRunning = false;
+    private volatile EscPosConnectionException error = null;
+
+    /**
+     * Create new instance of PipelinedConnection.
+     *
+     * @param connection Connection receiving the data from the writer thread
+     */
+    public PipelinedConnection(DeviceConnection connection) {
+        this(connection, PipelinedConnection.DEFAULT_CAPACITY, PipelinedConnection.DEFAULT_MAX_PENDING_LENGTH);
+    }
+
+    /**
+     * Create new instance of PipelinedConnection.
+     *
+     * @param connection       Connection receiving the data from the writer thread
+     * @param capacity         Number of sends the ring can hold, rounded up to a power of two
+     * @param maxPendingLength Number of bytes that can wait in the ring before send() waits
+     */
+    public PipelinedConnection(DeviceConnection connection, int capacity, int maxPendingLength) {
+        super();
+        int ringSize = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.connection = connection;
+        this.ring = new Chunk[ringSize];
+        this.mask = ringSize - 1;
+        this.maxPendingLength = maxPendingLength;
+        // batch as the wrapped connection would, a ring slot by packet
+        this.setFlushPolicy(connection.getFlushPolicy());
+    }
+
+    /**
+     * @return Connection receiving the data
+     */
+    public DeviceConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * @return Number of bytes queued and not yet written to the connection
+     */
+    public long getPendingLength() {
+        return this.pendingLength.get();
+    }
+
+    /**
+     * The connection stays connected after a write error, so the error is thrown by the next send().
+     *
+     * @return true if the writer thread is running
+     */
+    @Override
+    public boolean isConnected() {
+        return this.isRunning;
+    }
+
+    /**
+     * Connect the wrapped connection and start the writer thread.
+     */
+    @Override
+    public synchronized PipelinedConnection connect() throws EscPosConnectionException {
+        this.connection.connect();
+        this.error = null;
+        this.isRunning = true;
+        Thread writerThread = this.writerThread;
+        if (writerThread == null || !writerThread.isAlive()) {
+            writerThread = new Thread(this, "PipelinedConnection");
+            writerThread.setDaemon(true);
+            this.writerThread = writerThread;
+            writerThread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Wait for the queued data to be written, then stop the writer thread and disconnect the wrapped connection.
+     */
+    @Override
+    public synchronized PipelinedConnection disconnect() {
+        if (this.isRunning) {
+            try {
+                this.flush(PipelinedConnection.DISCONNECT_TIMEOUT);
+            } catch (EscPosConnectionException e) {
+                e.printStackTrace();
+            }
+        }
+        this.isRunning = false;
+        this.notifyProgress();
+        this.clearData();
+        this.connection.disconnect();
+        return this;
+    }
+
+    /**
+     * Stop the writer thread without waiting for the queued data, which is dropped. The wrapped connection is left
+     * open, for its owner to close it. A send() waiting for the writer thread fails.
+     */
+    public synchronized PipelinedConnection stop() {
+        if (this.error == null) {
+            this.error = new EscPosConnectionException("Pipelined connection stopped.");
+        }
+        this.isRunning = false;
+        this.notifyProgress();
+        this.clearData();
+        return this;
+    }
+
+    /**
+     * Queue the pending data for the writer thread. Wait only if the ring is full.
+     */
+    @Override
+    public void send(int addWaitingTime) throws EscPosConnectionException {
+        if (!this.isConnected()) {
+            throw new EscPosConnectionException("Unable to send data to device.");
+        }
+        this.throwIfFailed();
+
+        int length = this.getDataLength();
+        if (length == 0 && addWaitingTime <= 0) {
+            return;
+        }
+        ArrayList<DirectBufferPool.Buffer> pooledBuffers = new ArrayList<>();
+        Chunk chunk = new Chunk(this.getDataBuffers(true, pooledBuffers), pooledBuffers, length, addWaitingTime);
+        this.clearData();
+
+        long tail = this.tail.get();
+        try {
+            synchronized (this.progress) {
+                while (tail - this.head.get() >= this.ring.length || !this.hasPendingSpace(length)) {
+                    this.waitProgress(0);
+                    this.throwIfFailed();
+                }
+            }
+        } catch (EscPosConnectionException e) {
+            chunk.release();
+            throw e;
+        }
+        this.ring[(int) (tail & this.mask)] = chunk;
+        this.pendingLength.addAndGet(length);
+        // Ordered write : the chunk is visible to the writer thread before the new tail
+        this.tail.lazySet(tail + 1);
+        this.notifyProgress();
+    }
+
+    /**
+     * Wait for all the queued data to be written to the wrapped connection.
+     *
+     * @param timeout Maximum time to wait in milliseconds
+     * @return true if all the data has been written
+     */
+    public boolean flush(int timeout) throws EscPosConnectionException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this.progress) {
+            while (this.head.get() != this.tail.get()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                this.waitProgress(remaining);
+            }
+        }
+        this.throwIfFailed();
+        return true;
+    }
+
+    /**
+     * Write the queued chunks to the wrapped connection, until the connection is disconnected and the ring empty.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            long head = this.head.get();
+            if (head == this.tail.get()) {
+                synchronized (this.progress) {
+                    if (this.head.get() == this.tail.get()) {
+                        if (!this.isRunning) {
+                            break;
+                        }
+                        try {
+                            this.progress.wait();
+                        } catch (InterruptedException e) {
+                            // only stop() or disconnect() end the writer thread
+                        }
+                    }
+                }
+                continue;
+            }
+
+            int index = (int) (head & this.mask);
+            Chunk chunk = this.ring[index];
+            this.ring[index] = null;
+            if (this.error == null) {
+                try {
+                    for (ByteBuffer buffer : chunk.buffers) {
+                        this.connection.writeShared(buffer);
+                    }
+                    this.connection.send(chunk.waitingTime);
+                } catch (EscPosConnectionException e) {
+                    this.error = e;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    this.error = new EscPosConnectionException(e.getMessage());
+                }
+                if (this.error != null) {
+                    // the data queued after an error is dropped, the chunk buffers are released below
+                    this.connection.clearData();
+                }
+            }
+            // the wrapped connection has sent or discarded the data, nothing references the buffers anymore
+            chunk.release();
+            this.pendingLength.addAndGet(-chunk.length);
+            this.head.lazySet(head + 1);
+            this.notifyProgress();
+        }
+    }
+
+    private boolean hasPendingSpace(int length) {
+        long pendingLength = this.pendingLength.get();
+        return pendingLength == 0 || pendingLength + length <= this.maxPendingLength;
+    }
+
+    private void notifyProgress() {
+        synchronized (this.progress) {
+            this.progress.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the writer thread to make progress, the caller holds the progress lock.
+     *
+     * @param timeout Maximum time to wait in milliseconds, 0 to wait without limit
+     */
+    private void waitProgress(long timeout) throws EscPosConnectionException {
+        try {
+            this.progress.wait(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EscPosConnectionException("Interrupted while waiting for the writer thread.");
+        }
+    }
+
+    private void throwIfFailed() throws EscPosConnectionException {
+        EscPosConnectionException error = this.error;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public boolean isWritingDirectBuffers() {
+        return this.connection.isWritingDirectBuffers();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return this.connection.isReadable();
+    }
+
+    @Override
+    public int read(byte[] buffer) throws EscPosConnectionException {
+        return this.connection.read(buffer);
+    }
+
+    @Override
+    public DeviceConnection addResponseListener(DeviceResponseListener listener) {
+        this.connection.addResponseListener(listener);
+        return this;
+    }
+
+    @Override
+    public DeviceConnection removeResponseListener(DeviceResponseListener listener) {
+        this.connection.removeResponseListener(listener);
+        return this;
+    }
+
+    @Override
+    public boolean isResponseReaderRunning() {
+        return this.connection.isResponseReaderRunning();
+    }
+
+    @Override
+    public DeviceConnection setFlowControl(int flowControl) {
+        this.connection.setFlowControl(flowControl);
+        return this;
+    }
+
+    @Override
+    public DeviceConnection setFlowControlParameters(int timeout, int window) {
+        this.connection.setFlowControlParameters(timeout, window);
+        return this;
+    }
+
+    @Override
+    public int getFlowControl() {
+        return this.connection.getFlowControl();
+    }
+
+    @Override
+    public DeviceConnection setWriteTimeouts(int writeTimeout, int jobTimeout) {
+        this.connection.setWriteTimeouts(writeTimeout, jobTimeout);
+        return this;
+    }
+
+    @Override
+    public DeviceConnection beginJob() {
+        this.connection.beginJob();
+        return this;
+    }
+
+    @Override
+    public DeviceConnection endJob() {
+        this.connection.endJob();
+        return this;
+    }
+}
@@ -0,0 +1,83 @@
+package com.luna.escposprinter.sdk.connection;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Abort the blocking writes that do not complete before their deadline.
+ *
+ * A single daemon thread watches the deadlines of all the connections. When a deadline expires, the connection
+ * is aborted from the watchdog thread, which makes the blocked write fail in the writing thread.
+ */
+public class WriteWatchdog {
+
+    /**
+     * Deadline of a write in progress.
+     */
+    public static class Deadline implements Runnable {
+        private static final int STATE_ARMED = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final Runnable onExpired;
+        // Leaves ARMED once, either cancelled by the writing thread or expired by the watchdog thread
+        private final AtomicInteger state = new AtomicInteger(Deadline.STATE_ARMED);
+        private volatile ScheduledFuture<?> future = null;
+
+        private Deadline(Runnable onExpired) {
+            this.onExpired = onExpired;
+        }
+
+        @Override
+        public void run() {
+            if (this.state.compareAndSet(Deadline.STATE_ARMED, Deadline.STATE_EXPIRED)) {
+                this.onExpired.run();
+            }
+        }
+
+        /**
+         * Stop watching the write, to be called once the write completed or failed.
+         *
+         * @return true if the deadline expired and the connection has been aborted
+         */
+        public boolean cancel() {
+            if (this.state.compareAndSet(Deadline.STATE_ARMED, Deadline.STATE_CANCELLED)) {
+                ScheduledFuture<?> future = this.future;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return false;
+            }
+            return this.state.get() == Deadline.STATE_EXPIRED;
+        }
+    }
+
+    private static ScheduledExecutorService executor = null;
+
+    /**
+     * Start watching a write.
+     *
+     * @param timeout   Time in milliseconds the write can take
+     * @param onExpired Called from the watchdog thread if the write is not completed in time, it must abort the write
+     * @return the deadline, to be cancelled once the write completed
+     */
+    public static Deadline watch(long timeout, Runnable onExpired) {
+        Deadline deadline = new Deadline(onExpired);
+        deadline.future = WriteWatchdog.getExecutor().schedule(deadline, Math.max(timeout, 1), TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (WriteWatchdog.executor == null) {
+            WriteWatchdog.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "WriteWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return WriteWatchdog.executor;
+    }
+}
@@ -4,12 +4,18 @@ import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
+import android.os.Build;
 import android.os.ParcelUuid;
 
 import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.FlushPolicy;
+import com.luna.escposprinter.sdk.connection.WriteWatchdog;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.UUID;
 
@@ -17,9 +23,24 @@ public class BluetoothConnection extends DeviceConnection {
 
     private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805f9b34fb");
 
+    private static final int DEFAULT_CHUNK_SIZE = 512;
+    private static final float MAX_PRINTER_BYTES_PER_SECOND = 16384f;
+    // The estimation may exceed the last measured speed by 25% at most, to find out a faster printer
+    private static final float MAX_SPEED_GROWTH = 1.25f;
+
     private BluetoothDevice device;
     private BluetoothSocket socket = null;
 
+    private boolean isStreaming = false;
+    private boolean isCachedChannel = false;
+    private int chunkSize = 0;
+    private int printerBufferSize = 4096;
+    private float printerBytesPerSecond = 2048f;
+    private float measuredBytesPerSecond = 2048f;
+    private float printerBufferedLength = 0f;
+    private long printerBufferedAt = 0;
+    private float lastBytesPerSecond = 0f;
+
     /**
      * Create un instance of BluetoothConnection.
      *
@@ -28,6 +49,7 @@ public class BluetoothConnection extends DeviceConnection {
     public BluetoothConnection(BluetoothDevice device) {
         super();
         this.device = device;
+        this.setFlushPolicy(FlushPolicy.bySizeOrTime(BluetoothConnection.DEFAULT_CHUNK_SIZE, 50));
     }
 
     /**
@@ -39,6 +61,65 @@ public class BluetoothConnection extends DeviceConnection {
         return this.device;
     }
 
+    /**
+     * Send data by chunks paced to the printer speed instead of a single write followed by a delay.
+     *
+     * @param chunkSize             Bytes by write, 0 to use the link maximum packet size
+     * @param printerBufferSize     Printer receive buffer size in bytes
+     * @param initialBytesPerSecond Initial estimation of the printer speed, adjusted while sending
+     * @return Fluent interface
+     */
+    public BluetoothConnection setStreaming(int chunkSize, int printerBufferSize, int initialBytesPerSecond) {
+        this.isStreaming = true;
+        this.chunkSize = chunkSize;
+        this.printerBufferSize = printerBufferSize;
+        this.printerBytesPerSecond = initialBytesPerSecond;
+        this.measuredBytesPerSecond = initialBytesPerSecond;
+        this.printerBufferedLength = 0f;
+        return this;
+    }
+
+    /**
+     * Try the RFCOMM channel of the last successful connection before the service discovery.
+     * The channel is read from and opened with hidden Android APIs, and a printer may move its service to another
+     * channel : it is only a hint, the service discovery runs whenever the channel fails.
+     *
+     * @param isCachedChannel true to try the cached channel first, false to always run the service discovery (default)
+     * @return Fluent interface
+     */
+    public BluetoothConnection setCachedChannel(boolean isCachedChannel) {
+        this.isCachedChannel = isCachedChannel;
+        return this;
+    }
+
+    /**
+     * Send data with a single write followed by a delay (default).
+     *
+     * @return Fluent interface
+     */
+    public BluetoothConnection disableStreaming() {
+        this.isStreaming = false;
+        return this;
+    }
+
+    /**
+     * Get the speed achieved by the last streaming send.
+     *
+     * @return bytes by second, 0 if nothing has been streamed
+     */
+    public float getLastBytesPerSecond() {
+        return this.lastBytesPerSecond;
+    }
+
+    /**
+     * Get the current estimation of the printer speed.
+     *
+     * @return bytes by second
+     */
+    public float getPrinterBytesPerSecond() {
+        return this.printerBytesPerSecond;
+    }
+
     /**
      * Check if OutputStream is open.
      *
@@ -51,6 +132,8 @@ public class BluetoothConnection extends DeviceConnection {
 
     /**
      * Start socket connection with the bluetooth device.
+     * If enabled with setCachedChannel(), the RFCOMM channel of the last successful connection is tried first,
+     * the service discovery runs if it fails.
      */
     @SuppressLint("MissingPermission")
     public BluetoothConnection connect() throws EscPosConnectionException {
@@ -62,24 +145,197 @@ public class BluetoothConnection extends DeviceConnection {
             throw new EscPosConnectionException("Bluetooth device is not connected.");
         }
 
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        String address = this.device.getAddress();
+        BluetoothEndpointCache.Endpoint endpoint = BluetoothEndpointCache.getEndpoint(address);
+
+        if (this.isCachedChannel && endpoint != null && endpoint.getChannel() > 0) {
+            try {
+                this.socket = this.createChannelSocket(endpoint.getChannel());
+                this.openSocket();
+                return this;
+            } catch (IOException e) {
+                this.disconnect();
+                // The channel is stale, keep only the service UUID
+                endpoint = new BluetoothEndpointCache.Endpoint(address, endpoint.getUuid(), -1);
+                BluetoothEndpointCache.putEndpoint(endpoint);
+            }
+        }
 
-        UUID uuid = this.getDeviceUUID();
+        UUID uuid = endpoint != null ? endpoint.getUuid() : this.getDeviceUUID();
 
         try {
             this.socket = this.device.createRfcommSocketToServiceRecord(uuid);
-            bluetoothAdapter.cancelDiscovery();
-            this.socket.connect();
-            this.outputStream = this.socket.getOutputStream();
-            this.data = new byte[0];
+            this.openSocket();
+            BluetoothEndpointCache.putEndpoint(new BluetoothEndpointCache.Endpoint(address, uuid, this.isCachedChannel ? this.getSocketChannel() : -1));
         } catch (IOException e) {
             e.printStackTrace();
             this.disconnect();
+            BluetoothEndpointCache.removeEndpoint(address);
             throw new EscPosConnectionException("Unable to connect to bluetooth device.");
         }
         return this;
     }
 
+    @SuppressLint("MissingPermission")
+    private void openSocket() throws IOException {
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter != null && bluetoothAdapter.isDiscovering()) {
+            bluetoothAdapter.cancelDiscovery();
+        }
+        this.socket.connect();
+        this.outputStream = this.socket.getOutputStream();
+        this.inputStream = this.socket.getInputStream();
+        this.clearData();
+        this.startResponseReader();
+    }
+
+    /**
+     * Create a socket on a known RFCOMM channel, without service discovery.
+     * Uses the hidden BluetoothDevice.createRfcommSocket(int) method.
+     */
+    private BluetoothSocket createChannelSocket(int channel) throws IOException {
+        try {
+            Method createRfcommSocket = this.device.getClass().getMethod("createRfcommSocket", int.class);
+            return (BluetoothSocket) createRfcommSocket.invoke(this.device, channel);
+        } catch (Exception e) {
+            throw new IOException("Unable to create RFCOMM socket on channel " + channel + ".");
+        }
+    }
+
+    /**
+     * Get the RFCOMM channel of the connected socket from the hidden BluetoothSocket.mPort field.
+     *
+     * @return the channel, -1 if it cannot be read
+     */
+    private int getSocketChannel() {
+        try {
+            Field port = BluetoothSocket.class.getDeclaredField("mPort");
+            port.setAccessible(true);
+            return port.getInt(this.socket);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Send data to the device, by chunks if streaming is enabled.
+     */
+    @Override
+    public void send(int addWaitingTime) throws EscPosConnectionException {
+        if (!this.isStreaming) {
+            super.send(addWaitingTime);
+            return;
+        }
+        if (!this.isConnected()) {
+            throw new EscPosConnectionException("Unable to send data to device.");
+        }
+
+        try {
+            int chunkSize = this.getChunkSize();
+            int dataLength = this.getDataLength();
+            long startTime = System.nanoTime();
+            WriteWatchdog.Deadline deadline = this.startWriteDeadline();
+            try {
+                for (ByteBuffer buffer : this.getDataBuffers(false)) {
+                    while (buffer.hasRemaining()) {
+                        int length = Math.min(chunkSize, buffer.remaining());
+                        this.waitPrinterBuffer(length);
+
+                        long writeStartTime = System.nanoTime();
+                        if (buffer.hasArray()) {
+                            this.outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                            buffer.position(buffer.position() + length);
+                        } else {
+                            // Direct buffer : the stream only takes arrays, copy the chunk once
+                            ByteBuffer chunk = buffer.slice();
+                            chunk.limit(length);
+                            this.writeDirectBuffer(this.outputStream, chunk);
+                            buffer.position(buffer.position() + length);
+                        }
+                        this.outputStream.flush();
+                        float writeDuration = (System.nanoTime() - writeStartTime) / 1000000000f;
+
+                        this.printerBufferedLength += length;
+                        this.adjustPrinterSpeed(length, writeDuration);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                this.stopWriteDeadline(deadline);
+                throw e;
+            }
+            this.stopWriteDeadline(deadline);
+
+            float duration = (System.nanoTime() - startTime) / 1000000000f;
+            if (dataLength > 0 && duration > 0f) {
+                this.lastBytesPerSecond = dataLength / duration;
+            }
+            this.clearData();
+
+            if (addWaitingTime > 0) {
+                Thread.sleep(addWaitingTime);
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            throw new EscPosConnectionException(e.getMessage());
+        }
+    }
+
+    private int getChunkSize() {
+        if (this.chunkSize > 0) {
+            return this.chunkSize;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            int maxPacketSize = this.socket.getMaxTransmitPacketSize();
+            if (maxPacketSize > 0) {
+                return maxPacketSize;
+            }
+        }
+        return BluetoothConnection.DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Wait until the estimated printer buffer can receive length more bytes.
+     */
+    private void waitPrinterBuffer(int length) throws InterruptedException {
+        long now = System.nanoTime();
+        if (this.printerBufferedAt > 0) {
+            float elapsed = (now - this.printerBufferedAt) / 1000000000f;
+            this.printerBufferedLength = Math.max(0f, this.printerBufferedLength - elapsed * this.printerBytesPerSecond);
+        }
+        this.printerBufferedAt = now;
+
+        float overflow = this.printerBufferedLength + length - this.printerBufferSize;
+        if (overflow > 0f) {
+            long waitingTime = (long) Math.ceil(overflow * 1000f / this.printerBytesPerSecond);
+            Thread.sleep(waitingTime);
+            this.printerBufferedLength -= overflow;
+            this.printerBufferedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * A write blocked by the link measures the printer speed, the estimation moves toward it.
+     * Otherwise try a faster pace, up to MAX_SPEED_GROWTH times the last measured speed (or the initial estimation).
+     */
+    private void adjustPrinterSpeed(int length, float writeDuration) {
+        float expectedDuration = length / this.printerBytesPerSecond;
+        if (writeDuration > expectedDuration && writeDuration > 0.01f) {
+            this.measuredBytesPerSecond = length / writeDuration;
+            this.printerBytesPerSecond = 0.7f * this.printerBytesPerSecond + 0.3f * this.measuredBytesPerSecond;
+            // The link was full, the printer buffer too
+            this.printerBufferedLength = this.printerBufferSize;
+        } else {
+            float maxBytesPerSecond = Math.min(this.measuredBytesPerSecond * BluetoothConnection.MAX_SPEED_GROWTH, BluetoothConnection.MAX_PRINTER_BYTES_PER_SECOND);
+            if (this.printerBytesPerSecond > maxBytesPerSecond) {
+                // Decay toward the last measurement instead of keeping a pace the printer did not show
+                this.printerBytesPerSecond = 0.7f * this.printerBytesPerSecond + 0.3f * maxBytesPerSecond;
+            } else {
+                this.printerBytesPerSecond = Math.min(this.printerBytesPerSecond * 1.05f, maxBytesPerSecond);
+            }
+        }
+        this.printerBufferedAt = System.nanoTime();
+    }
+
     /**
      * Get bluetooth device UUID
      */
@@ -96,11 +352,35 @@ public class BluetoothConnection extends DeviceConnection {
         }
     }
 
+    /**
+     * Close the socket from the watchdog thread, to unblock a write on a printer that stopped reading.
+     */
+    @Override
+    protected void abort() {
+        BluetoothSocket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Close the socket connection with the bluetooth device.
      */
     public BluetoothConnection disconnect() {
-        this.data = new byte[0];
+        this.clearData();
+        this.stopResponseReader();
+        if (this.inputStream != null) {
+            try {
+                this.inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.inputStream = null;
+        }
         if (this.outputStream != null) {
             try {
                 this.outputStream.close();
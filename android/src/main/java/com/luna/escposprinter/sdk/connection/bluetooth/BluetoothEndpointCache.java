@@ -0,0 +1,121 @@
+package com.luna.escposprinter.sdk.connection.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Remember how each bluetooth printer has been reached on the last successful connection,
+ * so the next connection can skip the service discovery.
+ */
+public class BluetoothEndpointCache {
+
+    /**
+     * Service resolved for a bluetooth printer.
+     */
+    public static class Endpoint {
+        private final String address;
+        private final UUID uuid;
+        private final int channel;
+
+        /**
+         * Create new instance of Endpoint.
+         *
+         * @param address Bluetooth address of the printer
+         * @param uuid    Service UUID used to connect
+         * @param channel RFCOMM channel of the service, -1 if unknown
+         */
+        public Endpoint(String address, UUID uuid, int channel) {
+            this.address = address;
+            this.uuid = uuid;
+            this.channel = channel;
+        }
+
+        public String getAddress() {
+            return this.address;
+        }
+
+        public UUID getUuid() {
+            return this.uuid;
+        }
+
+        public int getChannel() {
+            return this.channel;
+        }
+
+        /**
+         * @return "uuid|channel" string used to persist the endpoint
+         */
+        public String serialize() {
+            return this.uuid.toString() + "|" + this.channel;
+        }
+
+        /**
+         * Parse an endpoint persisted with serialize().
+         *
+         * @param address Bluetooth address of the printer
+         * @param value   Value returned by serialize()
+         * @return the endpoint, null if the value is invalid
+         */
+        @Nullable
+        public static Endpoint deserialize(String address, String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split("\\|");
+            if (parts.length != 2) {
+                return null;
+            }
+            try {
+                return new Endpoint(address, UUID.fromString(parts[0]), Integer.parseInt(parts[1]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final HashMap<String, Endpoint> endpoints = new HashMap<>();
+    private static final HashMap<String, BluetoothDevice> devices = new HashMap<>();
+
+    /**
+     * @param address Bluetooth address of the printer
+     * @return the endpoint of the last successful connection, null if unknown
+     */
+    @Nullable
+    public static synchronized Endpoint getEndpoint(String address) {
+        return BluetoothEndpointCache.endpoints.get(address);
+    }
+
+    /**
+     * Remember the endpoint of a successful connection.
+     */
+    public static synchronized void putEndpoint(Endpoint endpoint) {
+        BluetoothEndpointCache.endpoints.put(endpoint.getAddress(), endpoint);
+    }
+
+    /**
+     * Forget the endpoint of a printer when it cannot be reached with it anymore.
+     */
+    public static synchronized void removeEndpoint(String address) {
+        BluetoothEndpointCache.endpoints.remove(address);
+    }
+
+    /**
+     * @param address Bluetooth address of the printer
+     * @return the device resolved for this address, null if unknown
+     */
+    @Nullable
+    public static synchronized BluetoothDevice getDevice(String address) {
+        return BluetoothEndpointCache.devices.get(address);
+    }
+
+    /**
+     * Remember a resolved device.
+     */
+    public static synchronized void putDevice(BluetoothDevice device) {
+        BluetoothEndpointCache.devices.put(device.getAddress(), device);
+    }
+}
@@ -0,0 +1,246 @@
+package com.luna.escposprinter.sdk.connection.bluetooth;
+
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep a BluetoothConnection warm between two prints.
+ *
+ * When a heartbeat interval is set, a real-time status request is sent when the link has been unused for it, so a dropped
+ * RFCOMM link is detected before the next print. Lost connections are reopened in background with an
+ * exponential backoff, and the connection can be closed after an idle timeout.
+ *
+ * The session tasks run on the given executor. Use the executor sending the print jobs, so the heartbeat
+ * and the reconnection never write to the connection at the same time as a job.
+ */
+public class BluetoothSession {
+
+    /**
+     * Receive the session state changes. Called from the session executor.
+     */
+    public interface Listener {
+        /**
+         * Called each time the connection is opened, the session setup commands can be sent here.
+         */
+        void onSessionConnected(BluetoothSession session);
+
+        /**
+         * Called when the connection is lost or closed after the idle timeout.
+         */
+        void onSessionDisconnected(BluetoothSession session);
+    }
+
+    private static final byte[] REAL_TIME_STATUS_REQUEST = new byte[]{0x10, 0x04, 0x01};
+
+    private final BluetoothConnection connection;
+    private final ScheduledExecutorService executor;
+    private Listener listener = null;
+    private int heartbeatInterval = 0;
+    private int idleTimeout = 0;
+    private int minReconnectDelay = 500;
+    private int maxReconnectDelay = 30000;
+
+    private ScheduledFuture<?> heartbeatFuture = null;
+    private ScheduledFuture<?> reconnectFuture = null;
+    private int reconnectAttempts = 0;
+    private long lastActivityAt = 0;
+    private boolean isStarted = false;
+    private boolean isIdle = false;
+
+    /**
+     * Create new instance of BluetoothSession.
+     *
+     * @param connection Connection kept open by the session
+     * @param executor   Executor running the heartbeat and the reconnections
+     */
+    public BluetoothSession(BluetoothConnection connection, ScheduledExecutorService executor) {
+        this.connection = connection;
+        this.executor = executor;
+    }
+
+    /**
+     * @param listener Listener receiving the session state changes
+     * @return Fluent interface
+     */
+    public synchronized BluetoothSession setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @param heartbeatInterval Time in milliseconds without activity before the link is probed, 0 to disable
+     * @return Fluent interface
+     */
+    public synchronized BluetoothSession setHeartbeatInterval(int heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+        return this;
+    }
+
+    /**
+     * @param idleTimeout Time in milliseconds without print before the connection is closed, 0 to keep it open
+     * @return Fluent interface
+     */
+    public synchronized BluetoothSession setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * @param minReconnectDelay Delay in milliseconds before the second reconnection attempt, doubled on each failure
+     * @param maxReconnectDelay Maximum delay in milliseconds between two reconnection attempts
+     * @return Fluent interface
+     */
+    public synchronized BluetoothSession setReconnectDelays(int minReconnectDelay, int maxReconnectDelay) {
+        this.minReconnectDelay = minReconnectDelay;
+        this.maxReconnectDelay = maxReconnectDelay;
+        return this;
+    }
+
+    public BluetoothConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Open the connection in background and start the heartbeat.
+     *
+     * @return Fluent interface
+     */
+    public synchronized BluetoothSession start() {
+        if (this.isStarted) {
+            return this;
+        }
+        this.isStarted = true;
+        this.isIdle = false;
+        this.lastActivityAt = System.currentTimeMillis();
+
+        int period = this.heartbeatInterval > 0 ? this.heartbeatInterval : this.idleTimeout;
+        if (period > 0) {
+            this.heartbeatFuture = this.executor.scheduleWithFixedDelay(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+        }
+        if (!this.connection.isConnected()) {
+            this.scheduleReconnect(0);
+        }
+        return this;
+    }
+
+    /**
+     * Stop the heartbeat and the reconnections, then close the connection.
+     */
+    public synchronized void stop() {
+        this.isStarted = false;
+        if (this.heartbeatFuture != null) {
+            this.heartbeatFuture.cancel(false);
+            this.heartbeatFuture = null;
+        }
+        this.cancelReconnect();
+        this.connection.disconnect();
+    }
+
+    /**
+     * Record a print activity, the idle timeout and the heartbeat restart from now.
+     */
+    public synchronized void touch() {
+        this.lastActivityAt = System.currentTimeMillis();
+        this.isIdle = false;
+    }
+
+    /**
+     * Make sure the connection is open before a print, connecting now if needed.
+     */
+    public synchronized void ensureConnected() throws EscPosConnectionException {
+        this.touch();
+        if (this.connection.isConnected()) {
+            return;
+        }
+        this.cancelReconnect();
+        try {
+            this.connection.connect();
+        } catch (EscPosConnectionException e) {
+            this.scheduleReconnect(this.getReconnectDelay());
+            throw e;
+        }
+        this.onConnected();
+    }
+
+    /**
+     * Close the connection after a send error and reopen it in background.
+     */
+    public synchronized void reconnect() {
+        this.connection.disconnect();
+        if (this.listener != null) {
+            this.listener.onSessionDisconnected(this);
+        }
+        this.scheduleReconnect(0);
+    }
+
+    private synchronized void heartbeat() {
+        if (!this.isStarted || !this.connection.isConnected()) {
+            return;
+        }
+        long inactiveTime = System.currentTimeMillis() - this.lastActivityAt;
+
+        if (this.idleTimeout > 0 && inactiveTime >= this.idleTimeout) {
+            this.isIdle = true;
+            this.connection.disconnect();
+            if (this.listener != null) {
+                this.listener.onSessionDisconnected(this);
+            }
+            return;
+        }
+
+        if (this.heartbeatInterval <= 0 || inactiveTime < this.heartbeatInterval) {
+            return;
+        }
+        try {
+            this.connection.write(BluetoothSession.REAL_TIME_STATUS_REQUEST);
+            this.connection.send();
+        } catch (EscPosConnectionException e) {
+            e.printStackTrace();
+            this.reconnect();
+        }
+    }
+
+    private synchronized void tryReconnect() {
+        this.reconnectFuture = null;
+        if (!this.isStarted || this.isIdle || this.connection.isConnected()) {
+            return;
+        }
+        try {
+            this.connection.connect();
+        } catch (EscPosConnectionException e) {
+            this.reconnectAttempts++;
+            this.scheduleReconnect(this.getReconnectDelay());
+            return;
+        }
+        this.onConnected();
+    }
+
+    private void onConnected() {
+        this.reconnectAttempts = 0;
+        if (this.listener != null) {
+            this.listener.onSessionConnected(this);
+        }
+    }
+
+    private int getReconnectDelay() {
+        long delay = (long) this.minReconnectDelay << Math.min(this.reconnectAttempts, 16);
+        return (int) Math.min(delay, this.maxReconnectDelay);
+    }
+
+    private void scheduleReconnect(int delay) {
+        if (!this.isStarted || this.isIdle || this.reconnectFuture != null) {
+            return;
+        }
+        this.reconnectFuture = this.executor.schedule(this::tryReconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelReconnect() {
+        if (this.reconnectFuture != null) {
+            this.reconnectFuture.cancel(false);
+            this.reconnectFuture = null;
+        }
+    }
+}
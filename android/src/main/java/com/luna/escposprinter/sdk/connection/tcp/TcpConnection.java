@@ -1,15 +1,22 @@
 package com.luna.escposprinter.sdk.connection.tcp;
 
 import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.FlushPolicy;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 
 import java.io.IOException;
+import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 public class TcpConnection extends DeviceConnection {
+    // a printer answers the real-time status within a few milliseconds, even while printing
+    private static final long PROBE_TIMEOUT = 500;
+
     private Socket socket = null;
+    private PushbackInputStream pushbackInputStream = null;
     private String address;
     private int port;
     private int timeout;
@@ -39,6 +46,8 @@ public class TcpConnection extends DeviceConnection {
         this.address = address;
         this.port = port;
         this.timeout = timeout;
+        // a TCP segment on Ethernet
+        this.setFlushPolicy(FlushPolicy.bySizeOrTime(1460, 50));
     }
 
     /**
@@ -50,6 +59,60 @@ public class TcpConnection extends DeviceConnection {
         return this.socket != null && this.socket.isConnected() && super.isConnected();
     }
 
+    /**
+     * Check that the connection has not been closed by the TCP device.
+     * Bytes sent by the device are kept for the next read, nothing is discarded.
+     *
+     * @return true if the socket is still usable
+     */
+    public boolean isAlive() {
+        if (!this.isConnected() || this.socket.isClosed() || this.socket.isInputShutdown() || this.socket.isOutputShutdown()) {
+            return false;
+        }
+        if (this.isResponseReaderRunning()) {
+            // the reader stops when the device closes the connection, not when it vanishes without closing it
+            return this.probeResponseReader(TcpConnection.PROBE_TIMEOUT);
+        }
+        PushbackInputStream inputStream = this.pushbackInputStream;
+        try {
+            if (inputStream.available() > 0) {
+                // the device sent a status, it is still there
+                return true;
+            }
+            int soTimeout = this.socket.getSoTimeout();
+            this.socket.setSoTimeout(1);
+            try {
+                int value = inputStream.read();
+                if (value == -1) {
+                    return false;
+                }
+                // give the byte back to the next read
+                inputStream.unread(value);
+                return true;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                this.socket.setSoTimeout(soTimeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return IP address of the device
+     */
+    public String getAddress() {
+        return this.address;
+    }
+
+    /**
+     * @return Port of the device
+     */
+    public int getPort() {
+        return this.port;
+    }
+
     /**
      * Start socket connection with the TCP device.
      */
@@ -60,8 +123,12 @@ public class TcpConnection extends DeviceConnection {
         try {
             this.socket = new Socket();
             this.socket.connect(new InetSocketAddress(InetAddress.getByName(this.address), this.port), this.timeout);
+            this.socket.setKeepAlive(true);
             this.outputStream = this.socket.getOutputStream();
-            this.data = new byte[0];
+            this.pushbackInputStream = new PushbackInputStream(this.socket.getInputStream(), 1);
+            this.inputStream = this.pushbackInputStream;
+            this.clearData();
+            this.startResponseReader();
         } catch (IOException e) {
             e.printStackTrace();
             this.disconnect();
@@ -70,11 +137,36 @@ public class TcpConnection extends DeviceConnection {
         return this;
     }
 
+    /**
+     * Close the socket from the watchdog thread, a write blocked on a device that stopped reading fails at once.
+     */
+    @Override
+    protected void abort() {
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Close the socket connection with the TCP device.
      */
     public TcpConnection disconnect() {
-        this.data = new byte[0];
+        this.clearData();
+        this.stopResponseReader();
+        if (this.inputStream != null) {
+            try {
+                this.inputStream.close();
+                this.inputStream = null;
+                this.pushbackInputStream = null;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         if (this.outputStream != null) {
             try {
                 this.outputStream.close();
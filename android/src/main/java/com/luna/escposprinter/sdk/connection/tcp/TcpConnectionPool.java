@@ -0,0 +1,315 @@
+package com.luna.escposprinter.sdk.connection.tcp;
+
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep TCP connections open between print jobs, one idle connection by host:port.
+ *
+ * A connection is taken with acquire() and given back with release() when the job succeeded,
+ * or with invalidate() when the job failed. Idle connections are checked before being reused
+ * and closed after the idle timeout. The connections open to a host:port, idle or acquired, are limited :
+ * acquire() waits for one of them to be given back when the limit is reached.
+ */
+public class TcpConnectionPool {
+
+    /**
+     * Notified when the pool closes a connection, to release what the app associated with it.
+     */
+    public interface ConnectionListener {
+        void onConnectionClosed(TcpConnection connection);
+    }
+
+    private static class IdleConnection {
+        private final TcpConnection connection;
+        private final long releasedAt;
+
+        private IdleConnection(TcpConnection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT = 30000;
+
+    private final int maxIdleConnections;
+    private final long idleTimeout;
+    private final int connectTimeout;
+    private final int maxConnectionsPerHost;
+    private final long acquireTimeout;
+    private final LinkedHashMap<String, IdleConnection> idleConnections = new LinkedHashMap<>();
+    private final HashMap<String, Integer> openConnectionCounts = new HashMap<>();
+    private ScheduledExecutorService evictionExecutor = null;
+    private volatile ConnectionListener connectionListener = null;
+
+    /**
+     * Create a new instance of TcpConnectionPool.
+     *
+     * @param maxIdleConnections Maximum number of connections kept open
+     * @param idleTimeout        Time in milliseconds after which an unused connection is closed
+     * @param connectTimeout     Timeout in milliseconds to establish a connection
+     */
+    public TcpConnectionPool(int maxIdleConnections, long idleTimeout, int connectTimeout) {
+        this(maxIdleConnections, idleTimeout, connectTimeout, TcpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST, TcpConnectionPool.DEFAULT_ACQUIRE_TIMEOUT);
+    }
+
+    /**
+     * Create a new instance of TcpConnectionPool.
+     *
+     * @param maxIdleConnections    Maximum number of connections kept open
+     * @param idleTimeout           Time in milliseconds after which an unused connection is closed
+     * @param connectTimeout        Timeout in milliseconds to establish a connection
+     * @param maxConnectionsPerHost Maximum number of connections open to a host:port, idle or acquired
+     * @param acquireTimeout        Maximum time in milliseconds acquire() waits for a connection over the limit
+     */
+    public TcpConnectionPool(int maxIdleConnections, long idleTimeout, int connectTimeout, int maxConnectionsPerHost, long acquireTimeout) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeout = idleTimeout;
+        this.connectTimeout = connectTimeout;
+        this.maxConnectionsPerHost = Math.max(maxConnectionsPerHost, 1);
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Set the listener notified when the pool closes a connection, from the thread closing it.
+     *
+     * @param connectionListener Listener, null to remove it
+     * @return Fluent interface
+     */
+    public TcpConnectionPool setConnectionListener(ConnectionListener connectionListener) {
+        this.connectionListener = connectionListener;
+        return this;
+    }
+
+    /**
+     * Get the pool key of a TCP device.
+     *
+     * @param address IP address of the device
+     * @param port    Port of the device
+     * @return host:port key
+     */
+    public static String getKey(String address, int port) {
+        return address + ":" + port;
+    }
+
+    /**
+     * Get an open connection to the TCP device, reusing an idle one when it is still alive.
+     *
+     * @param address IP address of the device
+     * @param port    Port of the device
+     * @return a connected TcpConnection
+     */
+    public TcpConnection acquire(String address, int port) throws EscPosConnectionException {
+        String key = TcpConnectionPool.getKey(address, port);
+        IdleConnection idleConnection = this.reserve(key);
+
+        if (idleConnection != null) {
+            if (!this.isExpired(idleConnection, System.currentTimeMillis()) && idleConnection.connection.isAlive()) {
+                return idleConnection.connection;
+            }
+            // the new connection takes the place of the dead one
+            idleConnection.connection.disconnect();
+            this.notifyConnectionClosed(idleConnection.connection);
+        }
+
+        try {
+            return new TcpConnection(address, port, this.connectTimeout).connect();
+        } catch (EscPosConnectionException e) {
+            synchronized (this) {
+                this.onConnectionClosed(key);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Take the idle connection of a host:port, or count a new connection if the limit allows it.
+     *
+     * @return the idle connection, null if a new connection must be opened
+     */
+    private synchronized IdleConnection reserve(String key) throws EscPosConnectionException {
+        long deadline = System.currentTimeMillis() + this.acquireTimeout;
+        while (true) {
+            IdleConnection idleConnection = this.idleConnections.remove(key);
+            if (idleConnection != null) {
+                return idleConnection;
+            }
+            int openConnectionCount = this.getOpenConnectionCount(key);
+            if (openConnectionCount < this.maxConnectionsPerHost) {
+                this.openConnectionCounts.put(key, openConnectionCount + 1);
+                return null;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new EscPosConnectionException("Too many connections open to " + key + ".");
+            }
+            try {
+                this.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EscPosConnectionException("Interrupted while waiting for a connection to " + key + ".");
+            }
+        }
+    }
+
+    private int getOpenConnectionCount(String key) {
+        Integer openConnectionCount = this.openConnectionCounts.get(key);
+        return openConnectionCount != null ? openConnectionCount : 0;
+    }
+
+    /**
+     * Free the place of a closed connection, and wake up the acquire() waiting for it.
+     */
+    private void onConnectionClosed(String key) {
+        int openConnectionCount = this.getOpenConnectionCount(key) - 1;
+        if (openConnectionCount > 0) {
+            this.openConnectionCounts.put(key, openConnectionCount);
+        } else {
+            this.openConnectionCounts.remove(key);
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Close connections counted by the pool.
+     */
+    private void disconnect(List<TcpConnection> connections) {
+        for (TcpConnection tcpConnection : connections) {
+            tcpConnection.disconnect();
+            synchronized (this) {
+                this.onConnectionClosed(TcpConnectionPool.getKey(tcpConnection.getAddress(), tcpConnection.getPort()));
+            }
+            this.notifyConnectionClosed(tcpConnection);
+        }
+    }
+
+    private void notifyConnectionClosed(TcpConnection connection) {
+        ConnectionListener connectionListener = this.connectionListener;
+        if (connectionListener == null) {
+            return;
+        }
+        try {
+            connectionListener.onConnectionClosed(connection);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Give back a connection after a successful job, to be reused by the next one.
+     *
+     * @param connection Connection returned by acquire()
+     */
+    public void release(TcpConnection connection) {
+        if (!connection.isConnected()) {
+            this.invalidate(connection);
+            return;
+        }
+
+        List<TcpConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            IdleConnection previous = this.idleConnections.put(
+                    TcpConnectionPool.getKey(connection.getAddress(), connection.getPort()),
+                    new IdleConnection(connection, System.currentTimeMillis())
+            );
+            if (previous != null && previous.connection != connection) {
+                toClose.add(previous.connection);
+            }
+
+            Iterator<Map.Entry<String, IdleConnection>> iterator = this.idleConnections.entrySet().iterator();
+            while (this.idleConnections.size() > this.maxIdleConnections && iterator.hasNext()) {
+                toClose.add(iterator.next().getValue().connection);
+                iterator.remove();
+            }
+            this.scheduleEviction();
+            this.notifyAll();
+        }
+
+        this.disconnect(toClose);
+    }
+
+    /**
+     * Close a connection after a failed job instead of giving it back to the pool.
+     *
+     * @param connection Connection returned by acquire()
+     */
+    public void invalidate(TcpConnection connection) {
+        List<TcpConnection> toClose = new ArrayList<>();
+        toClose.add(connection);
+        this.disconnect(toClose);
+    }
+
+    /**
+     * Open a connection to the TCP device and keep it in the pool.
+     *
+     * @param address IP address of the device
+     * @param port    Port of the device
+     */
+    public void preconnect(String address, int port) throws EscPosConnectionException {
+        this.release(this.acquire(address, port));
+    }
+
+    /**
+     * Close the connections that have not been used since the idle timeout.
+     */
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        List<TcpConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            Iterator<IdleConnection> iterator = this.idleConnections.values().iterator();
+            while (iterator.hasNext()) {
+                IdleConnection idleConnection = iterator.next();
+                if (this.isExpired(idleConnection, now)) {
+                    toClose.add(idleConnection.connection);
+                    iterator.remove();
+                }
+            }
+        }
+        this.disconnect(toClose);
+    }
+
+    /**
+     * Close all the idle connections and stop the eviction timer.
+     */
+    public void close() {
+        List<TcpConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (IdleConnection idleConnection : this.idleConnections.values()) {
+                toClose.add(idleConnection.connection);
+            }
+            this.idleConnections.clear();
+            if (this.evictionExecutor != null) {
+                this.evictionExecutor.shutdownNow();
+                this.evictionExecutor = null;
+            }
+        }
+        this.disconnect(toClose);
+    }
+
+    private boolean isExpired(IdleConnection idleConnection, long now) {
+        return now - idleConnection.releasedAt >= this.idleTimeout;
+    }
+
+    private void scheduleEviction() {
+        if (this.evictionExecutor != null) {
+            return;
+        }
+        this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TcpConnectionPool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(this.idleTimeout / 2, 1000);
+        this.evictionExecutor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -4,14 +4,20 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 
 import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.FlushPolicy;
+import com.luna.escposprinter.sdk.connection.WriteWatchdog;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class UsbConnection extends DeviceConnection {
 
     private UsbManager usbManager;
     private UsbDevice usbDevice;
+    private boolean isDirectBufferQueued = false;
+    private int transferTimeout = UsbOutputStream.DEFAULT_TRANSFER_TIMEOUT;
 
     /**
      * Create un instance of UsbConnection.
@@ -23,6 +29,7 @@ public class UsbConnection extends DeviceConnection {
         super();
         this.usbManager = usbManager;
         this.usbDevice = usbDevice;
+        this.setFlushPolicy(FlushPolicy.bySizeOrTime(4096, 50));
     }
 
     /**
@@ -34,6 +41,20 @@ public class UsbConnection extends DeviceConnection {
         return this.usbDevice;
     }
 
+    /**
+     * A USB transfer the printer does not read fails after this timeout, even without write timeout.
+     *
+     * @param transferTimeout Maximum time in milliseconds to wait for a transfer, 0 to wait forever
+     * @return Fluent interface
+     */
+    public UsbConnection setTransferTimeout(int transferTimeout) {
+        this.transferTimeout = transferTimeout;
+        if (this.outputStream instanceof UsbOutputStream) {
+            ((UsbOutputStream) this.outputStream).setTransferTimeout(transferTimeout);
+        }
+        return this;
+    }
+
     /**
      * Start socket connection with the usbDevice.
      */
@@ -43,21 +64,65 @@ public class UsbConnection extends DeviceConnection {
         }
 
         try {
-            this.outputStream = new UsbOutputStream(this.usbManager, this.usbDevice);
-            this.data = new byte[0];
+            UsbOutputStream usbOutputStream = new UsbOutputStream(this.usbManager, this.usbDevice);
+            usbOutputStream.setTransferTimeout(this.transferTimeout);
+            this.outputStream = usbOutputStream;
+            this.inputStream = usbOutputStream.openInputStream();
+            this.clearData();
+            this.startResponseReader();
         } catch (IOException e) {
             e.printStackTrace();
-            this.outputStream = null;
+            this.disconnect();
             throw new EscPosConnectionException("Unable to connect to USB device.");
         }
         return this;
     }
 
+    /**
+     * Cancel the queued USB transfers from the watchdog thread, to unblock a transfer the printer does not read.
+     */
+    @Override
+    protected void abort() {
+        if (this.outputStream instanceof UsbOutputStream) {
+            ((UsbOutputStream) this.outputStream).abort();
+        }
+    }
+
+    /**
+     * USB requests are queued on slices of the direct buffers.
+     */
+    @Override
+    public boolean isWritingDirectBuffers() {
+        return true;
+    }
+
+    /**
+     * Queue direct buffers on the USB requests without copying them.
+     */
+    @Override
+    protected void writeDirectBuffer(OutputStream outputStream, ByteBuffer buffer) throws IOException {
+        if (!(outputStream instanceof UsbOutputStream)) {
+            super.writeDirectBuffer(outputStream, buffer);
+            return;
+        }
+        ((UsbOutputStream) outputStream).write(buffer);
+        this.isDirectBufferQueued = true;
+    }
+
     /**
      * Close the socket connection with the usbDevice.
      */
     public UsbConnection disconnect() {
-        this.data = new byte[0];
+        this.clearData();
+        this.stopResponseReader();
+        if (this.inputStream != null) {
+            try {
+                this.inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.inputStream = null;
+        }
         if (this.isConnected()) {
             try {
                 this.outputStream.close();
@@ -77,11 +142,25 @@ public class UsbConnection extends DeviceConnection {
     }
     /**
      * Send data to the device.
+     * Transfers stay in flight between sends, they are waited when addWaitingTime is set (cut, cash box, feed)
+     * or when they are sent from direct buffers.
      */
     public void send(int addWaitingTime) throws EscPosConnectionException {
         try {
-            this.outputStream.write(this.data);
-            this.data = new byte[0];
+            WriteWatchdog.Deadline deadline = this.startWriteDeadline();
+            try {
+                this.writeData(this.outputStream);
+                // Transfers sent from direct buffers must complete before clearData() gives them back to the pool
+                if (addWaitingTime > 0 || this.isDirectBufferQueued) {
+                    this.outputStream.flush();
+                    this.isDirectBufferQueued = false;
+                }
+            } catch (IOException e) {
+                this.stopWriteDeadline(deadline);
+                throw e;
+            }
+            this.stopWriteDeadline(deadline);
+            this.clearData();
         } catch (IOException e) {
             e.printStackTrace();
             throw new EscPosConnectionException(e.getMessage());
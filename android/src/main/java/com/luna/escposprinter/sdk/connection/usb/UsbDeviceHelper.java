@@ -48,4 +48,25 @@ public class UsbDeviceHelper {
         }
         return null;
     }
+
+    /**
+     * Find a bulk USB endpoint by direction
+     *
+     * @param usbInterface USB interface
+     * @param direction    UsbConstants.USB_DIR_IN to read printer responses, UsbConstants.USB_DIR_OUT to send data
+     * @return Bulk endpoint or null if not found
+     */
+    @Nullable
+    static public UsbEndpoint findBulkEndpoint(UsbInterface usbInterface, int direction) {
+        if (usbInterface != null) {
+            int endpointsCount = usbInterface.getEndpointCount();
+            for (int i = 0; i < endpointsCount; i++) {
+                UsbEndpoint endpoint = usbInterface.getEndpoint(i);
+                if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK && endpoint.getDirection() == direction) {
+                    return endpoint;
+                }
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,94 @@
+package com.luna.escposprinter.sdk.connection.usb;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream reading the printer responses on the bulk IN endpoint of a USB printer.
+ *
+ * The USB connection and the interface claim are owned by the UsbOutputStream the stream is opened from.
+ * read() blocks until the printer sends data or the stream is closed, available() polls the endpoint without waiting.
+ */
+public class UsbInputStream extends InputStream {
+    private static final int READ_TIMEOUT = 200;
+    private static final int POLL_TIMEOUT = 1;
+
+    private final UsbDeviceConnection usbConnection;
+    private final UsbEndpoint usbEndpoint;
+    private final byte[] buffer;
+    private int position = 0;
+    private int count = 0;
+    private volatile boolean isClosed = false;
+
+    public UsbInputStream(UsbDeviceConnection usbConnection, UsbEndpoint usbEndpoint) {
+        this.usbConnection = usbConnection;
+        this.usbEndpoint = usbEndpoint;
+        this.buffer = new byte[Math.max(this.usbEndpoint.getMaxPacketSize(), 64)];
+    }
+
+    /**
+     * Run a bulk transfer if the buffer is empty.
+     *
+     * @param timeout Transfer timeout in milliseconds
+     * @return false if the stream is closed
+     */
+    private synchronized boolean fill(int timeout) throws IOException {
+        if (this.isClosed) {
+            return false;
+        }
+        if (this.position < this.count) {
+            return true;
+        }
+        // a timeout and a transfer error both return a negative length
+        int length = this.usbConnection.bulkTransfer(this.usbEndpoint, this.buffer, this.buffer.length, timeout);
+        this.position = 0;
+        this.count = Math.max(length, 0);
+        return !this.isClosed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] bytes = new byte[1];
+        return this.read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (this.fill(UsbInputStream.READ_TIMEOUT)) {
+            synchronized (this) {
+                int available = this.count - this.position;
+                if (available > 0) {
+                    int readLength = Math.min(available, length);
+                    System.arraycopy(this.buffer, this.position, bytes, offset, readLength);
+                    this.position += readLength;
+                    return readLength;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        if (this.position >= this.count) {
+            this.fill(UsbInputStream.POLL_TIMEOUT);
+        }
+        return this.count - this.position;
+    }
+
+    /**
+     * Stop reading, the USB connection is closed by the UsbOutputStream.
+     */
+    @Override
+    public void close() {
+        this.isClosed = true;
+    }
+}
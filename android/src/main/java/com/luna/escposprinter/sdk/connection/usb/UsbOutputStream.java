@@ -1,22 +1,48 @@
 package com.luna.escposprinter.sdk.connection.usb;
 
+import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
 import android.hardware.usb.UsbRequest;
+import android.os.Build;
 
 import androidx.annotation.NonNull;
 
+import com.luna.escposprinter.sdk.connection.WriteWatchdog;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * OutputStream writing to the bulk OUT endpoint of a USB printer.
+ *
+ * The interface is claimed once when the stream is opened. Data is split in transfers queued on a small
+ * pool of reusable UsbRequest, several transfers are kept in flight so the endpoint does not idle between
+ * two chunks. write() returns once the data is queued, flush() waits for all the transfers to complete.
+ */
 public class UsbOutputStream extends OutputStream {
+    private static final int REQUEST_COUNT = 3;
+    // usbfs limit of a single transfer before Android P
+    private static final int MAX_TRANSFER_SIZE = 16384;
+    public static final int DEFAULT_TRANSFER_TIMEOUT = 30000;
+
     private UsbDeviceConnection usbConnection;
     private UsbInterface usbInterface;
     private UsbEndpoint usbEndpoint;
+    private int transferSize;
+    private final ArrayDeque<UsbRequest> idleRequests = new ArrayDeque<>();
+    // Guarded by itself, abort() cancels the requests from another thread
+    private final ArrayList<UsbRequest> inFlightRequests = new ArrayList<>();
+    private int transferTimeout = UsbOutputStream.DEFAULT_TRANSFER_TIMEOUT;
+    private boolean isTimedOut = false;
+    private volatile boolean isAborted = false;
 
     public UsbOutputStream(UsbManager usbManager, UsbDevice usbDevice) throws IOException {
 
@@ -34,6 +60,49 @@ public class UsbOutputStream extends OutputStream {
         if(this.usbConnection == null) {
             throw new IOException("Unable to open USB connection.");
         }
+
+        if (!this.usbConnection.claimInterface(this.usbInterface, true)) {
+            this.close();
+            throw new IOException("Error during claim USB interface.");
+        }
+
+        int maxPacketSize = Math.max(this.usbEndpoint.getMaxPacketSize(), 1);
+        this.transferSize = Math.max(maxPacketSize, UsbOutputStream.MAX_TRANSFER_SIZE / maxPacketSize * maxPacketSize);
+
+        for (int i = 0; i < UsbOutputStream.REQUEST_COUNT; i++) {
+            UsbRequest usbRequest = new UsbRequest();
+            if (!usbRequest.initialize(this.usbConnection, this.usbEndpoint)) {
+                usbRequest.close();
+                this.close();
+                throw new IOException("Unable to initialize USB request.");
+            }
+            usbRequest.setClientData(ByteBuffer.allocateDirect(this.transferSize));
+            this.idleRequests.add(usbRequest);
+        }
+    }
+
+    /**
+     * @param transferTimeout Maximum time in milliseconds to wait for a queued transfer, 0 to wait forever
+     */
+    public void setTransferTimeout(int transferTimeout) {
+        this.transferTimeout = transferTimeout;
+    }
+
+    /**
+     * Open a stream reading the printer responses on the bulk IN endpoint of the claimed interface.
+     * The returned stream shares the USB connection, it must be closed before this stream.
+     *
+     * @return the input stream, null if the printer interface has no bulk IN endpoint
+     */
+    public UsbInputStream openInputStream() throws IOException {
+        if (this.usbInterface == null || this.usbConnection == null) {
+            throw new IOException("Unable to connect to USB device.");
+        }
+        UsbEndpoint endpointIn = UsbDeviceHelper.findBulkEndpoint(this.usbInterface, UsbConstants.USB_DIR_IN);
+        if (endpointIn == null) {
+            return null;
+        }
+        return new UsbInputStream(this.usbConnection, endpointIn);
     }
 
     @Override
@@ -52,31 +121,172 @@ public class UsbOutputStream extends OutputStream {
             throw new IOException("Unable to connect to USB device.");
         }
 
-        if (!this.usbConnection.claimInterface(this.usbInterface, true)) {
-            throw new IOException("Error during claim USB interface.");
+        int end = offset + length;
+        for (int chunkOffset = offset; chunkOffset < end; chunkOffset += this.transferSize) {
+            int chunkLength = Math.min(this.transferSize, end - chunkOffset);
+
+            if (this.idleRequests.isEmpty()) {
+                this.waitRequest();
+            }
+            UsbRequest usbRequest = this.idleRequests.poll();
+
+            // UsbRequest sends direct buffers from their start address
+            ByteBuffer buffer = (ByteBuffer) usbRequest.getClientData();
+            buffer.clear();
+            buffer.put(bytes, chunkOffset, chunkLength);
+            buffer.flip();
+
+            this.queueRequest(usbRequest, buffer, chunkLength);
         }
+    }
+
+    /**
+     * Queue the remaining bytes of a direct buffer without copying them : each transfer is sent from a slice
+     * of the buffer. The buffer must not be modified or recycled until flush() returns.
+     *
+     * @param buffer Direct buffer, its position is moved to its limit
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        if (!buffer.isDirect()) {
+            this.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        if (this.usbInterface == null || this.usbEndpoint == null || this.usbConnection == null) {
+            throw new IOException("Unable to connect to USB device.");
+        }
+
+        while (buffer.hasRemaining()) {
+            int chunkLength = Math.min(this.transferSize, buffer.remaining());
 
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        UsbRequest usbRequest = new UsbRequest();
-        try {
-            usbRequest.initialize(this.usbConnection, this.usbEndpoint);
-            if (!usbRequest.queue(buffer, bytes.length)) {
+            if (this.idleRequests.isEmpty()) {
+                this.waitRequest();
+            }
+            UsbRequest usbRequest = this.idleRequests.poll();
+
+            // UsbRequest sends direct buffers from their start address, a slice starts at the chunk
+            ByteBuffer chunk = buffer.slice();
+            chunk.limit(chunkLength);
+
+            this.queueRequest(usbRequest, chunk, chunkLength);
+            buffer.position(buffer.position() + chunkLength);
+        }
+    }
+
+    private void queueRequest(UsbRequest usbRequest, ByteBuffer buffer, int length) throws IOException {
+        synchronized (this.inFlightRequests) {
+            if (this.isAborted) {
+                this.idleRequests.add(usbRequest);
+                throw new IOException("USB transfer aborted.");
+            }
+            if (!usbRequest.queue(buffer, length)) {
+                this.idleRequests.add(usbRequest);
                 throw new IOException("Error queueing USB request.");
             }
-            this.usbConnection.requestWait();
-        } finally {
-            usbRequest.close();
+            this.inFlightRequests.add(usbRequest);
         }
     }
 
+    /**
+     * Wait for a queued transfer to complete and give its request back to the pool.
+     * The wait is bounded by transferTimeout, with requestWait(long) on Android O and later, by the watchdog
+     * cancelling the transfers before.
+     */
+    private void waitRequest() throws IOException {
+        if (this.isTimedOut) {
+            throw new IOException("USB transfer timed out.");
+        }
+        if (this.isAborted) {
+            throw new IOException("USB transfer aborted.");
+        }
+        UsbRequest usbRequest;
+        if (this.transferTimeout <= 0) {
+            usbRequest = this.usbConnection.requestWait();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            try {
+                usbRequest = this.usbConnection.requestWait(this.transferTimeout);
+            } catch (TimeoutException e) {
+                this.isTimedOut = true;
+                throw new IOException("USB transfer not completed within " + this.transferTimeout + " ms.");
+            }
+        } else {
+            WriteWatchdog.Deadline deadline = WriteWatchdog.watch(this.transferTimeout, this::abort);
+            usbRequest = this.usbConnection.requestWait();
+            if (deadline.cancel()) {
+                this.isTimedOut = true;
+                throw new IOException("USB transfer not completed within " + this.transferTimeout + " ms.");
+            }
+        }
+        if (usbRequest == null) {
+            throw new IOException("Error during USB transfer.");
+        }
+        synchronized (this.inFlightRequests) {
+            this.inFlightRequests.remove(usbRequest);
+        }
+        this.idleRequests.add(usbRequest);
+        if (this.isAborted) {
+            // the request completed because it has been cancelled
+            throw new IOException("USB transfer aborted.");
+        }
+    }
+
+    private int getInFlightCount() {
+        synchronized (this.inFlightRequests) {
+            return this.inFlightRequests.size();
+        }
+    }
+
+    /**
+     * Wait for all the queued transfers to complete.
+     */
     @Override
     public void flush() throws IOException {
+        if (this.usbConnection == null) {
+            return;
+        }
+        while (this.getInFlightCount() > 0) {
+            this.waitRequest();
+        }
+    }
 
+    /**
+     * Cancel the queued transfers, from another thread. The cancelled requests complete, so a write or flush
+     * waiting for a transfer fails. The USB connection stays open while it may be used by the waiting thread,
+     * close() must still be called.
+     */
+    public void abort() {
+        synchronized (this.inFlightRequests) {
+            this.isAborted = true;
+            for (UsbRequest usbRequest : this.inFlightRequests) {
+                usbRequest.cancel();
+            }
+        }
     }
 
     @Override
     public void close() throws IOException {
         if (this.usbConnection != null) {
+            try {
+                // Transfers of a timed out or aborted stream will not complete, do not wait for each of them again
+                if (!this.isTimedOut && !this.isAborted) {
+                    this.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (UsbRequest usbRequest : this.idleRequests) {
+                usbRequest.close();
+            }
+            this.idleRequests.clear();
+            synchronized (this.inFlightRequests) {
+                for (UsbRequest usbRequest : this.inFlightRequests) {
+                    usbRequest.close();
+                }
+                this.inFlightRequests.clear();
+            }
+            if (this.usbInterface != null) {
+                this.usbConnection.releaseInterface(this.usbInterface);
+            }
             this.usbConnection.close();
             this.usbInterface = null;
             this.usbEndpoint = null;
@@ -0,0 +1,10 @@
+package com.luna.escposprinter.sdk.exceptions;
+
+/**
+ * The device did not read the data before the write or job deadline, the connection has been aborted.
+ */
+public class EscPosTimeoutException extends EscPosConnectionException {
+    public EscPosTimeoutException(String errorMessage) {
+        super(errorMessage);
+    }
+}
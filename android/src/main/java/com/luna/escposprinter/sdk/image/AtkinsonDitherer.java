@@ -0,0 +1,70 @@
+package com.luna.escposprinter.sdk.image;
+
+import java.util.Arrays;
+
+/**
+ * Atkinson error diffusion : 1/8 of the error of a dot goes to 2 pixels on the right, 3 pixels below and
+ * 1 pixel two rows below. Only 3/4 of the error is spread, which keeps contrast on small logos.
+ * Errors are kept in 1/8 units in three rows buffers.
+ */
+public class AtkinsonDitherer extends LuminanceDitherer {
+    private static final int WARM_UP_ROWS = 8;
+
+    private int[] currentErrors = new int[0];
+    private int[] nextErrors = new int[0];
+    private int[] secondErrors = new int[0];
+
+    @Override
+    public Ditherer createBandDitherer() {
+        AtkinsonDitherer ditherer = new AtkinsonDitherer();
+        ditherer.start(this.getStartedWidth(), 0, null);
+        return ditherer;
+    }
+
+    @Override
+    public int getWarmUpRows() {
+        return AtkinsonDitherer.WARM_UP_ROWS;
+    }
+
+    @Override
+    public void start(int width, int height, int[] histogram) {
+        super.start(width, height, histogram);
+        // one extra cell on the left and two on the right, so the neighbours of the row ends need no test
+        if (this.currentErrors.length < width + 3) {
+            this.currentErrors = new int[width + 3];
+            this.nextErrors = new int[width + 3];
+            this.secondErrors = new int[width + 3];
+        } else {
+            Arrays.fill(this.currentErrors, 0);
+            Arrays.fill(this.nextErrors, 0);
+            Arrays.fill(this.secondErrors, 0);
+        }
+    }
+
+    @Override
+    protected void ditherRow(int[] luminances, int width, int posY) {
+        int[]
+                currentErrors = this.currentErrors,
+                nextErrors = this.nextErrors,
+                secondErrors = this.secondErrors;
+
+        for (int posX = 0; posX < width; posX++) {
+            int
+                    value = luminances[posX] + ((currentErrors[posX + 1] + 4) >> 3),
+                    dot = value < 128 ? 0 : 255,
+                    error = value - dot;
+            luminances[posX] = dot;
+            currentErrors[posX + 2] += error;
+            currentErrors[posX + 3] += error;
+            nextErrors[posX] += error;
+            nextErrors[posX + 1] += error;
+            nextErrors[posX + 2] += error;
+            secondErrors[posX + 1] += error;
+        }
+
+        Arrays.fill(currentErrors, 0, width + 3, 0);
+        this.currentErrors = nextErrors;
+        this.nextErrors = secondErrors;
+        this.secondErrors = currentErrors;
+    }
+}
@@ -0,0 +1,69 @@
+package com.luna.escposprinter.sdk.image;
+
+/**
+ * Ordered dithering with a Bayer matrix of 4x4 or 8x8 : each dot is compared to the threshold of its position
+ * in the tiled matrix. Rows do not depend on each other, the pattern is regular and compresses well.
+ */
+public class BayerDitherer extends LuminanceDitherer {
+    private final int size;
+    private final int[] thresholds;
+
+    /**
+     * Create new instance of BayerDitherer.
+     *
+     * @param size Matrix size, 2, 4 or 8
+     */
+    public BayerDitherer(int size) {
+        if (size != 2 && size != 4 && size != 8) {
+            throw new IllegalArgumentException("Bayer matrix size must be 2, 4 or 8.");
+        }
+        this.size = size;
+        this.thresholds = new int[size * size];
+
+        int[] matrix = new int[]{0};
+        for (int matrixSize = 1; matrixSize < size; matrixSize *= 2) {
+            // M(2n) = [4M, 4M + 2 ; 4M + 3, 4M + 1]
+            int newSize = matrixSize * 2;
+            int[] newMatrix = new int[newSize * newSize];
+            for (int y = 0; y < matrixSize; y++) {
+                for (int x = 0; x < matrixSize; x++) {
+                    int value = matrix[y * matrixSize + x] * 4;
+                    newMatrix[y * newSize + x] = value;
+                    newMatrix[y * newSize + x + matrixSize] = value + 2;
+                    newMatrix[(y + matrixSize) * newSize + x] = value + 3;
+                    newMatrix[(y + matrixSize) * newSize + x + matrixSize] = value + 1;
+                }
+            }
+            matrix = newMatrix;
+        }
+
+        int levels = size * size;
+        for (int i = 0; i < levels; i++) {
+            this.thresholds[i] = ((2 * matrix[i] + 1) * 256) / (2 * levels);
+        }
+    }
+
+    @Override
+    public Ditherer createBandDitherer() {
+        BayerDitherer ditherer = new BayerDitherer(this.size);
+        ditherer.start(this.getStartedWidth(), 0, null);
+        return ditherer;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    protected void ditherRow(int[] luminances, int width, int posY) {
+        int
+                mask = this.size - 1,
+                thresholdOffset = (posY & mask) * this.size;
+        int[] thresholds = this.thresholds;
+
+        for (int posX = 0; posX < width; posX++) {
+            // 0 if under the threshold, 255 otherwise
+            luminances[posX] = ~((luminances[posX] - thresholds[thresholdOffset + (posX & mask)]) >> 31) & 255;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.luna.escposprinter.sdk.image;
+
+import android.graphics.Bitmap;
+
+import com.luna.escposprinter.sdk.EscPosPrinterCommands;
+
+import java.util.Arrays;
+
+/**
+ * Convert bitmaps to "GS v 0" raster data, 1 bit by pixel, 8 pixels by byte, most significant bit first.
+ *
+ * Pixels are read by blocks of rows with getPixels() instead of one getPixel() JNI call by pixel, in an array
+ * reused from one bitmap to the next. Transparent pixels are composited over white paper. The dots are decided
+ * by a Ditherer, the historical threshold and gradient modes by default.
+ *
+ * An instance is not thread safe, use one instance by thread.
+ */
+public class BitmapRasterizer {
+    // Number of pixels read by a getPixels() call
+    private static final int MAX_BLOCK_PIXELS = 16384;
+
+    private static final ThreadLocal<BitmapRasterizer> threadRasterizer = new ThreadLocal<BitmapRasterizer>() {
+        @Override
+        protected BitmapRasterizer initialValue() {
+            return new BitmapRasterizer();
+        }
+    };
+
+    /**
+     * @return the rasterizer of the calling thread
+     */
+    public static BitmapRasterizer get() {
+        return BitmapRasterizer.threadRasterizer.get();
+    }
+
+    /**
+     * Composite a pixel over white paper.
+     *
+     * @param color ARGB color, not premultiplied
+     * @return RGB color, unchanged for an opaque pixel
+     */
+    public static int compositeOverWhite(int color) {
+        int alpha = color >>> 24;
+        if (alpha == 255) {
+            return color;
+        }
+        int
+                red = 255 - ((255 - ((color >> 16) & 255)) * alpha + 127) / 255,
+                green = 255 - ((255 - ((color >> 8) & 255)) * alpha + 127) / 255,
+                blue = 255 - ((255 - (color & 255)) * alpha + 127) / 255;
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+
+    private int[] pixels = new int[0];
+    private final int[] histogram = new int[256];
+
+    /**
+     * Convert a bitmap to a "GS v 0" command.
+     *
+     * @param bitmap   Bitmap to be convert
+     * @param gradient false : Black and white image, true : Grayscale image
+     * @return Bytes contain the image in ESC/POS command
+     */
+    public byte[] rasterize(Bitmap bitmap, boolean gradient) {
+        return this.rasterize(bitmap, gradient ? GradientDitherer.INSTANCE : ThresholdDitherer.INSTANCE);
+    }
+
+    /**
+     * Convert a bitmap to a "GS v 0" command.
+     *
+     * @param bitmap   Bitmap to be convert
+     * @param ditherer Ditherer deciding the dots, used by one image at a time
+     * @return Bytes contain the image in ESC/POS command
+     */
+    public byte[] rasterize(Bitmap bitmap, Ditherer ditherer) {
+        int
+                bitmapWidth = bitmap.getWidth(),
+                bitmapHeight = bitmap.getHeight(),
+                bytesByLine = (bitmapWidth + 7) / 8;
+
+        byte[] imageBytes = EscPosPrinterCommands.initGSv0Command(bytesByLine, bitmapHeight);
+        this.start(bitmap, ditherer);
+        this.rasterize(bitmap, ditherer, 0, bitmapHeight, imageBytes, 8);
+        return imageBytes;
+    }
+
+    /**
+     * Start a ditherer for a bitmap, with the luminance histogram of the bitmap if the ditherer needs it.
+     * Call it before converting the rows of the bitmap.
+     *
+     * @param bitmap   Bitmap to be convert
+     * @param ditherer Ditherer deciding the dots
+     */
+    public void start(Bitmap bitmap, Ditherer ditherer) {
+        int
+                bitmapWidth = bitmap.getWidth(),
+                bitmapHeight = bitmap.getHeight();
+
+        if (!ditherer.isUsingHistogram() || bitmapWidth == 0) {
+            ditherer.start(bitmapWidth, bitmapHeight, null);
+            return;
+        }
+
+        int[] histogram = this.histogram;
+        Arrays.fill(histogram, 0);
+        int blockRows = this.getBlockRows(bitmapWidth, bitmapHeight);
+        int[] pixels = this.getPixels(bitmapWidth * blockRows);
+        for (int blockY = 0; blockY < bitmapHeight; blockY += blockRows) {
+            int rows = Math.min(blockRows, bitmapHeight - blockY);
+            bitmap.getPixels(pixels, 0, bitmapWidth, 0, blockY, bitmapWidth, rows);
+            for (int i = rows * bitmapWidth - 1; i >= 0; i--) {
+                histogram[Ditherer.getLuminance(pixels[i])]++;
+            }
+        }
+        ditherer.start(bitmapWidth, bitmapHeight, histogram);
+    }
+
+    /**
+     * Start a ditherer for an image decoded by bands. The histogram, if the ditherer needs it, is counted on a
+     * sub-sampled decode of the image.
+     *
+     * @param decoder  Decoder of the image file
+     * @param ditherer Ditherer deciding the dots
+     */
+    public void start(ImageBandDecoder decoder, Ditherer ditherer) {
+        if (!ditherer.isUsingHistogram()) {
+            ditherer.start(decoder.getWidth(), decoder.getHeight(), null);
+            return;
+        }
+        int[] histogram = this.histogram;
+        Arrays.fill(histogram, 0);
+        decoder.computeHistogram(histogram);
+        ditherer.start(decoder.getWidth(), decoder.getHeight(), histogram);
+    }
+
+    /**
+     * Convert rows of a bitmap to raster data. The ditherer must have been started, and rows converted from
+     * the top for error diffusion ditherers.
+     *
+     * @param bitmap   Bitmap to be convert
+     * @param ditherer Ditherer deciding the dots
+     * @param startY   First row to convert
+     * @param endY     Row after the last row to convert
+     * @param output   Array receiving (width + 7) / 8 bytes by row
+     * @param offset   Index of the first byte written in output
+     */
+    public void rasterize(Bitmap bitmap, Ditherer ditherer, int startY, int endY, byte[] output, int offset) {
+        this.rasterize(bitmap, ditherer, startY, endY, output, offset, (bitmap.getWidth() + 7) / 8);
+    }
+
+    /**
+     * Convert rows of a bitmap to raster data, in rows wider than the bitmap.
+     *
+     * @param bitmap     Bitmap to be convert
+     * @param ditherer   Ditherer deciding the dots
+     * @param startY     First row to convert
+     * @param endY       Row after the last row to convert
+     * @param output     Array receiving the rows
+     * @param offset     Index of the first byte written in output
+     * @param lineStride Number of bytes from a row start to the next one, at least (width + 7) / 8
+     */
+    public void rasterize(Bitmap bitmap, Ditherer ditherer, int startY, int endY, byte[] output, int offset, int lineStride) {
+        this.rasterize(bitmap, ditherer, startY, endY, startY, output, offset, lineStride);
+    }
+
+    /**
+     * Convert rows of a bitmap holding a band of a taller image, in rows wider than the bitmap.
+     *
+     * @param bitmap      Bitmap to be convert
+     * @param ditherer    Ditherer deciding the dots
+     * @param startY      First row of the bitmap to convert
+     * @param endY        Row of the bitmap after the last row to convert
+     * @param imageStartY Row index of startY in the image, given to the ditherer
+     * @param output      Array receiving the rows
+     * @param offset      Index of the first byte written in output
+     * @param lineStride  Number of bytes from a row start to the next one, at least (width + 7) / 8
+     */
+    public void rasterize(Bitmap bitmap, Ditherer ditherer, int startY, int endY, int imageStartY, byte[] output, int offset, int lineStride) {
+        int bitmapWidth = bitmap.getWidth();
+
+        if (bitmapWidth == 0 || endY <= startY) {
+            return;
+        }
+        int blockRows = this.getBlockRows(bitmapWidth, endY - startY);
+        int[] pixels = this.getPixels(bitmapWidth * blockRows);
+
+        for (int blockY = startY; blockY < endY; blockY += blockRows) {
+            int rows = Math.min(blockRows, endY - blockY);
+            bitmap.getPixels(pixels, 0, bitmapWidth, 0, blockY, bitmapWidth, rows);
+            for (int row = 0; row < rows; row++) {
+                int posY = blockY + row - startY;
+                ditherer.rasterizeRow(pixels, row * bitmapWidth, bitmapWidth, imageStartY + posY, output, offset + posY * lineStride);
+            }
+        }
+    }
+
+    private int getBlockRows(int width, int height) {
+        return Math.max(1, Math.min(height, BitmapRasterizer.MAX_BLOCK_PIXELS / Math.max(width, 1)));
+    }
+
+    private int[] getPixels(int length) {
+        if (this.pixels.length < length) {
+            this.pixels = new int[length];
+        }
+        return this.pixels;
+    }
+}
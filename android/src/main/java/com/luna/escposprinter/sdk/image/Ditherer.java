@@ -0,0 +1,118 @@
+package com.luna.escposprinter.sdk.image;
+
+import java.util.Locale;
+
+/**
+ * Turn the pixels of a bitmap into black and white dots, row by row from the top.
+ *
+ * Ditherers working on luminance extend LuminanceDitherer. Error diffusion engines keep their state between rows,
+ * so an instance must be used for one image at a time, started by start(). Memory stays in O(width) whatever
+ * the image height.
+ */
+public abstract class Ditherer {
+    public static final String THRESHOLD = "threshold";
+    public static final String GRADIENT = "gradient";
+    public static final String FLOYD_STEINBERG = "floyd-steinberg";
+    public static final String ATKINSON = "atkinson";
+    public static final String BAYER_4 = "bayer4";
+    public static final String BAYER_8 = "bayer8";
+    public static final String OTSU = "otsu";
+
+    // ITU-R BT.601 luma weights, 16 bits fixed point
+    private static final int[] LUMINANCE_RED = new int[256];
+    private static final int[] LUMINANCE_GREEN = new int[256];
+    private static final int[] LUMINANCE_BLUE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Ditherer.LUMINANCE_RED[i] = (int) Math.round(i * 0.299 * 65536);
+            Ditherer.LUMINANCE_GREEN[i] = (int) Math.round(i * 0.587 * 65536);
+            Ditherer.LUMINANCE_BLUE[i] = (int) Math.round(i * 0.114 * 65536);
+        }
+    }
+
+    /**
+     * Create the ditherer matching a name, as given by the dither attribute of the img tag.
+     *
+     * @param name Use Ditherer.... constants
+     * @return a new ditherer, null if the name is unknown
+     */
+    public static Ditherer forName(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case Ditherer.THRESHOLD:
+                return ThresholdDitherer.INSTANCE;
+            case Ditherer.GRADIENT:
+                return GradientDitherer.INSTANCE;
+            case Ditherer.FLOYD_STEINBERG:
+                return new FloydSteinbergDitherer();
+            case Ditherer.ATKINSON:
+                return new AtkinsonDitherer();
+            case Ditherer.BAYER_4:
+                return new BayerDitherer(4);
+            case Ditherer.BAYER_8:
+                return new BayerDitherer(8);
+            case Ditherer.OTSU:
+                return new OtsuDitherer();
+        }
+        return null;
+    }
+
+    /**
+     * @param color ARGB color, not premultiplied. Transparent pixels are composited over white paper.
+     * @return Luminance of the color, 0 black to 255 white
+     */
+    public static int getLuminance(int color) {
+        color = BitmapRasterizer.compositeOverWhite(color);
+        return (Ditherer.LUMINANCE_RED[(color >> 16) & 255] + Ditherer.LUMINANCE_GREEN[(color >> 8) & 255] + Ditherer.LUMINANCE_BLUE[color & 255] + 32768) >> 16;
+    }
+
+
+    /**
+     * Create a ditherer converting a band of the same image in parallel of this one. Its rows are converted
+     * from the top of the band, after the warm-up rows.
+     *
+     * @return a started ditherer with the same settings, this one if the ditherer has no state
+     */
+    public abstract Ditherer createBandDitherer();
+
+    /**
+     * Error diffusion ditherers carry errors from row to row. A band converted in parallel starts this number
+     * of rows above its first row, with their dots dropped, so no seam shows at the band top.
+     *
+     * @return Number of rows converted before a band, 0 if rows do not depend on the previous rows
+     */
+    public int getWarmUpRows() {
+        return 0;
+    }
+
+    /**
+     * @return true if start() needs the luminance histogram of the whole image
+     */
+    public boolean isUsingHistogram() {
+        return false;
+    }
+
+    /**
+     * Reset the state of the ditherer before the first row of an image.
+     *
+     * @param width     Image width in pixels
+     * @param height    Image height in pixels
+     * @param histogram Number of pixels by luminance, null if isUsingHistogram() is false
+     */
+    public abstract void start(int width, int height, int[] histogram);
+
+    /**
+     * Convert a row of pixels to raster data, 8 dots by byte, most significant bit first, 1 for a black dot.
+     *
+     * @param pixels      ARGB pixels
+     * @param pixelOffset Index of the first pixel of the row
+     * @param width       Number of pixels of the row
+     * @param posY        Row index in the image
+     * @param output      Array receiving (width + 7) / 8 bytes
+     * @param offset      Index of the first byte written in output
+     */
+    public abstract void rasterizeRow(int[] pixels, int pixelOffset, int width, int posY, byte[] output, int offset);
+}
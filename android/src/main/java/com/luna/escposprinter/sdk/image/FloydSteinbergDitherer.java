@@ -0,0 +1,62 @@
+package com.luna.escposprinter.sdk.image;
+
+import java.util.Arrays;
+
+/**
+ * Floyd-Steinberg error diffusion : the error of a dot is spread 7/16 right, 3/16 below left, 5/16 below
+ * and 1/16 below right. Errors are kept in 1/16 units in two rows buffers.
+ */
+public class FloydSteinbergDitherer extends LuminanceDitherer {
+    private static final int WARM_UP_ROWS = 16;
+
+    private int[] currentErrors = new int[0];
+    private int[] nextErrors = new int[0];
+
+    @Override
+    public Ditherer createBandDitherer() {
+        FloydSteinbergDitherer ditherer = new FloydSteinbergDitherer();
+        ditherer.start(this.getStartedWidth(), 0, null);
+        return ditherer;
+    }
+
+    @Override
+    public int getWarmUpRows() {
+        return FloydSteinbergDitherer.WARM_UP_ROWS;
+    }
+
+    @Override
+    public void start(int width, int height, int[] histogram) {
+        super.start(width, height, histogram);
+        // one extra cell on each side, so the neighbours of the first and last pixels need no test
+        if (this.currentErrors.length < width + 2) {
+            this.currentErrors = new int[width + 2];
+            this.nextErrors = new int[width + 2];
+        } else {
+            Arrays.fill(this.currentErrors, 0);
+            Arrays.fill(this.nextErrors, 0);
+        }
+    }
+
+    @Override
+    protected void ditherRow(int[] luminances, int width, int posY) {
+        int[]
+                currentErrors = this.currentErrors,
+                nextErrors = this.nextErrors;
+
+        for (int posX = 0; posX < width; posX++) {
+            int
+                    value = luminances[posX] + ((currentErrors[posX + 1] + 8) >> 4),
+                    dot = value < 128 ? 0 : 255,
+                    error = value - dot;
+            luminances[posX] = dot;
+            currentErrors[posX + 2] += error * 7;
+            nextErrors[posX] += error * 3;
+            nextErrors[posX + 1] += error * 5;
+            nextErrors[posX + 2] += error;
+        }
+
+        Arrays.fill(currentErrors, 0, width + 2, 0);
+        this.currentErrors = nextErrors;
+        this.nextErrors = currentErrors;
+    }
+}
@@ -0,0 +1,64 @@
+package com.luna.escposprinter.sdk.image;
+
+/**
+ * Historical grayscale mode : a 16 levels ordered pattern on the red + green + blue sum of the pixels.
+ */
+public class GradientDitherer extends Ditherer {
+    private static final int GRADIENT_STEP = 6;
+    private static final int GRADIENT_LEVELS = 16;
+
+    /**
+     * Threshold of the red + green + blue sum by gradient line and coefficient, a dot is printed if the sum
+     * is lower. Same values as the historical double comparison, rounded up for an integer comparison.
+     */
+    private static final int[] GRADIENT_THRESHOLDS = new int[GradientDitherer.GRADIENT_STEP * GradientDitherer.GRADIENT_LEVELS];
+
+    static {
+        double colorLevelStep = 765.0 / (15 * GradientDitherer.GRADIENT_STEP + GradientDitherer.GRADIENT_STEP - 1);
+        for (int line = 0; line < GradientDitherer.GRADIENT_STEP; line++) {
+            for (int coefficient = 0; coefficient < GradientDitherer.GRADIENT_LEVELS; coefficient++) {
+                GradientDitherer.GRADIENT_THRESHOLDS[line * GradientDitherer.GRADIENT_LEVELS + coefficient] =
+                        (int) Math.ceil((coefficient * GradientDitherer.GRADIENT_STEP + line) * colorLevelStep);
+            }
+        }
+    }
+
+    /**
+     * The ditherer has no state, it can be shared.
+     */
+    public static final GradientDitherer INSTANCE = new GradientDitherer();
+
+    @Override
+    public Ditherer createBandDitherer() {
+        return this;
+    }
+
+    @Override
+    public void start(int width, int height, int[] histogram) {
+    }
+
+    /**
+     * The coefficient of the pattern starts at 2 * y and moves by 5 each pixel, the line is y % 6.
+     */
+    @Override
+    public void rasterizeRow(int[] pixels, int pixelOffset, int width, int posY, byte[] output, int offset) {
+        int
+                thresholdOffset = (posY % GradientDitherer.GRADIENT_STEP) * GradientDitherer.GRADIENT_LEVELS,
+                coefficient = (posY * 2) & (GradientDitherer.GRADIENT_LEVELS - 1),
+                b = 0;
+        for (int posX = 0; posX < width; posX++) {
+            int
+                    color = BitmapRasterizer.compositeOverWhite(pixels[pixelOffset + posX]),
+                    sum = ((color >> 16) & 255) + ((color >> 8) & 255) + (color & 255);
+            b = (b << 1) | ((sum - GradientDitherer.GRADIENT_THRESHOLDS[thresholdOffset + coefficient]) >>> 31);
+            coefficient = (coefficient + 5) & (GradientDitherer.GRADIENT_LEVELS - 1);
+            if ((posX & 7) == 7) {
+                output[offset++] = (byte) b;
+                b = 0;
+            }
+        }
+        if ((width & 7) != 0) {
+            output[offset] = (byte) (b << (8 - (width & 7)));
+        }
+    }
+}
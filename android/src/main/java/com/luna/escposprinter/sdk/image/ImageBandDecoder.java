@@ -0,0 +1,152 @@
+package com.luna.escposprinter.sdk.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+
+/**
+ * Decode a JPEG, PNG or WebP file by bands of rows, scaled down to the printer width.
+ *
+ * Only the file bytes are kept between bands : a band is decoded from its region of the file, sub-sampled when
+ * the file is at least twice wider than the printed image, then scaled to the printed width. Memory stays in
+ * O(width x band height) whatever the image height.
+ */
+public class ImageBandDecoder {
+    // Number of pixels of the sub-sampled image giving the luminance histogram
+    private static final int HISTOGRAM_PIXELS = 256 * 256;
+
+    /**
+     * Read the size of an image file, without decoding its pixels.
+     *
+     * @param bytes    Image file, kept by the decoder
+     * @param maxWidth Printer width in pixels, wider images are scaled down to it
+     * @return a decoder of the file
+     * @throws IOException if the file format does not support region decoding
+     */
+    public static ImageBandDecoder newInstance(byte[] bytes, int maxWidth) throws IOException {
+        BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(bytes, 0, bytes.length, false);
+        if (regionDecoder == null) {
+            throw new IOException("Unable to decode the image.");
+        }
+        if (regionDecoder.getWidth() <= 0 || regionDecoder.getHeight() <= 0) {
+            regionDecoder.recycle();
+            throw new IOException("Unable to decode the image.");
+        }
+        return new ImageBandDecoder(regionDecoder, maxWidth);
+    }
+
+
+    private final BitmapRegionDecoder regionDecoder;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final int height;
+    private final int sampleSize;
+
+    private ImageBandDecoder(BitmapRegionDecoder regionDecoder, int maxWidth) {
+        this.regionDecoder = regionDecoder;
+        this.sourceWidth = regionDecoder.getWidth();
+        this.sourceHeight = regionDecoder.getHeight();
+        // Same size as EscPosPrinterSize.scaleBitmapToPrinterWidth()
+        if (this.sourceWidth > maxWidth) {
+            this.width = maxWidth;
+            this.height = Math.max(Math.round(((float) this.sourceHeight) * ((float) maxWidth) / ((float) this.sourceWidth)), 1);
+        } else {
+            this.width = this.sourceWidth;
+            this.height = this.sourceHeight;
+        }
+        this.sampleSize = ImageBandDecoder.getSampleSize(this.sourceWidth, this.width);
+    }
+
+    /**
+     * @return Largest power of two sub-sampling keeping at least the wanted width
+     */
+    private static int getSampleSize(int sourceWidth, int wantedWidth) {
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= wantedWidth) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return Printed width in pixels
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @return Printed height in pixels
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Decode rows of the printed image.
+     *
+     * @param startY First printed row
+     * @param endY   Row after the last printed row
+     * @return Bitmap of getWidth() x (endY - startY) pixels, to be recycled by the caller
+     */
+    public Bitmap decodeBand(int startY, int endY) {
+        int
+                sourceStartY = (int) ((long) startY * this.sourceHeight / this.height),
+                sourceEndY = (int) Math.min(((long) endY * this.sourceHeight + this.height - 1) / this.height, this.sourceHeight);
+        Bitmap region = this.decodeRegion(sourceStartY, Math.max(sourceEndY, sourceStartY + 1), this.sampleSize);
+        Bitmap band = Bitmap.createScaledBitmap(region, this.width, endY - startY, true);
+        if (band != region) {
+            region.recycle();
+        }
+        return band;
+    }
+
+    /**
+     * Count the pixels by luminance on a sub-sampled decode of the whole file.
+     *
+     * @param histogram Array of 256 counts, filled by this call
+     */
+    public void computeHistogram(int[] histogram) {
+        int sampleSize = this.sampleSize;
+        while ((long) (this.sourceWidth / (sampleSize * 2)) * (this.sourceHeight / (sampleSize * 2)) >= ImageBandDecoder.HISTOGRAM_PIXELS) {
+            sampleSize *= 2;
+        }
+        Bitmap sample = this.decodeRegion(0, this.sourceHeight, sampleSize);
+        try {
+            int
+                    sampleWidth = sample.getWidth(),
+                    sampleHeight = sample.getHeight();
+            int[] pixels = new int[sampleWidth];
+            for (int posY = 0; posY < sampleHeight; posY++) {
+                sample.getPixels(pixels, 0, sampleWidth, 0, posY, sampleWidth, 1);
+                for (int posX = 0; posX < sampleWidth; posX++) {
+                    histogram[Ditherer.getLuminance(pixels[posX])]++;
+                }
+            }
+        } finally {
+            sample.recycle();
+        }
+    }
+
+    /**
+     * Free the native decoder, the bands cannot be decoded anymore.
+     */
+    public void recycle() {
+        this.regionDecoder.recycle();
+    }
+
+    private Bitmap decodeRegion(int sourceStartY, int sourceEndY, int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap region = this.regionDecoder.decodeRegion(new Rect(0, sourceStartY, this.sourceWidth, sourceEndY), options);
+        if (region == null) {
+            throw new IllegalStateException("Unable to decode the image rows " + sourceStartY + " to " + sourceEndY + ".");
+        }
+        return region;
+    }
+}
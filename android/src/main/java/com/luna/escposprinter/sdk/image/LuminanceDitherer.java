@@ -0,0 +1,58 @@
+package com.luna.escposprinter.sdk.image;
+
+/**
+ * Ditherer deciding the dots from the luminance of the pixels.
+ *
+ * The pixels of a row are converted to luminance (0 black to 255 white) through lookup tables, then ditherRow()
+ * decides each dot.
+ */
+public abstract class LuminanceDitherer extends Ditherer {
+    private int[] luminances = new int[0];
+    private int startedWidth = 0;
+
+    @Override
+    public void start(int width, int height, int[] histogram) {
+        if (this.luminances.length < width) {
+            this.luminances = new int[width];
+        }
+        this.startedWidth = width;
+    }
+
+    /**
+     * @return Image width given to start()
+     */
+    protected int getStartedWidth() {
+        return this.startedWidth;
+    }
+
+    @Override
+    public void rasterizeRow(int[] pixels, int pixelOffset, int width, int posY, byte[] output, int offset) {
+        int[] luminances = this.luminances;
+        for (int posX = 0; posX < width; posX++) {
+            luminances[posX] = Ditherer.getLuminance(pixels[pixelOffset + posX]);
+        }
+        this.ditherRow(luminances, width, posY);
+
+        int b = 0;
+        for (int posX = 0; posX < width; posX++) {
+            // sign bit set for the dots set to black
+            b = (b << 1) | ((luminances[posX] - 128) >>> 31);
+            if ((posX & 7) == 7) {
+                output[offset++] = (byte) b;
+                b = 0;
+            }
+        }
+        if ((width & 7) != 0) {
+            output[offset] = (byte) (b << (8 - (width & 7)));
+        }
+    }
+
+    /**
+     * Decide the dots of a row.
+     *
+     * @param luminances Luminance of the row pixels, replaced by 0 for a black dot and 255 for a white dot
+     * @param width      Number of pixels of the row
+     * @param posY       Row index in the image
+     */
+    protected abstract void ditherRow(int[] luminances, int width, int posY);
+}
@@ -0,0 +1,82 @@
+package com.luna.escposprinter.sdk.image;
+
+/**
+ * Black and white threshold chosen by the Otsu method : the luminance separating the image histogram in the two
+ * classes of highest between-class variance. Suits scanned logos and signatures with uneven lighting.
+ */
+public class OtsuDitherer extends LuminanceDitherer {
+    private int threshold = 128;
+
+    /**
+     * @param histogram Number of pixels by luminance
+     * @return the lowest luminance printed white
+     */
+    public static int getOtsuThreshold(int[] histogram) {
+        long
+                total = 0,
+                sum = 0;
+        for (int i = 0; i < 256; i++) {
+            total += histogram[i];
+            sum += (long) i * histogram[i];
+        }
+
+        long
+                backgroundCount = 0,
+                backgroundSum = 0;
+        double maxVariance = -1;
+        int threshold = 128;
+        for (int i = 0; i < 256; i++) {
+            backgroundCount += histogram[i];
+            backgroundSum += (long) i * histogram[i];
+            long foregroundCount = total - backgroundCount;
+            if (backgroundCount == 0) {
+                continue;
+            }
+            if (foregroundCount == 0) {
+                break;
+            }
+            double
+                    meanDifference = (double) backgroundSum / backgroundCount - (double) (sum - backgroundSum) / foregroundCount,
+                    variance = (double) backgroundCount * foregroundCount * meanDifference * meanDifference;
+            if (variance > maxVariance) {
+                maxVariance = variance;
+                threshold = i + 1;
+            }
+        }
+        return threshold;
+    }
+
+    @Override
+    public Ditherer createBandDitherer() {
+        OtsuDitherer ditherer = new OtsuDitherer();
+        ditherer.start(this.getStartedWidth(), 0, null);
+        ditherer.threshold = this.threshold;
+        return ditherer;
+    }
+
+    @Override
+    public boolean isUsingHistogram() {
+        return true;
+    }
+
+    @Override
+    public void start(int width, int height, int[] histogram) {
+        super.start(width, height, histogram);
+        this.threshold = histogram != null ? OtsuDitherer.getOtsuThreshold(histogram) : 128;
+    }
+
+    /**
+     * @return the lowest luminance printed white, computed by start()
+     */
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    @Override
+    protected void ditherRow(int[] luminances, int width, int posY) {
+        int threshold = this.threshold;
+        for (int posX = 0; posX < width; posX++) {
+            luminances[posX] = ~((luminances[posX] - threshold) >> 31) & 255;
+        }
+    }
+}
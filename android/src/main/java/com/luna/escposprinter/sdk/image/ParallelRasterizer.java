@@ -0,0 +1,160 @@
+package com.luna.escposprinter.sdk.image;
+
+import android.graphics.Bitmap;
+
+import com.luna.escposprinter.sdk.EscPosPrinterCommands;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rasterize large bitmaps by horizontal bands converted in parallel, straight into the "GS v 0" command array.
+ *
+ * Bands run on a bounded pool of daemon threads, the calling thread converts the first band itself, so a busy
+ * pool never blocks the print. Each band has its own ditherer : error diffusion bands first convert warm-up rows
+ * above the band to carry the errors across the seam. Bitmaps under minParallelPixels are converted sequentially.
+ *
+ * Bands have a fixed height, whatever the number of threads : the seams, and so the dots of an error diffusion
+ * image, are the same on every device. Without pool thread, the bands are converted one after the other.
+ */
+public class ParallelRasterizer {
+    private static final int DEFAULT_MIN_PARALLEL_PIXELS = 576 * 256;
+    private static final int BAND_ROWS = 256;
+    private static final int MAX_THREAD_COUNT = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ParallelRasterizer defaultRasterizer = null;
+
+    /**
+     * @return the rasterizer shared by the printers, with one thread less than the number of processors
+     */
+    public static synchronized ParallelRasterizer getDefault() {
+        if (ParallelRasterizer.defaultRasterizer == null) {
+            int threadCount = Math.min(Runtime.getRuntime().availableProcessors() - 1, ParallelRasterizer.MAX_THREAD_COUNT);
+            ParallelRasterizer.defaultRasterizer = new ParallelRasterizer(threadCount, ParallelRasterizer.DEFAULT_MIN_PARALLEL_PIXELS);
+        }
+        return ParallelRasterizer.defaultRasterizer;
+    }
+
+
+    private final ThreadPoolExecutor executor;
+    private final int threadCount;
+    private final int minParallelPixels;
+
+    /**
+     * Create new instance of ParallelRasterizer.
+     *
+     * @param threadCount       Number of pool threads, in addition to the calling thread. 0 to convert the bands on the calling thread.
+     * @param minParallelPixels Number of pixels from which a bitmap is converted in parallel
+     */
+    public ParallelRasterizer(int threadCount, int minParallelPixels) {
+        this.threadCount = Math.max(threadCount, 0);
+        this.minParallelPixels = minParallelPixels;
+        if (this.threadCount == 0) {
+            this.executor = null;
+            return;
+        }
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        this.executor = new ThreadPoolExecutor(
+                this.threadCount,
+                this.threadCount,
+                ParallelRasterizer.KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "EscPosRasterizer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Convert a bitmap to a "GS v 0" command.
+     *
+     * @param bitmap   Bitmap to be convert, it must not be modified during the conversion
+     * @param ditherer Ditherer deciding the dots, used by one image at a time
+     * @return Bytes contain the image in ESC/POS command
+     */
+    public byte[] rasterize(final Bitmap bitmap, final Ditherer ditherer) {
+        final int
+                bitmapWidth = bitmap.getWidth(),
+                bitmapHeight = bitmap.getHeight(),
+                bytesByLine = (bitmapWidth + 7) / 8;
+
+        final int bandHeight = ParallelRasterizer.BAND_ROWS;
+        int bandCount = (bitmapHeight + bandHeight - 1) / bandHeight;
+        if (bandCount < 2 || (long) bitmapWidth * bitmapHeight < this.minParallelPixels) {
+            return BitmapRasterizer.get().rasterize(bitmap, ditherer);
+        }
+
+        final byte[] imageBytes = EscPosPrinterCommands.initGSv0Command(bytesByLine, bitmapHeight);
+        BitmapRasterizer.get().start(bitmap, ditherer);
+
+        if (this.executor == null) {
+            BitmapRasterizer.get().rasterize(bitmap, ditherer, 0, bandHeight, imageBytes, 8);
+            for (int startY = bandHeight; startY < bitmapHeight; startY += bandHeight) {
+                ParallelRasterizer.rasterizeBand(bitmap, ditherer.createBandDitherer(), startY, Math.min(startY + bandHeight, bitmapHeight), imageBytes, 8 + startY * bytesByLine);
+            }
+            return imageBytes;
+        }
+
+        final CountDownLatch remainingBands = new CountDownLatch(bandCount - 1);
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+        for (int band = 1; band < bandCount; band++) {
+            final int
+                    startY = band * bandHeight,
+                    endY = Math.min(startY + bandHeight, bitmapHeight);
+            final Ditherer bandDitherer = ditherer.createBandDitherer();
+            this.executor.execute(() -> {
+                try {
+                    ParallelRasterizer.rasterizeBand(bitmap, bandDitherer, startY, endY, imageBytes, 8 + startY * bytesByLine);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    remainingBands.countDown();
+                }
+            });
+        }
+
+        // The first band continues the started ditherer, it needs no warm-up
+        BitmapRasterizer.get().rasterize(bitmap, ditherer, 0, bandHeight, imageBytes, 8);
+
+        // The bands write into imageBytes, wait for all of them even if the thread is interrupted
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                remainingBands.await();
+                break;
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return imageBytes;
+    }
+
+    /**
+     * Convert a band, after its warm-up rows whose dots are dropped.
+     */
+    private static void rasterizeBand(Bitmap bitmap, Ditherer ditherer, int startY, int endY, byte[] output, int offset) {
+        BitmapRasterizer rasterizer = BitmapRasterizer.get();
+        int warmUpStartY = Math.max(0, startY - ditherer.getWarmUpRows());
+        if (warmUpStartY < startY) {
+            byte[] warmUpBytes = new byte[(startY - warmUpStartY) * ((bitmap.getWidth() + 7) / 8)];
+            rasterizer.rasterize(bitmap, ditherer, warmUpStartY, startY, warmUpBytes, 0);
+        }
+        rasterizer.rasterize(bitmap, ditherer, startY, endY, output, offset);
+    }
+}
@@ -0,0 +1,251 @@
+package com.luna.escposprinter.sdk.image;
+
+import android.graphics.Bitmap;
+
+import com.luna.escposprinter.sdk.EscPosPrinterCommands;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Convert a bitmap, or an image file decoded by bands, of any height to a sequence of "GS v 0" commands of at
+ * most bandHeight rows each.
+ *
+ * Only the band returned by next() and the following one are in memory : while the caller sends a band, the
+ * following band is converted on a background thread. Bands are converted in order by the same ditherer, so
+ * error diffusion continues across the bands without seam. Each band is a new array, it can be queued by the
+ * connection without copy.
+ */
+public class RasterBandStream {
+    public static final int DEFAULT_BAND_HEIGHT = 128;
+
+    private static final int MAX_THREAD_COUNT = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor executor = null;
+
+    /**
+     * Threads are created on demand, a band is converted by the calling thread when all of them are busy.
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (RasterBandStream.executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger(0);
+            RasterBandStream.executor = new ThreadPoolExecutor(
+                    0,
+                    RasterBandStream.MAX_THREAD_COUNT,
+                    RasterBandStream.KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "EscPosRasterBand-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy()
+            );
+        }
+        return RasterBandStream.executor;
+    }
+
+    /**
+     * @param bitmapWidth  Bitmap width in pixels
+     * @param bitmapHeight Bitmap height in pixels
+     * @param leftPadding  Number of white bytes inserted at the left of each row
+     * @param bandHeight   Maximum number of rows by "GS v 0" command
+     * @return Length of all the bands of the bitmap
+     */
+    public static long getBandsLength(int bitmapWidth, int bitmapHeight, int leftPadding, int bandHeight) {
+        long bandCount = (bitmapHeight + Math.max(bandHeight, 1) - 1) / Math.max(bandHeight, 1);
+        return bandCount * 8 + (long) (Math.max(leftPadding, 0) + (bitmapWidth + 7) / 8) * bitmapHeight;
+    }
+
+    /**
+     * Convert a bitmap to all its bands, one after the other in a single array.
+     *
+     * @param bitmap      Bitmap to be convert
+     * @param ditherer    Ditherer deciding the dots, used by one image at a time
+     * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+     * @param bandHeight  Maximum number of rows by "GS v 0" command
+     * @return Bytes contain the "GS v 0" commands of the bands
+     */
+    public static byte[] rasterizeBands(Bitmap bitmap, Ditherer ditherer, int leftPadding, int bandHeight) {
+        return RasterBandStream.rasterizeBands(new RasterBandStream(bitmap, ditherer, leftPadding, bandHeight));
+    }
+
+    /**
+     * Decode and convert an image file to all its bands, one after the other in a single array.
+     *
+     * @param decoder     Decoder of the image file
+     * @param ditherer    Ditherer deciding the dots, used by one image at a time
+     * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+     * @param bandHeight  Maximum number of rows by "GS v 0" command
+     * @return Bytes contain the "GS v 0" commands of the bands
+     */
+    public static byte[] rasterizeBands(ImageBandDecoder decoder, Ditherer ditherer, int leftPadding, int bandHeight) {
+        return RasterBandStream.rasterizeBands(new RasterBandStream(decoder, ditherer, leftPadding, bandHeight));
+    }
+
+    private static byte[] rasterizeBands(RasterBandStream stream) {
+        byte[] bands = new byte[(int) RasterBandStream.getBandsLength(stream.width, stream.height, stream.leftPadding, stream.bandHeight)];
+        int offset = 0;
+        try {
+            while (stream.hasNext()) {
+                byte[] band = stream.next();
+                System.arraycopy(band, 0, bands, offset, band.length);
+                offset += band.length;
+            }
+        } finally {
+            stream.close();
+        }
+        return bands;
+    }
+
+
+    private final Bitmap bitmap;
+    private final ImageBandDecoder decoder;
+    private final int width;
+    private final int height;
+    private final Ditherer ditherer;
+    private final int leftPadding;
+    private final int lineStride;
+    private final int bandHeight;
+
+    private int nextStartY = 0;
+    private FutureTask<byte[]> pendingBand = null;
+
+    /**
+     * Create new instance of RasterBandStream.
+     *
+     * @param bitmap      Bitmap to be convert, it must not be modified nor recycled before close()
+     * @param ditherer    Ditherer deciding the dots, used by one image at a time
+     * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+     * @param bandHeight  Maximum number of rows by "GS v 0" command
+     */
+    public RasterBandStream(Bitmap bitmap, Ditherer ditherer, int leftPadding, int bandHeight) {
+        this(bitmap, null, bitmap.getWidth(), bitmap.getHeight(), ditherer, leftPadding, bandHeight);
+    }
+
+    /**
+     * Create new instance of RasterBandStream, decoding the image file band by band.
+     *
+     * @param decoder     Decoder of the image file, it must not be recycled before close()
+     * @param ditherer    Ditherer deciding the dots, used by one image at a time
+     * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+     * @param bandHeight  Maximum number of rows by "GS v 0" command
+     */
+    public RasterBandStream(ImageBandDecoder decoder, Ditherer ditherer, int leftPadding, int bandHeight) {
+        this(null, decoder, decoder.getWidth(), decoder.getHeight(), ditherer, leftPadding, bandHeight);
+    }
+
+    private RasterBandStream(Bitmap bitmap, ImageBandDecoder decoder, int width, int height, Ditherer ditherer, int leftPadding, int bandHeight) {
+        this.bitmap = bitmap;
+        this.decoder = decoder;
+        this.width = width;
+        this.height = height;
+        this.ditherer = ditherer;
+        this.leftPadding = Math.max(leftPadding, 0);
+        this.lineStride = this.leftPadding + (width + 7) / 8;
+        this.bandHeight = Math.max(bandHeight, 1);
+    }
+
+    /**
+     * @return true if a band remains to be returned by next()
+     */
+    public boolean hasNext() {
+        return this.nextStartY < this.height;
+    }
+
+    /**
+     * Get the next band, and start the conversion of the following one.
+     *
+     * @return Bytes contain the band in "GS v 0" command
+     */
+    public byte[] next() {
+        byte[] band;
+        if (this.pendingBand == null) {
+            if (this.decoder != null) {
+                BitmapRasterizer.get().start(this.decoder, this.ditherer);
+            } else {
+                BitmapRasterizer.get().start(this.bitmap, this.ditherer);
+            }
+            band = this.rasterizeBand(this.nextStartY);
+        } else {
+            band = RasterBandStream.await(this.pendingBand);
+            this.pendingBand = null;
+        }
+        this.nextStartY += this.bandHeight;
+
+        if (this.hasNext()) {
+            final int startY = this.nextStartY;
+            this.pendingBand = new FutureTask<>(() -> this.rasterizeBand(startY));
+            RasterBandStream.getExecutor().execute(this.pendingBand);
+        }
+        return band;
+    }
+
+    /**
+     * Wait for the band being converted, if any. The bitmap can be recycled after this call.
+     */
+    public void close() {
+        if (this.pendingBand == null) {
+            return;
+        }
+        try {
+            RasterBandStream.await(this.pendingBand);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        this.pendingBand = null;
+        this.nextStartY = this.height;
+    }
+
+    private byte[] rasterizeBand(int startY) {
+        int endY = Math.min(startY + this.bandHeight, this.height);
+        byte[] band = EscPosPrinterCommands.initGSv0Command(this.lineStride, endY - startY);
+        if (this.decoder == null) {
+            BitmapRasterizer.get().rasterize(this.bitmap, this.ditherer, startY, endY, band, 8 + this.leftPadding, this.lineStride);
+            return band;
+        }
+        // Only the rows of this band are decoded
+        Bitmap bandBitmap = this.decoder.decodeBand(startY, endY);
+        try {
+            BitmapRasterizer.get().rasterize(bandBitmap, this.ditherer, 0, endY - startY, startY, band, 8 + this.leftPadding, this.lineStride);
+        } finally {
+            bandBitmap.recycle();
+        }
+        return band;
+    }
+
+    /**
+     * The band may still be read by the conversion, wait for it even if the thread is interrupted.
+     */
+    private static byte[] await(FutureTask<byte[]> band) {
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    return band.get();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
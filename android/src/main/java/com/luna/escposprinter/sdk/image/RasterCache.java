@@ -0,0 +1,421 @@
+package com.luna.escposprinter.sdk.image;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+import com.luna.escposprinter.sdk.EscPosPrinterCommands;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cache of rasterized images, so an image printed again, like a store logo, is not decoded, scaled and
+ * rasterized again.
+ *
+ * An entry is a sequence of "GS v 0" commands, as sent to the printer, with the number of alignment bytes at the
+ * left of its rows. Its key is made of the hash of the image file, the printer width, the alignment, the dither
+ * mode and the band height. Entries are kept in memory, least recently used first evicted over maxMemoryLength,
+ * and written in a directory, where they survive the app restart. Register the cache with
+ * Context.registerComponentCallbacks() to free the memory tier when the system runs low.
+ *
+ * File layout : left padding (2, little endian) | "GS v 0" commands
+ */
+public class RasterCache implements ComponentCallbacks2 {
+    private static final String FILE_EXTENSION = ".gsv0";
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+    private static final int FILE_HEADER_SIZE = 2;
+
+    /**
+     * A rasterized image.
+     */
+    public static class Entry {
+        private final byte[] raster;
+        private final int leftPadding;
+
+        /**
+         * Create new instance of Entry.
+         *
+         * @param raster      "GS v 0" commands of the image, which must not be modified
+         * @param leftPadding Number of white bytes inserted at the left of each row, to align the image
+         */
+        public Entry(byte[] raster, int leftPadding) {
+            this.raster = raster;
+            this.leftPadding = leftPadding;
+        }
+
+        /**
+         * @return "GS v 0" commands of the image, which must not be modified
+         */
+        public byte[] getRaster() {
+            return this.raster;
+        }
+
+        /**
+         * @return Number of white bytes at the left of each row, not part of the image width
+         */
+        public int getLeftPadding() {
+            return this.leftPadding;
+        }
+    }
+
+    /**
+     * Hash an image file encoded in base64, whitespaces are ignored.
+     *
+     * @param base64Image Base64 string of the image file
+     * @return Hexadecimal SHA-1 of the base64 string
+     */
+    public static String getImageHash(String base64Image) {
+        int length = 0;
+        byte[] bytes = new byte[base64Image.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = base64Image.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                bytes[length++] = (byte) c;
+            }
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is available on every platform
+            throw new IllegalStateException(e);
+        }
+        digest.update(bytes, 0, length);
+        byte[] hash = digest.digest();
+
+        StringBuilder hashString = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hashString.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hashString.toString();
+    }
+
+    /**
+     * @param imageHash      Hash of the image file, given by getImageHash()
+     * @param printerWidthPx Printer width in pixels, the image is scaled to fit it
+     * @param textAlign      Image alignment. Use PrinterTextParser.TAGS_ALIGN_... constants
+     * @param ditherName     Dither mode. Use Ditherer.... constants
+     * @param bandHeight     Maximum number of rows by "GS v 0" command
+     * @return Key of the rasterized image
+     */
+    public static String getKey(String imageHash, int printerWidthPx, String textAlign, String ditherName, int bandHeight) {
+        return imageHash + "-" + printerWidthPx + "-" + textAlign.toLowerCase(Locale.US) + "-" + ditherName.toLowerCase(Locale.US) + "-" + bandHeight;
+    }
+
+    /**
+     * Check that bytes are a sequence of complete "GS v 0" commands.
+     *
+     * @param raster Bytes read from the cache
+     * @return true if the bytes can be sent to the printer
+     */
+    public static boolean isValidRaster(byte[] raster) {
+        int offset = 0;
+        while (offset < raster.length) {
+            if (raster.length - offset < 8 || raster[offset] != 0x1D || raster[offset + 1] != 0x76 || raster[offset + 2] != 0x30) {
+                return false;
+            }
+            offset += EscPosPrinterCommands.getGSv0CommandLength(raster, offset);
+        }
+        return raster.length > 0 && offset == raster.length;
+    }
+
+
+    private final long maxMemoryLength;
+    private final File directory;
+    private final long maxDiskLength;
+
+    private final LinkedHashMap<String, Entry> memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryLength = 0;
+    // Keys of the files of the directory, listed once, so containsImage() does not list the directory
+    private final HashSet<String> diskKeys = new HashSet<>();
+
+    /**
+     * Create new instance of RasterCache.
+     *
+     * @param maxMemoryLength Number of bytes kept in memory. An image bigger than a quarter of it is not cached.
+     * @param directory       Directory of the disk tier, null to keep the entries in memory only
+     * @param maxDiskLength   Number of bytes kept in the directory
+     */
+    public RasterCache(long maxMemoryLength, File directory, long maxDiskLength) {
+        this.maxMemoryLength = maxMemoryLength;
+        this.directory = directory;
+        this.maxDiskLength = maxDiskLength;
+        if (this.directory != null && !this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create raster cache directory " + directory + ".");
+        }
+        if (this.directory != null) {
+            // The directory is listed once, containsImage() then checks diskKeys
+            String[] fileNames = this.directory.list();
+            if (fileNames != null) {
+                for (String fileName : fileNames) {
+                    if (fileName.endsWith(RasterCache.FILE_EXTENSION)) {
+                        this.diskKeys.add(RasterCache.getFileKey(fileName));
+                    } else if (fileName.endsWith(RasterCache.TEMPORARY_FILE_EXTENSION)) {
+                        // File left by a write interrupted by the app being killed
+                        new File(this.directory, fileName).delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Maximum length of a rasterized image kept by the cache
+     */
+    public int getMaxEntryLength() {
+        return (int) Math.min(this.maxMemoryLength / 4, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return Number of bytes held by the memory tier
+     */
+    public synchronized long getMemoryLength() {
+        return this.memoryLength;
+    }
+
+    /**
+     * Get a rasterized image, from memory, or from the directory then kept in memory.
+     *
+     * @param key Key given by getKey()
+     * @return the rasterized image, null if the image is not cached
+     */
+    public Entry get(String key) {
+        synchronized (this) {
+            Entry entry = this.memoryEntries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        File file = this.getFile(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        Entry entry = RasterCache.readFile(file);
+        if (entry == null) {
+            file.delete();
+            synchronized (this) {
+                this.diskKeys.remove(key);
+            }
+            return null;
+        }
+        // The modification time orders the files for the eviction
+        file.setLastModified(System.currentTimeMillis());
+        this.putInMemory(key, entry);
+        return entry;
+    }
+
+    /**
+     * Check if an image file has been rasterized for any printer width, alignment or dither mode.
+     *
+     * @param imageHash Hash of the image file, given by getImageHash()
+     * @return true if the cache has a rasterized image of the file
+     */
+    public boolean containsImage(String imageHash) {
+        String prefix = imageHash + "-";
+        synchronized (this) {
+            for (String key : this.memoryEntries.keySet()) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            for (String key : this.diskKeys) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keep a rasterized image in memory and in the directory. Images longer than getMaxEntryLength() are ignored.
+     *
+     * @param key   Key given by getKey()
+     * @param entry Rasterized image, its raster must not be modified after this call
+     */
+    public void put(String key, Entry entry) {
+        byte[] raster = entry.getRaster();
+        if (raster.length > this.getMaxEntryLength() || !RasterCache.isValidRaster(raster)) {
+            return;
+        }
+        this.putInMemory(key, entry);
+
+        File file = this.getFile(key);
+        if (file == null) {
+            return;
+        }
+        File temporaryFile = null;
+        FileOutputStream outputStream = null;
+        try {
+            temporaryFile = File.createTempFile("raster", RasterCache.TEMPORARY_FILE_EXTENSION, this.directory);
+            outputStream = new FileOutputStream(temporaryFile);
+            outputStream.write(new byte[]{(byte) entry.getLeftPadding(), (byte) (entry.getLeftPadding() >> 8)});
+            outputStream.write(raster);
+            outputStream.close();
+            outputStream = null;
+            // A renamed file is complete, a reader never sees a partial entry
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (temporaryFile != null) {
+                temporaryFile.delete();
+            }
+            return;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        synchronized (this) {
+            this.diskKeys.add(key);
+        }
+        this.trimDisk();
+    }
+
+    /**
+     * Remove all the entries kept in memory, the directory is kept.
+     */
+    public synchronized void clearMemory() {
+        this.memoryEntries.clear();
+        this.memoryLength = 0;
+    }
+
+    /**
+     * Remove the least recently used entries kept in memory.
+     *
+     * @param maxLength Number of bytes left in memory
+     */
+    public synchronized void trimMemory(long maxLength) {
+        Iterator<Map.Entry<String, Entry>> iterator = this.memoryEntries.entrySet().iterator();
+        while (this.memoryLength > maxLength && iterator.hasNext()) {
+            this.memoryLength -= iterator.next().getValue().getRaster().length;
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            this.clearMemory();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            this.trimMemory(this.maxMemoryLength / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        this.clearMemory();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private synchronized void putInMemory(String key, Entry entry) {
+        Entry previousEntry = this.memoryEntries.put(key, entry);
+        if (previousEntry != null) {
+            this.memoryLength -= previousEntry.getRaster().length;
+        }
+        this.memoryLength += entry.getRaster().length;
+        this.trimMemory(this.maxMemoryLength);
+    }
+
+    private File getFile(String key) {
+        return this.directory != null ? new File(this.directory, key + RasterCache.FILE_EXTENSION) : null;
+    }
+
+    /**
+     * Delete the files over maxDiskLength, least recently written or read from the directory first.
+     */
+    private synchronized void trimDisk() {
+        File[] files = this.directory.listFiles((fileDirectory, fileName) -> fileName.endsWith(RasterCache.FILE_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        long diskLength = 0;
+        for (File file : files) {
+            diskLength += file.length();
+        }
+        if (diskLength <= this.maxDiskLength) {
+            return;
+        }
+
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> lastModified[i1] < lastModified[i2] ? -1 : (lastModified[i1] == lastModified[i2] ? 0 : 1));
+        for (int i = 0; i < order.length && diskLength > this.maxDiskLength; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                diskLength -= length;
+                this.diskKeys.remove(RasterCache.getFileKey(file.getName()));
+            }
+        }
+    }
+
+    private static String getFileKey(String fileName) {
+        return fileName.substring(0, fileName.length() - RasterCache.FILE_EXTENSION.length());
+    }
+
+    /**
+     * @return the entry of a file, null if the file is not a complete entry
+     */
+    private static Entry readFile(File file) {
+        long length = file.length();
+        if (length <= RasterCache.FILE_HEADER_SIZE || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) length];
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = inputStream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    return null;
+                }
+                offset += read;
+            }
+            byte[] raster = Arrays.copyOfRange(bytes, RasterCache.FILE_HEADER_SIZE, bytes.length);
+            if (!RasterCache.isValidRaster(raster)) {
+                return null;
+            }
+            return new Entry(raster, (bytes[0] & 0xFF) | ((bytes[1] & 0xFF) << 8));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
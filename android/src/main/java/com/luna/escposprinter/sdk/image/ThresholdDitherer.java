@@ -0,0 +1,42 @@
+package com.luna.escposprinter.sdk.image;
+
+/**
+ * Historical black and white mode : a dot is printed if one of the pixel channels is lower than 160.
+ */
+public class ThresholdDitherer extends Ditherer {
+    private static final int THRESHOLD_LEVEL = 160;
+
+    /**
+     * The ditherer has no state, it can be shared.
+     */
+    public static final ThresholdDitherer INSTANCE = new ThresholdDitherer();
+
+    @Override
+    public Ditherer createBandDitherer() {
+        return this;
+    }
+
+    @Override
+    public void start(int width, int height, int[] histogram) {
+    }
+
+    @Override
+    public void rasterizeRow(int[] pixels, int pixelOffset, int width, int posY, byte[] output, int offset) {
+        int b = 0;
+        for (int posX = 0; posX < width; posX++) {
+            int color = BitmapRasterizer.compositeOverWhite(pixels[pixelOffset + posX]);
+            // sign bit set if one of the channels is under the threshold
+            int dark = (((color >> 16) & 255) - ThresholdDitherer.THRESHOLD_LEVEL)
+                    | (((color >> 8) & 255) - ThresholdDitherer.THRESHOLD_LEVEL)
+                    | ((color & 255) - ThresholdDitherer.THRESHOLD_LEVEL);
+            b = (b << 1) | (dark >>> 31);
+            if ((posX & 7) == 7) {
+                output[offset++] = (byte) b;
+                b = 0;
+            }
+        }
+        if ((width & 7) != 0) {
+            output[offset] = (byte) (b << (8 - (width & 7)));
+        }
+    }
+}
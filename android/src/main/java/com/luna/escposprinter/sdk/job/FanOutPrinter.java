@@ -0,0 +1,399 @@
+package com.luna.escposprinter.sdk.job;
+
+import com.luna.escposprinter.sdk.EscPosCharsetEncoding;
+import com.luna.escposprinter.sdk.EscPosPrinter;
+import com.luna.escposprinter.sdk.EscPosPrinterCommands;
+import com.luna.escposprinter.sdk.connection.ByteArrayConnection;
+import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.DeviceResponseListener;
+import com.luna.escposprinter.sdk.connection.tcp.TcpConnection;
+import com.luna.escposprinter.sdk.connection.tcp.TcpConnectionPool;
+import com.luna.escposprinter.sdk.exceptions.EscPosBarcodeException;
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+import com.luna.escposprinter.sdk.exceptions.EscPosEncodingException;
+import com.luna.escposprinter.sdk.exceptions.EscPosParserException;
+import com.luna.escposprinter.sdk.exceptions.EscPosTimeoutException;
+
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Print the same formatted text on several network printers at once.
+ *
+ * The text is parsed and rendered once by paper profile, then sent to all the printers in parallel.
+ * Jobs sent to the same printer run one at a time, by priority then in order.
+ */
+public class FanOutPrinter {
+
+    /**
+     * A network printer receiving the print job.
+     */
+    public static class Target {
+        private final String address;
+        private final int port;
+        private final float printerWidthMM;
+        private final int printerNbrCharactersPerLine;
+        private int feedLines = 0;
+        private boolean isCutPaper = true;
+        private boolean isOpenCashBox = false;
+        private boolean isDisconnectAfterPrint = false;
+        private int flowControl = DeviceConnection.FLOW_CONTROL_DELAY;
+        private DeviceResponseListener responseListener = null;
+        private int priority = PrioritySerialExecutor.PRIORITY_RECEIPT;
+        private int writeTimeout = 0;
+        private int jobTimeout = 0;
+
+        /**
+         * Create new instance of Target.
+         *
+         * @param address                     IP address of the printer
+         * @param port                        Port of the printer
+         * @param printerWidthMM              Printing width in millimeters
+         * @param printerNbrCharactersPerLine The maximum number of characters that can be printed on a line.
+         */
+        public Target(String address, int port, float printerWidthMM, int printerNbrCharactersPerLine) {
+            this.address = address;
+            this.port = port;
+            this.printerWidthMM = printerWidthMM;
+            this.printerNbrCharactersPerLine = printerNbrCharactersPerLine;
+        }
+
+        /**
+         * @param feedLines Number of empty lines printed after the text
+         * @return Fluent interface
+         */
+        public Target setFeedLines(int feedLines) {
+            this.feedLines = feedLines;
+            return this;
+        }
+
+        /**
+         * @param isCutPaper true to cut the paper after the text
+         * @return Fluent interface
+         */
+        public Target setCutPaper(boolean isCutPaper) {
+            this.isCutPaper = isCutPaper;
+            return this;
+        }
+
+        /**
+         * @param isOpenCashBox true to open the cash box after the text
+         * @return Fluent interface
+         */
+        public Target setOpenCashBox(boolean isOpenCashBox) {
+            this.isOpenCashBox = isOpenCashBox;
+            return this;
+        }
+
+        /**
+         * @param isDisconnectAfterPrint true to close the connection after the job, false to keep it in the pool
+         * @return Fluent interface
+         */
+        public Target setDisconnectAfterPrint(boolean isDisconnectAfterPrint) {
+            this.isDisconnectAfterPrint = isDisconnectAfterPrint;
+            return this;
+        }
+
+        /**
+         * @param flowControl Use DeviceConnection.FLOW_CONTROL_... constants
+         * @return Fluent interface
+         */
+        public Target setFlowControl(int flowControl) {
+            this.flowControl = flowControl;
+            return this;
+        }
+
+        /**
+         * Listen to the printer responses. Automatic Status Back is enabled on the connection the first time.
+         *
+         * @param responseListener Listener receiving the printer responses, null to not read them
+         * @return Fluent interface
+         */
+        public Target setResponseListener(DeviceResponseListener responseListener) {
+            this.responseListener = responseListener;
+            return this;
+        }
+
+        /**
+         * @param priority Priority of the job in the printer queue, PrioritySerialExecutor.PRIORITY_... constants
+         * @return Fluent interface
+         */
+        public Target setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * @param writeTimeout Maximum time in milliseconds a write can block, 0 to wait forever
+         * @param jobTimeout   Maximum time in milliseconds to send the job, 0 for no job deadline
+         * @return Fluent interface
+         */
+        public Target setWriteTimeouts(int writeTimeout, int jobTimeout) {
+            this.writeTimeout = writeTimeout;
+            this.jobTimeout = jobTimeout;
+            return this;
+        }
+
+        public String getAddress() {
+            return this.address;
+        }
+
+        public int getPort() {
+            return this.port;
+        }
+
+        /**
+         * @return host:port key of the printer
+         */
+        public String getKey() {
+            return TcpConnectionPool.getKey(this.address, this.port);
+        }
+
+        /**
+         * @return Priority of the job in the printer queue, PrioritySerialExecutor.PRIORITY_... constants
+         */
+        public int getPriority() {
+            return this.priority;
+        }
+
+        /**
+         * Jobs of targets with the same send key can be sent in the same transmission.
+         *
+         * @return Printer and connection options key
+         */
+        public String getSendKey() {
+            return this.getKey() + "/" + this.flowControl + "/" + this.writeTimeout + "/" + this.jobTimeout + "/"
+                    + this.isDisconnectAfterPrint + "/" + System.identityHashCode(this.responseListener);
+        }
+
+        /**
+         * Targets with the same profile key receive the same bytes.
+         *
+         * @return Paper and rendering options key
+         */
+        public String getProfileKey() {
+            return this.printerWidthMM + "/" + this.printerNbrCharactersPerLine + "/" + this.feedLines + "/" + this.isCutPaper + "/" + this.isOpenCashBox;
+        }
+    }
+
+    /**
+     * Result of the print job on a printer.
+     */
+    public static class Result {
+        private final Target target;
+        private final Exception error;
+        private final long duration;
+
+        private Result(Target target, Exception error, long duration) {
+            this.target = target;
+            this.error = error;
+            this.duration = duration;
+        }
+
+        public Target getTarget() {
+            return this.target;
+        }
+
+        /**
+         * @return Error that made the print fail, null on success
+         */
+        public Exception getError() {
+            return this.error;
+        }
+
+        /**
+         * @return Time in milliseconds spent to send the job to the printer
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        public boolean isSuccess() {
+            return this.error == null;
+        }
+
+        /**
+         * @return true if the printer did not read the job before the deadline, the job can be sent to another printer
+         */
+        public boolean isTimeout() {
+            return this.error instanceof EscPosTimeoutException;
+        }
+    }
+
+    /**
+     * Receive the results of a fan-out print job. Methods are called from the sending threads.
+     */
+    public interface Listener {
+        /**
+         * Called as soon as the job has been sent to a printer or has failed.
+         */
+        void onPrinterCompleted(Result result);
+
+        /**
+         * Called once all the printers have completed, results are in the targets order.
+         */
+        void onAllCompleted(Result[] results);
+    }
+
+
+    private final TcpConnectionPool connectionPool;
+    private final Executor executor;
+    private final int printerDpi;
+    private final EscPosCharsetEncoding charsetEncoding;
+    private final HashMap<String, PrioritySerialExecutor> printerQueues = new HashMap<>();
+
+    /**
+     * Create new instance of FanOutPrinter.
+     *
+     * @param connectionPool  Pool providing the printers connections
+     * @param executor        Executor sending the jobs, its size bounds the number of printers written at the same time
+     * @param printerDpi      DPI of the printers
+     * @param charsetEncoding Charset encoding of the printers
+     */
+    public FanOutPrinter(TcpConnectionPool connectionPool, Executor executor, int printerDpi, EscPosCharsetEncoding charsetEncoding) {
+        this.connectionPool = connectionPool;
+        this.executor = executor;
+        this.printerDpi = printerDpi;
+        this.charsetEncoding = charsetEncoding;
+    }
+
+    /**
+     * Render the formatted text for each paper profile, then send it to all the targets in parallel.
+     * This method returns once the jobs are rendered and queued, results are given to the listener.
+     *
+     * @param text     Formatted text to be printed.
+     * @param targets  Printers receiving the text
+     * @param listener Listener receiving the results
+     */
+    public void print(String text, Target[] targets, Listener listener) throws EscPosConnectionException, EscPosParserException, EscPosEncodingException, EscPosBarcodeException {
+        HashMap<String, RenderedJob> renderedJobs = new HashMap<>();
+        for (Target target : targets) {
+            if (!renderedJobs.containsKey(target.getProfileKey())) {
+                renderedJobs.put(target.getProfileKey(), this.render(text, target));
+            }
+        }
+
+        final Result[] results = new Result[targets.length];
+        final AtomicInteger remainingCount = new AtomicInteger(targets.length);
+        if (targets.length == 0) {
+            FanOutPrinter.notifyAllCompleted(listener, results);
+            return;
+        }
+
+        for (int i = 0; i < targets.length; i++) {
+            final int index = i;
+            final Target target = targets[i];
+            final RenderedJob job = renderedJobs.get(target.getProfileKey());
+            this.getPrinterQueue(target.getKey()).execute(() -> {
+                Result result = this.send(target, job);
+                results[index] = result;
+                try {
+                    listener.onPrinterCompleted(result);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                if (remainingCount.decrementAndGet() == 0) {
+                    FanOutPrinter.notifyAllCompleted(listener, results);
+                }
+            }, target.priority);
+        }
+    }
+
+    /**
+     * A listener error must not stop the printer queue, it is only logged.
+     */
+    private static void notifyAllCompleted(Listener listener, Result[] results) {
+        try {
+            listener.onAllCompleted(results);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Render the formatted text with the paper options of a target.
+     *
+     * @param text   Formatted text to be printed.
+     * @param target Printer receiving the text
+     * @return the print job in ESC/POS command, with the waiting times of the cut, the feed and the cash box
+     */
+    public RenderedJob render(String text, Target target) throws EscPosConnectionException, EscPosParserException, EscPosEncodingException, EscPosBarcodeException {
+        ByteArrayConnection connection = new ByteArrayConnection();
+        EscPosPrinter printer = new EscPosPrinter(connection, this.printerDpi, target.printerWidthMM, target.printerNbrCharactersPerLine, this.charsetEncoding);
+
+        StringBuilder builderText = new StringBuilder(text);
+        for (int i = 0; i < target.feedLines; i++) {
+            builderText.append("\n[L]");
+        }
+
+        if (target.isCutPaper) {
+            printer.printFormattedTextAndCut(builderText.toString(), 0f);
+        } else {
+            printer.printFormattedText(builderText.toString(), 0f);
+        }
+        if (target.isOpenCashBox) {
+            printer.openCashBox();
+        }
+        return RenderedJob.fromConnection(connection);
+    }
+
+    /**
+     * Send a rendered job to a target with a pooled connection, in the calling thread.
+     *
+     * @param target Printer receiving the job
+     * @param job    Print job in ESC/POS command
+     * @return Result of the send
+     */
+    public Result send(Target target, RenderedJob job) {
+        long startTime = System.currentTimeMillis();
+        TcpConnection connection = null;
+        try {
+            connection = this.connectionPool.acquire(target.address, target.port);
+            connection.setFlowControl(target.flowControl);
+            connection.setWriteTimeouts(target.writeTimeout, target.jobTimeout);
+            connection.beginJob();
+            if (target.responseListener != null && !connection.isResponseReaderRunning()) {
+                connection.addResponseListener(target.responseListener);
+                new EscPosPrinterCommands(connection, this.charsetEncoding).setAutomaticStatusBack(EscPosPrinterCommands.AUTOMATIC_STATUS_ALL);
+            }
+            job.sendTo(connection);
+            connection.endJob();
+        } catch (EscPosConnectionException e) {
+            e.printStackTrace();
+            if (connection != null) {
+                this.connectionPool.invalidate(connection);
+            }
+            return new Result(target, e, System.currentTimeMillis() - startTime);
+        } catch (RuntimeException e) {
+            // The connection state is unknown, it is closed so the pool slot of the printer is given back
+            e.printStackTrace();
+            if (connection != null) {
+                this.connectionPool.invalidate(connection);
+            }
+            return new Result(target, new EscPosConnectionException("Unable to send the print job : " + e), System.currentTimeMillis() - startTime);
+        }
+
+        if (target.isDisconnectAfterPrint) {
+            this.connectionPool.invalidate(connection);
+        } else {
+            this.connectionPool.release(connection);
+        }
+        return new Result(target, null, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Get the queue of a printer. Other jobs sent to the printer can use it to be ordered with the fan-out jobs.
+     *
+     * @param key host:port key of the printer
+     * @return the printer queue
+     */
+    public synchronized PrioritySerialExecutor getPrinterQueue(String key) {
+        PrioritySerialExecutor printerQueue = this.printerQueues.get(key);
+        if (printerQueue == null) {
+            printerQueue = new PrioritySerialExecutor(this.executor);
+            this.printerQueues.put(key, printerQueue);
+        }
+        return printerQueue;
+    }
+}
@@ -0,0 +1,234 @@
+package com.luna.escposprinter.sdk.job;
+
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge the small jobs sent to a printer in a short time into a single transmission.
+ *
+ * Jobs are rendered with the options of their own target, each one ending with its own feed and cut. The first
+ * job of a batch waits for the coalescing window, the jobs arriving meanwhile or while the previous batch is
+ * transmitting are concatenated and sent with one write session. A batch is sent as soon as it reaches the
+ * maximum number of jobs or bytes. Only jobs with the same connection options (FanOutPrinter.Target.getSendKey())
+ * share a batch, a job with other options starts the next batch.
+ */
+public class JobCoalescer {
+
+    /**
+     * Write a batch to the printer.
+     */
+    public interface Sender {
+        /**
+         * @param batch  Jobs of the batch, concatenated
+         * @param target Target of the batch jobs, they all have its connection options
+         */
+        void send(RenderedJob batch, FanOutPrinter.Target target) throws EscPosConnectionException;
+    }
+
+    /**
+     * Receive the result of a job, called from the printer queue once its batch is sent.
+     */
+    public interface Callback {
+        /**
+         * @param error Error that made the batch fail, null on success
+         */
+        void onJobCompleted(EscPosConnectionException error);
+    }
+
+    private static final long THROUGHPUT_PERIOD = 60000;
+
+    private static class Job {
+        private final RenderedJob renderedJob;
+        private final FanOutPrinter.Target target;
+        private final int priority;
+        private final Callback callback;
+
+        private Job(RenderedJob renderedJob, FanOutPrinter.Target target, int priority, Callback callback) {
+            this.renderedJob = renderedJob;
+            this.target = target;
+            this.priority = priority;
+            this.callback = callback;
+        }
+    }
+
+    private final PrioritySerialExecutor printerQueue;
+    private final ScheduledExecutorService scheduler;
+    private final Sender sender;
+    private int window = 50;
+    private int maxBatchJobs = 8;
+    private int maxBatchLength = 64 * 1024;
+
+    private final ArrayList<Job> pendingJobs = new ArrayList<>();
+    private int pendingLength = 0;
+    private boolean isTransmitting = false;
+    private ScheduledFuture<?> flushFuture = null;
+
+    private final ArrayDeque<Long> completedAt = new ArrayDeque<>();
+    private long batchCount = 0;
+    private long jobCount = 0;
+
+    /**
+     * Create new instance of JobCoalescer.
+     *
+     * @param printerQueue Queue of the printer running the transmissions
+     * @param scheduler    Scheduler of the coalescing window
+     * @param sender       Sender writing the batches to the printer
+     */
+    public JobCoalescer(PrioritySerialExecutor printerQueue, ScheduledExecutorService scheduler, Sender sender) {
+        this.printerQueue = printerQueue;
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    /**
+     * @param window         Time in milliseconds a job waits for other jobs, 0 to only merge the jobs queued during a transmission
+     * @param maxBatchJobs   Maximum number of jobs in a batch
+     * @param maxBatchLength Maximum length of a batch in bytes, a bigger job is sent alone
+     * @return Fluent interface
+     */
+    public synchronized JobCoalescer setBatchParameters(int window, int maxBatchJobs, int maxBatchLength) {
+        this.window = window;
+        this.maxBatchJobs = Math.max(1, maxBatchJobs);
+        this.maxBatchLength = maxBatchLength;
+        return this;
+    }
+
+    /**
+     * Queue a job to be sent with the next batch.
+     *
+     * @param renderedJob Job in ESC/POS commands, rendered with the target options
+     * @param target      Target of the job, its connection options are used to send the batch
+     * @param callback    Callback receiving the job result
+     */
+    public synchronized void submit(RenderedJob renderedJob, FanOutPrinter.Target target, Callback callback) {
+        // a batch takes the priority of its most urgent job
+        this.pendingJobs.add(new Job(renderedJob, target, target.getPriority(), callback));
+        this.pendingLength += renderedJob.getLength();
+
+        if (this.isTransmitting) {
+            return;
+        }
+        if (this.window <= 0 || this.pendingJobs.size() >= this.maxBatchJobs || this.pendingLength >= this.maxBatchLength) {
+            this.flush();
+        } else if (this.flushFuture == null) {
+            this.flushFuture = this.scheduler.schedule(this::onWindowElapsed, this.window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return Number of jobs sent during the last minute
+     */
+    public synchronized int getTicketsPerMinute() {
+        this.pruneCompleted(System.currentTimeMillis());
+        return this.completedAt.size();
+    }
+
+    /**
+     * @return Average number of jobs by transmission since the creation
+     */
+    public synchronized float getAverageBatchSize() {
+        return this.batchCount == 0 ? 0f : (float) this.jobCount / this.batchCount;
+    }
+
+    private synchronized void onWindowElapsed() {
+        this.flushFuture = null;
+        if (!this.isTransmitting) {
+            this.flush();
+        }
+    }
+
+    private void flush() {
+        if (this.flushFuture != null) {
+            this.flushFuture.cancel(false);
+            this.flushFuture = null;
+        }
+        if (this.pendingJobs.isEmpty()) {
+            return;
+        }
+
+        final ArrayList<Job> batch = new ArrayList<>();
+        int batchLength = 0;
+        int priority = Integer.MAX_VALUE;
+        while (!this.pendingJobs.isEmpty() && batch.size() < this.maxBatchJobs) {
+            Job job = this.pendingJobs.get(0);
+            if (!batch.isEmpty() && (batchLength + job.renderedJob.getLength() > this.maxBatchLength
+                    || !job.target.getSendKey().equals(batch.get(0).target.getSendKey()))) {
+                break;
+            }
+            this.pendingJobs.remove(0);
+            batch.add(job);
+            batchLength += job.renderedJob.getLength();
+            priority = Math.min(priority, job.priority);
+        }
+        this.pendingLength -= batchLength;
+
+        ArrayList<RenderedJob> renderedJobs = new ArrayList<>(batch.size());
+        for (Job job : batch) {
+            renderedJobs.add(job.renderedJob);
+        }
+        final RenderedJob renderedBatch = RenderedJob.concat(renderedJobs);
+
+        this.isTransmitting = true;
+        this.printerQueue.execute(() -> this.transmit(batch, renderedBatch), priority);
+    }
+
+    private void transmit(ArrayList<Job> batch, RenderedJob renderedBatch) {
+        EscPosConnectionException error = null;
+        try {
+            this.sender.send(renderedBatch, batch.get(0).target);
+        } catch (EscPosConnectionException e) {
+            e.printStackTrace();
+            error = e;
+        } catch (RuntimeException e) {
+            // Reported to the jobs like a connection error, the next batches are still sent
+            e.printStackTrace();
+            error = new EscPosConnectionException("Unable to send the print jobs : " + e);
+        }
+
+        synchronized (this) {
+            if (error == null) {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < batch.size(); i++) {
+                    this.completedAt.add(now);
+                }
+                this.pruneCompleted(now);
+                this.batchCount++;
+                this.jobCount += batch.size();
+            }
+        }
+
+        try {
+            for (Job job : batch) {
+                JobCoalescer.notifyJobCompleted(job.callback, error);
+            }
+        } finally {
+            synchronized (this) {
+                this.isTransmitting = false;
+                // the jobs queued during the transmission are sent at once
+                this.flush();
+            }
+        }
+    }
+
+    /**
+     * A callback error must not keep the other jobs of the batch without result, it is only logged.
+     */
+    private static void notifyJobCompleted(Callback callback, EscPosConnectionException error) {
+        try {
+            callback.onJobCompleted(error);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void pruneCompleted(long now) {
+        while (!this.completedAt.isEmpty() && now - this.completedAt.peek() > JobCoalescer.THROUGHPUT_PERIOD) {
+            this.completedAt.poll();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.luna.escposprinter.sdk.job;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous print job.
+ *
+ * The result can be waited with get() or received by callbacks, called from the thread completing the job,
+ * or from the calling thread if the job is already completed.
+ *
+ * @param <T> Type of the result
+ */
+public class PrintFuture<T> implements Future<T> {
+
+    /**
+     * Receive the result of the job.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        /**
+         * @param error Error that made the job fail, CancellationException if the job has been cancelled
+         */
+        void onFailure(Exception error);
+    }
+
+    private final ArrayList<Callback<T>> callbacks = new ArrayList<>();
+    private boolean isDone = false;
+    private boolean isCancelled = false;
+    private T result = null;
+    private Exception error = null;
+
+    /**
+     * Create a future already completed.
+     *
+     * @param result Result of the job
+     * @return a completed PrintFuture
+     */
+    public static <T> PrintFuture<T> completed(T result) {
+        PrintFuture<T> future = new PrintFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Create a future already failed.
+     *
+     * @param error Error that made the job fail
+     * @return a failed PrintFuture
+     */
+    public static <T> PrintFuture<T> failed(Exception error) {
+        PrintFuture<T> future = new PrintFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Complete the job with a result.
+     *
+     * @param result Result of the job
+     * @return false if the job was already completed
+     */
+    public boolean complete(T result) {
+        synchronized (this) {
+            if (this.isDone) {
+                return false;
+            }
+            this.result = result;
+            this.isDone = true;
+            this.notifyAll();
+        }
+        this.runCallbacks();
+        return true;
+    }
+
+    /**
+     * Complete the job with an error.
+     *
+     * @param error Error that made the job fail
+     * @return false if the job was already completed
+     */
+    public boolean completeExceptionally(Exception error) {
+        synchronized (this) {
+            if (this.isDone) {
+                return false;
+            }
+            this.error = error;
+            this.isDone = true;
+            this.notifyAll();
+        }
+        this.runCallbacks();
+        return true;
+    }
+
+    /**
+     * Cancel the job if it has not started. A job being sent is not interrupted.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (this.isDone) {
+                return false;
+            }
+            this.isCancelled = true;
+            this.error = new CancellationException("Print job cancelled.");
+            this.isDone = true;
+            this.notifyAll();
+        }
+        this.runCallbacks();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return this.isCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return this.isDone;
+    }
+
+    /**
+     * Add a callback receiving the result. It is called immediately if the job is completed.
+     *
+     * @param callback Callback receiving the result
+     * @return Fluent interface
+     */
+    public PrintFuture<T> addCallback(Callback<T> callback) {
+        synchronized (this) {
+            if (!this.isDone) {
+                this.callbacks.add(callback);
+                return this;
+            }
+        }
+        this.runCallback(callback);
+        return this;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!this.isDone) {
+            this.wait();
+        }
+        return this.getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!this.isDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Print job not completed.");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return this.getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (this.isCancelled) {
+            throw (CancellationException) this.error;
+        }
+        if (this.error != null) {
+            throw new ExecutionException(this.error);
+        }
+        return this.result;
+    }
+
+    private void runCallbacks() {
+        ArrayList<Callback<T>> callbacks;
+        synchronized (this) {
+            callbacks = new ArrayList<>(this.callbacks);
+            this.callbacks.clear();
+        }
+        for (Callback<T> callback : callbacks) {
+            this.runCallback(callback);
+        }
+    }
+
+    private void runCallback(Callback<T> callback) {
+        T result;
+        Exception error;
+        synchronized (this) {
+            result = this.result;
+            error = this.error;
+        }
+        if (error != null) {
+            callback.onFailure(error);
+        } else {
+            callback.onSuccess(result);
+        }
+    }
+}
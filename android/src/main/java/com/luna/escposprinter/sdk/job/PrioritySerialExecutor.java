@@ -0,0 +1,166 @@
+package com.luna.escposprinter.sdk.job;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Run the jobs of a printer one after the other on a shared executor, the most urgent job first.
+ *
+ * Jobs are queued in priority lanes and the next job is chosen each time a job completes, so an urgent job
+ * waits at most for the running job. A waiting job gains one priority level every aging interval, so low
+ * priority jobs are not starved by a continuous flow of urgent ones. Jobs of the same priority keep their order.
+ * A barrier job, like a connection change, runs after all the jobs queued before it and before all the jobs
+ * queued after it, whatever their priority.
+ */
+public class PrioritySerialExecutor implements Executor {
+    public static final int PRIORITY_RECEIPT = 0;
+    public static final int PRIORITY_KITCHEN = 1;
+    public static final int PRIORITY_REPORT = 2;
+
+    private static final int LANE_COUNT = 3;
+
+    private static class Job {
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+        private final long queuedAt;
+
+        private Job(Runnable task, int priority, long sequence, long queuedAt) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final Executor executor;
+    private final long agingInterval;
+    private final ArrayDeque<Job>[] lanes;
+    private final ArrayDeque<Job> barriers = new ArrayDeque<>();
+    private long nextSequence = 0;
+    private boolean isRunning = false;
+
+    /**
+     * Create a new instance of PrioritySerialExecutor, a waiting job gains a priority level every 10 seconds.
+     *
+     * @param executor Executor running the jobs
+     */
+    public PrioritySerialExecutor(Executor executor) {
+        this(executor, 10000);
+    }
+
+    /**
+     * Create a new instance of PrioritySerialExecutor.
+     *
+     * @param executor      Executor running the jobs
+     * @param agingInterval Waiting time in milliseconds for a job to gain a priority level
+     */
+    @SuppressWarnings("unchecked")
+    public PrioritySerialExecutor(Executor executor, long agingInterval) {
+        this.executor = executor;
+        this.agingInterval = agingInterval;
+        this.lanes = new ArrayDeque[PrioritySerialExecutor.LANE_COUNT];
+        for (int i = 0; i < PrioritySerialExecutor.LANE_COUNT; i++) {
+            this.lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Queue a job with the receipt priority.
+     */
+    @Override
+    public void execute(Runnable task) {
+        this.execute(task, PrioritySerialExecutor.PRIORITY_RECEIPT);
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param task     Job to run
+     * @param priority Use PrioritySerialExecutor.PRIORITY_... constants
+     */
+    public synchronized void execute(final Runnable task, int priority) {
+        int lane = Math.max(0, Math.min(priority, PrioritySerialExecutor.LANE_COUNT - 1));
+        this.lanes[lane].add(new Job(task, lane, this.nextSequence++, System.currentTimeMillis()));
+        if (!this.isRunning) {
+            this.scheduleNext();
+        }
+    }
+
+    /**
+     * Queue a barrier job, run once the jobs queued before it are done. Jobs queued after it wait for it.
+     *
+     * @param task Job to run
+     */
+    public synchronized void executeBarrier(final Runnable task) {
+        this.barriers.add(new Job(task, PrioritySerialExecutor.PRIORITY_RECEIPT, this.nextSequence++, System.currentTimeMillis()));
+        if (!this.isRunning) {
+            this.scheduleNext();
+        }
+    }
+
+    /**
+     * @param priority Use PrioritySerialExecutor.PRIORITY_... constants
+     * @return Number of jobs waiting with this priority
+     */
+    public synchronized int getWaitingCount(int priority) {
+        return this.lanes[priority].size();
+    }
+
+    /**
+     * @return true if no job is running or waiting
+     */
+    public synchronized boolean isIdle() {
+        if (this.isRunning || !this.barriers.isEmpty()) {
+            return false;
+        }
+        for (ArrayDeque<Job> lane : this.lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void scheduleNext() {
+        final Job job = this.pollNext();
+        this.isRunning = job != null;
+        if (job != null) {
+            this.executor.execute(() -> {
+                try {
+                    job.task.run();
+                } finally {
+                    this.scheduleNext();
+                }
+            });
+        }
+    }
+
+    /**
+     * Take the job with the best aged priority. The head of a lane is its oldest job, so only heads are compared.
+     * Only the jobs queued before the first barrier are candidates, the barrier runs once none is left.
+     */
+    private Job pollNext() {
+        Job barrier = this.barriers.peek();
+        long now = System.currentTimeMillis();
+        int bestLane = -1;
+        long bestPriority = Long.MAX_VALUE;
+        long bestSequence = Long.MAX_VALUE;
+        for (int i = 0; i < PrioritySerialExecutor.LANE_COUNT; i++) {
+            Job job = this.lanes[i].peek();
+            if (job == null || (barrier != null && job.sequence > barrier.sequence)) {
+                continue;
+            }
+            long priority = job.priority - (this.agingInterval > 0 ? (now - job.queuedAt) / this.agingInterval : 0);
+            if (priority < bestPriority || (priority == bestPriority && job.sequence < bestSequence)) {
+                bestLane = i;
+                bestPriority = priority;
+                bestSequence = job.sequence;
+            }
+        }
+        if (bestLane == -1) {
+            return this.barriers.poll();
+        }
+        return this.lanes[bestLane].poll();
+    }
+}
@@ -0,0 +1,121 @@
+package com.luna.escposprinter.sdk.job;
+
+import com.luna.escposprinter.sdk.connection.ByteArrayConnection;
+import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+
+import java.util.List;
+
+/**
+ * Print job rendered in ESC/POS commands, with the sends and the waiting times asked by the commands while rendering.
+ *
+ * The printer needs time to cut the paper, feed it or open the cash box, the bytes following these commands
+ * are sent once the waiting time has elapsed, as if the job was printed directly on the connection.
+ */
+public class RenderedJob {
+
+    /**
+     * Create a rendered job from the bytes and the waiting times kept by a connection.
+     *
+     * @param connection Connection the job has been rendered on
+     * @return the rendered job
+     */
+    public static RenderedJob fromConnection(ByteArrayConnection connection) {
+        return new RenderedJob(connection.toByteArray(), connection.getWaitingOffsets(), connection.getWaitingTimes());
+    }
+
+    /**
+     * Concatenate jobs to send them in a single transmission, each job keeps its waiting times.
+     *
+     * @param jobs Jobs in the sending order
+     * @return the concatenated job
+     */
+    public static RenderedJob concat(List<RenderedJob> jobs) {
+        int length = 0;
+        int waitingCount = 0;
+        for (RenderedJob job : jobs) {
+            length += job.bytes.length;
+            waitingCount += job.waitingOffsets.length;
+        }
+
+        byte[] bytes = new byte[length];
+        int[] waitingOffsets = new int[waitingCount];
+        int[] waitingTimes = new int[waitingCount];
+        int offset = 0;
+        int waitingIndex = 0;
+        for (RenderedJob job : jobs) {
+            System.arraycopy(job.bytes, 0, bytes, offset, job.bytes.length);
+            for (int i = 0; i < job.waitingOffsets.length; i++) {
+                waitingOffsets[waitingIndex] = offset + job.waitingOffsets[i];
+                waitingTimes[waitingIndex] = job.waitingTimes[i];
+                waitingIndex++;
+            }
+            offset += job.bytes.length;
+        }
+        return new RenderedJob(bytes, waitingOffsets, waitingTimes);
+    }
+
+
+    private final byte[] bytes;
+    private final int[] waitingOffsets;
+    private final int[] waitingTimes;
+
+    /**
+     * Create new instance of RenderedJob without waiting time.
+     *
+     * @param bytes Bytes contain the print job in ESC/POS command
+     */
+    public RenderedJob(byte[] bytes) {
+        this(bytes, new int[0], new int[0]);
+    }
+
+    /**
+     * Create new instance of RenderedJob.
+     *
+     * @param bytes          Bytes contain the print job in ESC/POS command
+     * @param waitingOffsets Offsets in bytes where the sending waits, in ascending order
+     * @param waitingTimes   Waiting time in milliseconds at each offset
+     */
+    public RenderedJob(byte[] bytes, int[] waitingOffsets, int[] waitingTimes) {
+        if (waitingOffsets.length != waitingTimes.length) {
+            throw new IllegalArgumentException("Each waiting offset must have a waiting time.");
+        }
+        this.bytes = bytes;
+        this.waitingOffsets = waitingOffsets;
+        this.waitingTimes = waitingTimes;
+    }
+
+    /**
+     * @return Bytes contain the print job in ESC/POS command, which must not be modified
+     */
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return Length of the job in bytes
+     */
+    public int getLength() {
+        return this.bytes.length;
+    }
+
+    /**
+     * Send the job, waiting at each waiting offset as the rendering connection was asked to.
+     *
+     * @param connection Connection of the printer
+     */
+    public void sendTo(DeviceConnection connection) throws EscPosConnectionException {
+        int offset = 0;
+        for (int i = 0; i < this.waitingOffsets.length; i++) {
+            if (this.waitingOffsets[i] > offset) {
+                connection.writeShared(this.bytes, offset, this.waitingOffsets[i] - offset);
+                offset = this.waitingOffsets[i];
+            }
+            connection.send(this.waitingTimes[i]);
+        }
+        if (offset < this.bytes.length) {
+            connection.writeShared(this.bytes, offset, this.bytes.length - offset);
+            connection.send();
+        }
+    }
+}
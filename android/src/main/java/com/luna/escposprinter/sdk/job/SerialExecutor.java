@@ -0,0 +1,51 @@
+package com.luna.escposprinter.sdk.job;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Run tasks one after the other on a shared executor.
+ * Used to keep the jobs of a printer in order while different printers run in parallel.
+ */
+public class SerialExecutor implements Executor {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private Runnable active = null;
+
+    /**
+     * Create a new instance of SerialExecutor.
+     *
+     * @param executor Executor running the tasks
+     */
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        this.tasks.add(() -> {
+            try {
+                task.run();
+            } finally {
+                this.scheduleNext();
+            }
+        });
+        if (this.active == null) {
+            this.scheduleNext();
+        }
+    }
+
+    /**
+     * @return true if no task is running or waiting
+     */
+    public synchronized boolean isIdle() {
+        return this.active == null && this.tasks.isEmpty();
+    }
+
+    private synchronized void scheduleNext() {
+        this.active = this.tasks.poll();
+        if (this.active != null) {
+            this.executor.execute(this.active);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.luna.escposprinter.sdk.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of compiled print jobs, stored in memory-mapped segment files.
+ *
+ * A record is written in the mapped segment then committed by setting its type byte, the job state is updated
+ * in place. Mapped pages belong to the kernel page cache, so appended jobs survive the app being killed without
+ * a fsync on each append. sync() forces the pages to the storage, it is also done when a segment is full.
+ * A segment file is deleted once all its jobs are done or cancelled.
+ *
+ * Record layout : type (1) | state (1) | job id (8) | length (4) | CRC32 (4) | job bytes (length)
+ */
+public class PrintJournal {
+    public static final int STATE_QUEUED = 1;
+    public static final int STATE_SENDING = 2;
+    public static final int STATE_DONE = 3;
+    public static final int STATE_CANCELLED = 4;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final String SEGMENT_EXTENSION = ".journal";
+    private static final byte RECORD_JOB = 1;
+    private static final int HEADER_SIZE = 18;
+
+    /**
+     * A job stored in the journal.
+     */
+    public static class Job {
+        private final long id;
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private int state;
+
+        private Job(long id, Segment segment, int offset, int length, int state) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.state = state;
+        }
+
+        public long getId() {
+            return this.id;
+        }
+
+        /**
+         * @return Length of the job in bytes
+         */
+        public int getLength() {
+            return this.length;
+        }
+
+        /**
+         * @return PrintJournal.STATE_... constants
+         */
+        public int getState() {
+            return this.state;
+        }
+    }
+
+    private static class Segment {
+        private final long sequence;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int position = 0;
+        private int liveCount = 0;
+
+        private Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private int remaining() {
+            return this.buffer.capacity() - this.position;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final LinkedHashMap<Long, Job> pendingJobs = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private Segment activeSegment = null;
+    private long nextJobId = 1;
+
+    /**
+     * Open the journal stored in a directory, with the default segment size.
+     *
+     * @param directory Directory of the segment files, created if needed
+     */
+    public PrintJournal(File directory) throws IOException {
+        this(directory, PrintJournal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the journal stored in a directory. The jobs not done are loaded back in queued state.
+     *
+     * @param directory   Directory of the segment files, created if needed
+     * @param segmentSize Size of a segment file in bytes, bigger jobs get their own segment
+     */
+    public PrintJournal(File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory + ".");
+        }
+        this.recover();
+    }
+
+    /**
+     * Append a job in queued state.
+     *
+     * @param bytes Job in ESC/POS commands
+     * @return the job id
+     */
+    public synchronized long append(byte[] bytes) throws IOException {
+        int recordSize = PrintJournal.HEADER_SIZE + bytes.length;
+        if (this.activeSegment == null || this.activeSegment.remaining() < recordSize) {
+            this.rotate(recordSize);
+        }
+
+        Segment segment = this.activeSegment;
+        int offset = segment.position;
+        long jobId = this.nextJobId++;
+
+        this.crc.reset();
+        this.crc.update(bytes, 0, bytes.length);
+
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.put(offset + 1, (byte) PrintJournal.STATE_QUEUED);
+        buffer.putLong(offset + 2, jobId);
+        buffer.putInt(offset + 10, bytes.length);
+        buffer.putInt(offset + 14, (int) this.crc.getValue());
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(offset + PrintJournal.HEADER_SIZE);
+        payload.put(bytes);
+        // the record is valid once its type is written
+        buffer.put(offset, PrintJournal.RECORD_JOB);
+
+        segment.position += recordSize;
+        segment.liveCount++;
+        this.pendingJobs.put(jobId, new Job(jobId, segment, offset, bytes.length, PrintJournal.STATE_QUEUED));
+        return jobId;
+    }
+
+    /**
+     * Get the oldest job that is not done.
+     *
+     * @return the job, null if the journal is empty
+     */
+    public synchronized Job peek() {
+        Iterator<Job> iterator = this.pendingJobs.values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * @param jobId Id of the job
+     * @return the job, null if it is done, cancelled or unknown
+     */
+    public synchronized Job getJob(long jobId) {
+        return this.pendingJobs.get(jobId);
+    }
+
+    /**
+     * @return the jobs that are not done, oldest first
+     */
+    public synchronized ArrayList<Job> getJobs() {
+        return new ArrayList<>(this.pendingJobs.values());
+    }
+
+    /**
+     * @return Number of jobs not done
+     */
+    public synchronized int getPendingCount() {
+        return this.pendingJobs.size();
+    }
+
+    /**
+     * Read the bytes of a job.
+     */
+    public synchronized byte[] read(Job job) {
+        byte[] bytes = new byte[job.length];
+        ByteBuffer payload = job.segment.buffer.duplicate();
+        payload.position(job.offset + PrintJournal.HEADER_SIZE);
+        payload.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Get the bytes of a job without copying them, from the mapped segment. The buffer is direct, a transport
+     * writing direct buffers sends the job straight from the page cache.
+     *
+     * @return Read-only buffer of the job bytes, valid until the journal is closed
+     */
+    public synchronized ByteBuffer getBuffer(Job job) {
+        ByteBuffer payload = job.segment.buffer.duplicate();
+        payload.limit(job.offset + PrintJournal.HEADER_SIZE + job.length).position(job.offset + PrintJournal.HEADER_SIZE);
+        return payload.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Update the state of a job. A done or cancelled job is removed from the journal.
+     *
+     * @param job   Job to update
+     * @param state PrintJournal.STATE_... constants
+     */
+    public synchronized void setState(Job job, int state) {
+        if (PrintJournal.isFinalState(job.state)) {
+            return;
+        }
+        job.state = state;
+        job.segment.buffer.put(job.offset + 1, (byte) state);
+        if (PrintJournal.isFinalState(state)) {
+            this.pendingJobs.remove(job.id);
+            job.segment.liveCount--;
+            if (job.segment.liveCount == 0 && job.segment != this.activeSegment) {
+                this.deleteSegment(job.segment);
+            }
+        }
+    }
+
+    /**
+     * Force the journal pages to the storage, to survive a power loss.
+     */
+    public synchronized void sync() {
+        for (Segment segment : this.segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Sync the journal. The jobs not done are loaded back when the journal is opened again.
+     */
+    public synchronized void close() {
+        this.sync();
+        this.segments.clear();
+        this.pendingJobs.clear();
+        this.activeSegment = null;
+    }
+
+    private static boolean isFinalState(int state) {
+        return state == PrintJournal.STATE_DONE || state == PrintJournal.STATE_CANCELLED;
+    }
+
+    private void rotate(int recordSize) throws IOException {
+        Segment previous = this.activeSegment;
+        long sequence = previous != null ? previous.sequence + 1 : 1;
+        this.activeSegment = this.openSegment(sequence, Math.max(this.segmentSize, recordSize));
+        this.segments.add(this.activeSegment);
+
+        if (previous != null) {
+            if (previous.liveCount == 0) {
+                this.deleteSegment(previous);
+            } else {
+                previous.buffer.force();
+            }
+        }
+    }
+
+    private Segment openSegment(long sequence, int size) throws IOException {
+        File file = new File(this.directory, String.format(Locale.US, "%016d", sequence) + PrintJournal.SEGMENT_EXTENSION);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid once the channel is closed
+            int mappedSize = (int) Math.max(size, channel.size());
+            return new Segment(sequence, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        this.segments.remove(segment);
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = this.directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // zero padded sequence numbers, so the name order is the append order
+        Arrays.sort(files);
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(PrintJournal.SEGMENT_EXTENSION)) {
+                continue;
+            }
+            long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(0, name.length() - PrintJournal.SEGMENT_EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = this.openSegment(sequence, 0);
+            this.segments.add(segment);
+            this.scanSegment(segment);
+            this.activeSegment = segment;
+        }
+
+        Iterator<Segment> iterator = this.segments.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.liveCount == 0 && segment != this.activeSegment) {
+                iterator.remove();
+                if (!segment.file.delete()) {
+                    segment.file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    private void scanSegment(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + PrintJournal.HEADER_SIZE <= buffer.capacity() && buffer.get(offset) == PrintJournal.RECORD_JOB) {
+            int state = buffer.get(offset + 1);
+            long jobId = buffer.getLong(offset + 2);
+            int length = buffer.getInt(offset + 10);
+            int checksum = buffer.getInt(offset + 14);
+            if (length < 0 || length > buffer.capacity() - offset - PrintJournal.HEADER_SIZE) {
+                break;
+            }
+
+            byte[] bytes = new byte[length];
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + PrintJournal.HEADER_SIZE);
+            payload.get(bytes);
+            this.crc.reset();
+            this.crc.update(bytes, 0, length);
+            if ((int) this.crc.getValue() != checksum) {
+                // torn record of an interrupted append
+                break;
+            }
+
+            if (!PrintJournal.isFinalState(state)) {
+                // a job interrupted while sending is sent again
+                if (state == PrintJournal.STATE_SENDING) {
+                    buffer.put(offset + 1, (byte) PrintJournal.STATE_QUEUED);
+                }
+                this.pendingJobs.put(jobId, new Job(jobId, segment, offset, length, PrintJournal.STATE_QUEUED));
+                segment.liveCount++;
+            }
+            this.nextJobId = Math.max(this.nextJobId, jobId + 1);
+            offset += PrintJournal.HEADER_SIZE + length;
+        }
+
+        if (offset < buffer.capacity() && buffer.get(offset) != 0) {
+            // torn record of an interrupted append, cleared so it cannot be taken for a committed record
+            for (int i = offset; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        segment.position = offset;
+    }
+}
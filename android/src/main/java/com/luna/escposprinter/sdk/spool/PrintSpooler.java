@@ -0,0 +1,269 @@
+package com.luna.escposprinter.sdk.spool;
+
+import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send the jobs of a PrintJournal to a printer, in order, until they are all done.
+ *
+ * Jobs are journaled before being sent, so jobs not sent when the app is killed or the printer is disconnected
+ * are sent again by resume(). A failed job is retried with an exponential backoff, the next jobs wait for it.
+ * A job still failing after the maximum number of retries or its time to live is cancelled, it can also be
+ * cancelled with cancel() or purge(). The drain runs on the given executor, use the executor managing the
+ * printer connection. The spooler is not locked while a job is written, cancel() and purge() do not wait for it.
+ */
+public class PrintSpooler {
+
+    /**
+     * Write a job to the printer. The buffer is a read-only view of the journal, it must not be kept after send().
+     */
+    public interface Sender {
+        void send(ByteBuffer job) throws EscPosConnectionException;
+    }
+
+    /**
+     * Receive the jobs results. Called from the spooler executor, or the thread calling cancel() or purge().
+     */
+    public interface Listener {
+        void onJobSent(long jobId);
+
+        /**
+         * @param jobId Id of the job, it stays in the journal and will be sent again
+         * @param e     Send error
+         */
+        void onJobFailed(long jobId, EscPosConnectionException e);
+
+        /**
+         * @param jobId Id of the job, removed from the journal without being sent
+         * @param e     Last send error if the spooler gave up the job, null if it has been cancelled
+         */
+        void onJobCancelled(long jobId, EscPosConnectionException e);
+    }
+
+    private final PrintJournal journal;
+    private final ScheduledExecutorService executor;
+    private final Sender sender;
+    private Listener listener = null;
+    private int minRetryDelay = 1000;
+    private int maxRetryDelay = 30000;
+    private int maxRetries = 10;
+    private long jobTimeToLive = 10 * 60 * 1000L;
+    private int retryCount = 0;
+    private long failingJobId = 0;
+    private long failingSince = 0;
+    private ScheduledFuture<?> retryFuture = null;
+    private boolean isDraining = false;
+
+    /**
+     * Create new instance of PrintSpooler.
+     *
+     * @param journal  Journal storing the jobs
+     * @param executor Executor running the drain
+     * @param sender   Sender writing the jobs to the printer
+     */
+    public PrintSpooler(PrintJournal journal, ScheduledExecutorService executor, Sender sender) {
+        this.journal = journal;
+        this.executor = executor;
+        this.sender = sender;
+    }
+
+    /**
+     * @param listener Listener receiving the jobs results
+     * @return Fluent interface
+     */
+    public synchronized PrintSpooler setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @param minRetryDelay Delay in milliseconds before retrying a failed job, doubled on each failure
+     * @param maxRetryDelay Maximum delay in milliseconds between two retries
+     * @return Fluent interface
+     */
+    public synchronized PrintSpooler setRetryDelays(int minRetryDelay, int maxRetryDelay) {
+        this.minRetryDelay = minRetryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+        return this;
+    }
+
+    /**
+     * A job is measured from its first failure in this process, a job resumed after a restart gets a new time to live.
+     *
+     * @param maxRetries    Number of retries before the job is cancelled, 0 to retry forever
+     * @param jobTimeToLive Time in milliseconds a job keeps failing before it is cancelled, 0 to retry forever
+     * @return Fluent interface
+     */
+    public synchronized PrintSpooler setRetryLimits(int maxRetries, long jobTimeToLive) {
+        this.maxRetries = maxRetries;
+        this.jobTimeToLive = jobTimeToLive;
+        return this;
+    }
+
+    public PrintJournal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * Journal a job and start sending it.
+     *
+     * @param bytes Job in ESC/POS commands
+     * @return the job id
+     */
+    public long submit(byte[] bytes) throws IOException {
+        long jobId = this.journal.append(bytes);
+        this.executor.execute(this::drain);
+        return jobId;
+    }
+
+    /**
+     * Send the jobs left in the journal now, without waiting for the retry delay.
+     */
+    public void resume() {
+        this.executor.execute(this::drain);
+    }
+
+    /**
+     * Remove a job from the journal without sending it. A job being sent or already sent is not cancelled.
+     *
+     * @param jobId Id of the job
+     * @return true if the job was waiting in the journal
+     */
+    public synchronized boolean cancel(long jobId) {
+        PrintJournal.Job job = this.journal.getJob(jobId);
+        if (job == null || job.getState() == PrintJournal.STATE_SENDING) {
+            return false;
+        }
+        this.journal.setState(job, PrintJournal.STATE_CANCELLED);
+        if (jobId == this.failingJobId) {
+            this.resetRetry();
+        }
+        if (this.listener != null) {
+            this.listener.onJobCancelled(jobId, null);
+        }
+        return true;
+    }
+
+    /**
+     * Remove all the jobs from the journal without sending them, except the job being sent.
+     *
+     * @return Number of jobs cancelled
+     */
+    public synchronized int purge() {
+        int count = 0;
+        for (PrintJournal.Job job : this.journal.getJobs()) {
+            if (this.cancel(job.getId())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Send the jobs in order. The spooler is locked between the sends only, a single drain sends at a time.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (this.isDraining) {
+                // the running drain sends the new jobs too
+                return;
+            }
+            this.isDraining = true;
+            if (this.retryFuture != null) {
+                this.retryFuture.cancel(false);
+                this.retryFuture = null;
+            }
+        }
+
+        boolean isStopped = false;
+        try {
+            while (true) {
+                PrintJournal.Job job;
+                synchronized (this) {
+                    job = this.journal.peek();
+                    if (job == null) {
+                        this.isDraining = false;
+                        isStopped = true;
+                        return;
+                    }
+                    this.journal.setState(job, PrintJournal.STATE_SENDING);
+                }
+
+                EscPosConnectionException error = null;
+                try {
+                    this.sender.send(this.journal.getBuffer(job));
+                } catch (EscPosConnectionException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    // retried like a connection error, the job must not stay in the sending state
+                    e.printStackTrace();
+                    error = new EscPosConnectionException("Unable to send the print job : " + e);
+                }
+
+                synchronized (this) {
+                    if (error == null) {
+                        this.journal.setState(job, PrintJournal.STATE_DONE);
+                        this.resetRetry();
+                        if (this.listener != null) {
+                            this.listener.onJobSent(job.getId());
+                        }
+                        continue;
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (job.getId() != this.failingJobId) {
+                        this.failingJobId = job.getId();
+                        this.failingSince = now;
+                        this.retryCount = 0;
+                    }
+                    if (this.isRetryLimitReached(now)) {
+                        // give the job up, the next jobs are sent now
+                        this.journal.setState(job, PrintJournal.STATE_CANCELLED);
+                        this.resetRetry();
+                        if (this.listener != null) {
+                            this.listener.onJobCancelled(job.getId(), error);
+                        }
+                        continue;
+                    }
+                    this.journal.setState(job, PrintJournal.STATE_QUEUED);
+                    this.isDraining = false;
+                    isStopped = true;
+                    this.scheduleRetry();
+                    if (this.listener != null) {
+                        this.listener.onJobFailed(job.getId(), error);
+                    }
+                    return;
+                }
+            }
+        } finally {
+            if (!isStopped) {
+                // a listener error stopped the drain, the next submit or resume starts a new one
+                synchronized (this) {
+                    this.isDraining = false;
+                }
+            }
+        }
+    }
+
+    private boolean isRetryLimitReached(long now) {
+        return (this.maxRetries > 0 && this.retryCount >= this.maxRetries)
+                || (this.jobTimeToLive > 0 && now - this.failingSince >= this.jobTimeToLive);
+    }
+
+    private void resetRetry() {
+        this.retryCount = 0;
+        this.failingJobId = 0;
+        this.failingSince = 0;
+    }
+
+    private void scheduleRetry() {
+        long delay = Math.min((long) this.minRetryDelay << Math.min(this.retryCount, 16), this.maxRetryDelay);
+        this.retryCount++;
+        this.retryFuture = this.executor.schedule(this::drain, delay, TimeUnit.MILLISECONDS);
+    }
+}
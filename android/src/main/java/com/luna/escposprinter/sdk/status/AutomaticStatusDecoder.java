@@ -0,0 +1,50 @@
+package com.luna.escposprinter.sdk.status;
+
+import com.luna.escposprinter.sdk.connection.DeviceConnection;
+import com.luna.escposprinter.sdk.connection.DeviceResponse;
+import com.luna.escposprinter.sdk.connection.DeviceResponseListener;
+
+import java.util.WeakHashMap;
+
+/**
+ * Decode the Automatic Status Back responses into printer status events.
+ * A single decoder can listen to several connections, the last status is kept for each of them.
+ */
+public class AutomaticStatusDecoder implements DeviceResponseListener {
+    private final PrinterStatusListener listener;
+    private final WeakHashMap<DeviceConnection, PrinterStatus> lastStatuses = new WeakHashMap<>();
+
+    /**
+     * Create new instance of AutomaticStatusDecoder.
+     *
+     * @param listener Listener receiving the status events
+     */
+    public AutomaticStatusDecoder(PrinterStatusListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the last status received from a printer.
+     *
+     * @param connection Connection of the printer
+     * @return the last status, null if the printer has not sent any status
+     */
+    public synchronized PrinterStatus getLastStatus(DeviceConnection connection) {
+        return this.lastStatuses.get(connection);
+    }
+
+    @Override
+    public void onDeviceResponse(DeviceConnection connection, DeviceResponse response) {
+        if (response.getType() != DeviceResponse.TYPE_AUTOMATIC_STATUS) {
+            return;
+        }
+        PrinterStatus status = new PrinterStatus(response.getBytes());
+        PrinterStatus previous;
+        synchronized (this) {
+            previous = this.lastStatuses.put(connection, status);
+        }
+        for (String event : status.getEventsSince(previous)) {
+            this.listener.onPrinterStatus(connection, event, status);
+        }
+    }
+}
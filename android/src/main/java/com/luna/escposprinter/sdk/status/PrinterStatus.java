@@ -0,0 +1,158 @@
+package com.luna.escposprinter.sdk.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Printer status decoded from an Automatic Status Back (GS a) response.
+ */
+public class PrinterStatus {
+    public static final String EVENT_PAPER_OK = "paperOk";
+    public static final String EVENT_PAPER_NEAR_END = "paperNearEnd";
+    public static final String EVENT_PAPER_OUT = "paperOut";
+    public static final String EVENT_COVER_OPEN = "coverOpen";
+    public static final String EVENT_COVER_CLOSED = "coverClosed";
+    public static final String EVENT_DRAWER_OPEN = "drawerOpen";
+    public static final String EVENT_DRAWER_CLOSED = "drawerClosed";
+    public static final String EVENT_OFFLINE = "offline";
+    public static final String EVENT_ONLINE = "online";
+    public static final String EVENT_ERROR = "error";
+    public static final String EVENT_RECOVERED = "recovered";
+
+    private final boolean isDrawerOpen;
+    private final boolean isOffline;
+    private final boolean isCoverOpen;
+    private final boolean isPaperFeeding;
+    private final boolean isMechanicalError;
+    private final boolean isAutoCutterError;
+    private final boolean isUnrecoverableError;
+    private final boolean isAutoRecoverableError;
+    private final boolean isPaperNearEnd;
+    private final boolean isPaperOut;
+
+    /**
+     * Create new instance of PrinterStatus.
+     *
+     * @param bytes The 4 bytes of the Automatic Status Back response
+     */
+    public PrinterStatus(byte[] bytes) {
+        if (bytes.length < 4) {
+            throw new IllegalArgumentException("Automatic status must be 4 bytes long.");
+        }
+        this.isDrawerOpen = (bytes[0] & 0x04) != 0;
+        this.isOffline = (bytes[0] & 0x08) != 0;
+        this.isCoverOpen = (bytes[0] & 0x20) != 0;
+        this.isPaperFeeding = (bytes[0] & 0x40) != 0;
+        this.isMechanicalError = (bytes[1] & 0x04) != 0;
+        this.isAutoCutterError = (bytes[1] & 0x08) != 0;
+        this.isUnrecoverableError = (bytes[1] & 0x20) != 0;
+        this.isAutoRecoverableError = (bytes[1] & 0x40) != 0;
+        this.isPaperNearEnd = (bytes[2] & 0x03) == 0x03;
+        this.isPaperOut = (bytes[2] & 0x0C) == 0x0C;
+    }
+
+    /**
+     * Drawer kick-out connector pin 3 is high. Depending on the drawer wiring, high may mean closed.
+     */
+    public boolean isDrawerOpen() {
+        return this.isDrawerOpen;
+    }
+
+    public boolean isOffline() {
+        return this.isOffline;
+    }
+
+    public boolean isCoverOpen() {
+        return this.isCoverOpen;
+    }
+
+    /**
+     * Paper is being fed with the FEED button.
+     */
+    public boolean isPaperFeeding() {
+        return this.isPaperFeeding;
+    }
+
+    public boolean isMechanicalError() {
+        return this.isMechanicalError;
+    }
+
+    public boolean isAutoCutterError() {
+        return this.isAutoCutterError;
+    }
+
+    public boolean isUnrecoverableError() {
+        return this.isUnrecoverableError;
+    }
+
+    public boolean isAutoRecoverableError() {
+        return this.isAutoRecoverableError;
+    }
+
+    /**
+     * @return true if any error bit is set
+     */
+    public boolean isError() {
+        return this.isMechanicalError || this.isAutoCutterError || this.isUnrecoverableError || this.isAutoRecoverableError;
+    }
+
+    public boolean isPaperNearEnd() {
+        return this.isPaperNearEnd;
+    }
+
+    public boolean isPaperOut() {
+        return this.isPaperOut;
+    }
+
+    /**
+     * Get the events between the previous status and this one.
+     * For the first status, only the abnormal states are reported.
+     *
+     * @param previous Previous status of the printer, null if this is the first status
+     * @return List of PrinterStatus.EVENT_... constants
+     */
+    public List<String> getEventsSince(PrinterStatus previous) {
+        List<String> events = new ArrayList<>();
+
+        String paperEvent = this.getPaperEvent();
+        if (previous == null ? !paperEvent.equals(PrinterStatus.EVENT_PAPER_OK) : !paperEvent.equals(previous.getPaperEvent())) {
+            events.add(paperEvent);
+        }
+        if (previous == null ? this.isCoverOpen : this.isCoverOpen != previous.isCoverOpen) {
+            events.add(this.isCoverOpen ? PrinterStatus.EVENT_COVER_OPEN : PrinterStatus.EVENT_COVER_CLOSED);
+        }
+        if (previous == null ? this.isDrawerOpen : this.isDrawerOpen != previous.isDrawerOpen) {
+            events.add(this.isDrawerOpen ? PrinterStatus.EVENT_DRAWER_OPEN : PrinterStatus.EVENT_DRAWER_CLOSED);
+        }
+        if (previous == null ? this.isOffline : this.isOffline != previous.isOffline) {
+            events.add(this.isOffline ? PrinterStatus.EVENT_OFFLINE : PrinterStatus.EVENT_ONLINE);
+        }
+        if (previous == null ? this.isError() : this.isError() != previous.isError()) {
+            events.add(this.isError() ? PrinterStatus.EVENT_ERROR : PrinterStatus.EVENT_RECOVERED);
+        }
+        return events;
+    }
+
+    private String getPaperEvent() {
+        if (this.isPaperOut) {
+            return PrinterStatus.EVENT_PAPER_OUT;
+        }
+        if (this.isPaperNearEnd) {
+            return PrinterStatus.EVENT_PAPER_NEAR_END;
+        }
+        return PrinterStatus.EVENT_PAPER_OK;
+    }
+
+    @Override
+    public String toString() {
+        return "PrinterStatus{" +
+                "isDrawerOpen=" + isDrawerOpen +
+                ", isOffline=" + isOffline +
+                ", isCoverOpen=" + isCoverOpen +
+                ", isPaperFeeding=" + isPaperFeeding +
+                ", isError=" + isError() +
+                ", isPaperNearEnd=" + isPaperNearEnd +
+                ", isPaperOut=" + isPaperOut +
+                '}';
+    }
+}
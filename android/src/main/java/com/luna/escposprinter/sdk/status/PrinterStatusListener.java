@@ -0,0 +1,15 @@
+package com.luna.escposprinter.sdk.status;
+
+import com.luna.escposprinter.sdk.connection.DeviceConnection;
+
+/**
+ * Receive the printer status changes. Called from the DeviceResponseReader thread.
+ */
+public interface PrinterStatusListener {
+    /**
+     * @param connection Connection of the printer
+     * @param event      PrinterStatus.EVENT_... constants
+     * @param status     Current status of the printer
+     */
+    void onPrinterStatus(DeviceConnection connection, String event, PrinterStatus status);
+}
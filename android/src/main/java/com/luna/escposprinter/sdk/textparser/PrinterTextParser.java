@@ -17,6 +17,9 @@ public class PrinterTextParser {
     public static final String TAGS_BARCODE = "barcode";
     public static final String TAGS_QRCODE = "qrcode";
 
+    public static final String ATTR_IMAGE_DITHER = "dither";
+    public static final String ATTR_IMAGE_HASH = "hash";
+
     public static final String ATTR_BARCODE_WIDTH = "width";
     public static final String ATTR_BARCODE_HEIGHT = "height";
     public static final String ATTR_BARCODE_TYPE = "type";
@@ -74,7 +74,7 @@ public class PrinterTextParserColumn {
                         if (trimmedTextColumn.substring(closeTagPosition).equals(closeTag)) {
                             switch (textParserTag.getTagName()) {
                                 case PrinterTextParser.TAGS_IMAGE:
-                                    this.appendImage(textAlign, trimmedTextColumn.substring(openTagEndIndex, closeTagPosition));
+                                    this.appendImage(textAlign, textParserTag.getAttributes(), trimmedTextColumn.substring(openTagEndIndex, closeTagPosition));
                                     break;
                                 case PrinterTextParser.TAGS_BARCODE:
                                     this.appendBarcode(textAlign, textParserTag.getAttributes(), trimmedTextColumn.substring(openTagEndIndex, closeTagPosition));
@@ -314,6 +314,13 @@ public class PrinterTextParserColumn {
         return this.appendElement(new PrinterTextParserImg(this, textAlign, hexString));
     }
 
+    private PrinterTextParserColumn appendImage(String textAlign, Hashtable<String, String> imageAttributes, String content) throws EscPosParserException {
+        if (!imageAttributes.containsKey(PrinterTextParser.ATTR_IMAGE_DITHER)) {
+            return this.appendImage(textAlign, content);
+        }
+        return this.appendElement(new PrinterTextParserImg(this, textAlign, imageAttributes, content));
+    }
+
     private PrinterTextParserColumn prependBarcode(String textAlign, Hashtable<String, String> barcodeAttributes, String code) throws EscPosParserException, EscPosBarcodeException {
         return this.prependElement(new PrinterTextParserBarcode(this, textAlign, barcodeAttributes, code));
     }
@@ -1,14 +1,26 @@
 package com.luna.escposprinter.sdk.textparser;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.Base64;
 
 import com.luna.escposprinter.sdk.EscPosPrinter;
 import com.luna.escposprinter.sdk.EscPosPrinterCommands;
 import com.luna.escposprinter.sdk.EscPosPrinterSize;
+import com.luna.escposprinter.sdk.connection.DirectBufferPool;
 import com.luna.escposprinter.sdk.exceptions.EscPosConnectionException;
 import com.luna.escposprinter.sdk.exceptions.EscPosEncodingException;
+import com.luna.escposprinter.sdk.exceptions.EscPosParserException;
+import com.luna.escposprinter.sdk.image.Ditherer;
+import com.luna.escposprinter.sdk.image.ImageBandDecoder;
+import com.luna.escposprinter.sdk.image.RasterBandStream;
+import com.luna.escposprinter.sdk.image.RasterCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
 
 
 public class PrinterTextParserImg implements IPrinterTextParserElement {
@@ -86,6 +98,18 @@ public class PrinterTextParserImg implements IPrinterTextParserElement {
     public static String bitmapToHexadecimalString(EscPosPrinterSize printerSize, Bitmap bitmap, boolean gradient) {
         return PrinterTextParserImg.bytesToHexadecimalString(printerSize.bitmapToBytes(bitmap, gradient));
     }
+
+    /**
+     * Convert Bitmap instance to a hexadecimal string of the image data.
+     *
+     * @param printerSize A EscPosPrinterSize instance that will print the image.
+     * @param bitmap Bitmap instance to be converted.
+     * @param ditherer Ditherer deciding the printed dots, used by one image at a time.
+     * @return A hexadecimal string of the image data.
+     */
+    public static String bitmapToHexadecimalString(EscPosPrinterSize printerSize, Bitmap bitmap, Ditherer ditherer) {
+        return PrinterTextParserImg.bytesToHexadecimalString(printerSize.bitmapToBytes(bitmap, ditherer));
+    }
     
     /**
      * Convert byte array to a hexadecimal string of the image data.
@@ -114,25 +138,166 @@ public class PrinterTextParserImg implements IPrinterTextParserElement {
     public static byte[] hexadecimalStringToBytes(String hexString) throws NumberFormatException {
         byte[] bytes = new byte[hexString.length() / 2];
         for (int i = 0; i < bytes.length; i++) {
-            int pos = i * 2;
-            bytes[i] = (byte) Integer.parseInt(hexString.substring(pos, pos + 2), 16);
+            bytes[i] = PrinterTextParserImg.hexadecimalStringToByte(hexString, i * 2);
         }
         return bytes;
     }
-    
-    
+
+    private static byte hexadecimalStringToByte(String hexString, int pos) throws NumberFormatException {
+        int
+                high = Character.digit(hexString.charAt(pos), 16),
+                low = Character.digit(hexString.charAt(pos + 1), 16);
+        if (high < 0 || low < 0) {
+            throw new NumberFormatException("Invalid hexadecimal image data at " + pos + ".");
+        }
+        return (byte) ((high << 4) | low);
+    }
+
+
     private int length;
     private byte[] image;
-    
+    private DirectBufferPool.Buffer pooledImage = null;
+    private int pooledImageLength = 0;
+    private Bitmap bitmap = null;
+    private ImageBandDecoder imageDecoder = null;
+    private Ditherer ditherer = null;
+    private int bitmapLeftPadding = 0;
+    private byte[] imageBands = null;
+    private RasterCache rasterCache = null;
+    private String rasterCacheKey = null;
+    private int rasterCacheBandHeight = 0;
+
     /**
      * Create new instance of PrinterTextParserImg.
+     * If the printer connection has a buffer pool, the image is decoded in a pooled direct buffer.
      *
      * @param printerTextParserColumn Parent PrinterTextParserColumn instance.
      * @param textAlign Set the image alignment. Use PrinterTextParser.TAGS_ALIGN_... constants.
      * @param hexadecimalString Hexadecimal string of the image data.
      */
     public PrinterTextParserImg(PrinterTextParserColumn printerTextParserColumn, String textAlign, String hexadecimalString) {
-        this(printerTextParserColumn, textAlign, PrinterTextParserImg.hexadecimalStringToBytes(hexadecimalString));
+        EscPosPrinter printer = printerTextParserColumn.getLine().getTextParser().getPrinter();
+        DirectBufferPool bufferPool = printer.getBufferPool();
+
+        if (bufferPool == null || hexadecimalString.length() < 16) {
+            this.init(printer, textAlign, PrinterTextParserImg.hexadecimalStringToBytes(hexadecimalString));
+            return;
+        }
+
+        byte[] header = PrinterTextParserImg.hexadecimalStringToBytes(hexadecimalString.substring(0, 16));
+        int
+                byteWidth = ((int) header[4] & 0xFF) + ((int) header[5] & 0xFF) * 256,
+                height = ((int) header[6] & 0xFF) + ((int) header[7] & 0xFF) * 256;
+
+        if (hexadecimalString.length() != (8 + byteWidth * height) * 2) {
+            this.init(printer, textAlign, PrinterTextParserImg.hexadecimalStringToBytes(hexadecimalString));
+            return;
+        }
+
+        int
+                nbrWhiteByteToInsert = PrinterTextParserImg.getNbrWhiteByteToInsert(printer, textAlign, byteWidth),
+                newByteWidth = byteWidth + nbrWhiteByteToInsert,
+                imageLength = 8 + newByteWidth * height;
+
+        DirectBufferPool.Buffer pooledImage = bufferPool.acquire(imageLength);
+        try {
+            ByteBuffer buffer = pooledImage.getByteBuffer().duplicate();
+            buffer.put(EscPosPrinterCommands.initGSv0Command(newByteWidth, 0), 0, 6);
+            buffer.put(header, 6, 2);
+            int pos = 16;
+            for (int i = 0; i < height; i++) {
+                // Pooled buffers are not cleared, the alignment bytes are written white
+                for (int j = 0; j < nbrWhiteByteToInsert; j++) {
+                    buffer.put((byte) 0);
+                }
+                for (int j = 0; j < byteWidth; j++) {
+                    buffer.put(PrinterTextParserImg.hexadecimalStringToByte(hexadecimalString, pos));
+                    pos += 2;
+                }
+            }
+        } catch (RuntimeException e) {
+            pooledImage.release();
+            throw e;
+        }
+
+        this.length = (int) Math.ceil(((float) byteWidth * 8) / ((float) printer.getPrinterCharSizeWidthPx()));
+        this.pooledImage = pooledImage;
+        this.pooledImageLength = imageLength;
+    }
+
+    /**
+     * Create new instance of PrinterTextParserImg from an image file, rasterized with the ditherer named by the
+     * dither attribute : &lt;img dither='floyd-steinberg'&gt;base64 of a PNG or JPEG file&lt;/img&gt;
+     * The optional hash attribute is the RasterCache.getImageHash() of the base64 string, computed if missing.
+     * The image is scaled to the printer width only, tall images are printed by bands at their full height.
+     * JPEG, PNG and WebP files are only decoded at print time, band by band, other formats are decoded at once.
+     *
+     * @param printerTextParserColumn Parent PrinterTextParserColumn instance.
+     * @param textAlign Set the image alignment. Use PrinterTextParser.TAGS_ALIGN_... constants.
+     * @param imageAttributes Attributes of the img tag.
+     * @param base64Image Base64 string of the image file.
+     */
+    public PrinterTextParserImg(PrinterTextParserColumn printerTextParserColumn, String textAlign, Hashtable<String, String> imageAttributes, String base64Image) throws EscPosParserException {
+        EscPosPrinter printer = printerTextParserColumn.getLine().getTextParser().getPrinter();
+
+        String ditherName = imageAttributes.get(PrinterTextParser.ATTR_IMAGE_DITHER);
+        Ditherer ditherer = Ditherer.forName(ditherName);
+        if (ditherer == null) {
+            throw new EscPosParserException("Invalid image dither : " + ditherName);
+        }
+
+        RasterCache rasterCache = printer.getRasterCache();
+        if (rasterCache != null) {
+            String imageHash = imageAttributes.get(PrinterTextParser.ATTR_IMAGE_HASH);
+            if (imageHash == null) {
+                imageHash = RasterCache.getImageHash(base64Image);
+            }
+            int bandHeight = printer.getRasterBandHeight();
+            String rasterCacheKey = RasterCache.getKey(imageHash, printer.getPrinterWidthPx(), textAlign, ditherName, bandHeight);
+            RasterCache.Entry entry = rasterCache.get(rasterCacheKey);
+            if (entry != null) {
+                byte[] imageBands = entry.getRaster();
+                // The bands include the alignment bytes, the length is the one of the image only
+                int byteWidth = ((int) imageBands[4] & 0xFF) + ((int) imageBands[5] & 0xFF) * 256 - entry.getLeftPadding();
+                this.length = (int) Math.ceil(((float) byteWidth * 8) / ((float) printer.getPrinterCharSizeWidthPx()));
+                this.imageBands = imageBands;
+                return;
+            }
+            this.rasterCache = rasterCache;
+            this.rasterCacheKey = rasterCacheKey;
+            this.rasterCacheBandHeight = bandHeight;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Base64.decode(base64Image, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new EscPosParserException("Invalid base64 image : " + e.getMessage());
+        }
+
+        // The image is decoded and rasterized by bands at print time, whatever its height
+        int width;
+        try {
+            this.imageDecoder = ImageBandDecoder.newInstance(bytes, printer.getPrinterWidthPx());
+            width = this.imageDecoder.getWidth();
+        } catch (IOException e) {
+            // no region decoding for this format, the whole image is decoded now
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            if (bitmap == null) {
+                throw new EscPosParserException("Unable to decode the image.");
+            }
+            Bitmap scaledBitmap = printer.scaleBitmapToPrinterWidth(bitmap);
+            if (scaledBitmap != bitmap) {
+                bitmap.recycle();
+            }
+            this.bitmap = scaledBitmap;
+            width = scaledBitmap.getWidth();
+        }
+
+        int byteWidth = (width + 7) / 8;
+        this.length = (int) Math.ceil(((float) byteWidth * 8) / ((float) printer.getPrinterCharSizeWidthPx()));
+        this.ditherer = ditherer;
+        this.bitmapLeftPadding = PrinterTextParserImg.getNbrWhiteByteToInsert(printer, textAlign, byteWidth);
     }
 
     /**
@@ -143,23 +308,14 @@ public class PrinterTextParserImg implements IPrinterTextParserElement {
      * @param image Bytes contain the image in ESC/POS command.
      */
     public PrinterTextParserImg(PrinterTextParserColumn printerTextParserColumn, String textAlign, byte[] image) {
-        EscPosPrinter printer = printerTextParserColumn.getLine().getTextParser().getPrinter();
+        this.init(printerTextParserColumn.getLine().getTextParser().getPrinter(), textAlign, image);
+    }
 
+    private void init(EscPosPrinter printer, String textAlign, byte[] image) {
         int
                 byteWidth = ((int) image[4] & 0xFF) + ((int) image[5] & 0xFF) * 256,
-                width = byteWidth * 8,
                 height = ((int) image[6] & 0xFF) + ((int) image[7] & 0xFF) * 256,
-                nbrByteDiff = (int) Math.floor(((float) (printer.getPrinterWidthPx() - width)) / 8f),
-                nbrWhiteByteToInsert = 0;
-
-        switch (textAlign) {
-            case PrinterTextParser.TAGS_ALIGN_CENTER:
-                nbrWhiteByteToInsert = Math.round(((float) nbrByteDiff) / 2f);
-                break;
-            case PrinterTextParser.TAGS_ALIGN_RIGHT:
-                nbrWhiteByteToInsert = nbrByteDiff;
-                break;
-        }
+                nbrWhiteByteToInsert = PrinterTextParserImg.getNbrWhiteByteToInsert(printer, textAlign, byteWidth);
 
         if (nbrWhiteByteToInsert > 0) {
             int newByteWidth = byteWidth + nbrWhiteByteToInsert;
@@ -174,6 +330,64 @@ public class PrinterTextParserImg implements IPrinterTextParserElement {
         this.image = image;
     }
 
+    private static int getNbrWhiteByteToInsert(EscPosPrinter printer, String textAlign, int byteWidth) {
+        int
+                width = byteWidth * 8,
+                nbrByteDiff = (int) Math.floor(((float) (printer.getPrinterWidthPx() - width)) / 8f);
+
+        switch (textAlign) {
+            case PrinterTextParser.TAGS_ALIGN_CENTER:
+                return Math.max(Math.round(((float) nbrByteDiff) / 2f), 0);
+            case PrinterTextParser.TAGS_ALIGN_RIGHT:
+                return Math.max(nbrByteDiff, 0);
+        }
+        return 0;
+    }
+
+    /**
+     * Images small enough for the raster cache are rasterized at once and kept, others are streamed by bands.
+     */
+    private void printBitmap(EscPosPrinterCommands printerSocket) throws EscPosConnectionException {
+        int
+                bandHeight = printerSocket.getRasterBandHeight(),
+                width = this.imageDecoder != null ? this.imageDecoder.getWidth() : this.bitmap.getWidth(),
+                height = this.imageDecoder != null ? this.imageDecoder.getHeight() : this.bitmap.getHeight();
+        long bandsLength = RasterBandStream.getBandsLength(width, height, this.bitmapLeftPadding, bandHeight);
+        // The key holds the band height read at parse time, bands of another height are not cached under it
+        if (this.rasterCache == null || bandHeight != this.rasterCacheBandHeight || bandsLength > this.rasterCache.getMaxEntryLength()) {
+            if (this.imageDecoder != null) {
+                printerSocket.printBitmap(this.imageDecoder, this.ditherer, this.bitmapLeftPadding);
+            } else {
+                printerSocket.printBitmap(this.bitmap, this.ditherer, this.bitmapLeftPadding);
+            }
+            return;
+        }
+        byte[] imageBands = this.imageDecoder != null
+                ? RasterBandStream.rasterizeBands(this.imageDecoder, this.ditherer, this.bitmapLeftPadding, bandHeight)
+                : RasterBandStream.rasterizeBands(this.bitmap, this.ditherer, this.bitmapLeftPadding, bandHeight);
+        this.rasterCache.put(this.rasterCacheKey, new RasterCache.Entry(imageBands, this.bitmapLeftPadding));
+        printerSocket.printImageBands(imageBands);
+    }
+
+    /**
+     * Give back the direct buffer of the image to its pool, and recycle the decoded image file or its decoder.
+     * Calling it more than once has no effect.
+     */
+    public synchronized void release() {
+        if (this.pooledImage != null) {
+            this.pooledImage.release();
+            this.pooledImage = null;
+        }
+        if (this.bitmap != null) {
+            this.bitmap.recycle();
+            this.bitmap = null;
+        }
+        if (this.imageDecoder != null) {
+            this.imageDecoder.recycle();
+            this.imageDecoder = null;
+        }
+    }
+
     /**
      * Get the image width in char length.
      *
@@ -192,7 +406,21 @@ public class PrinterTextParserImg implements IPrinterTextParserElement {
      */
     @Override
     public PrinterTextParserImg print(EscPosPrinterCommands printerSocket) throws EscPosConnectionException {
-        printerSocket.printImage(this.image);
+        if (this.image != null) {
+            printerSocket.printImage(this.image);
+            return this;
+        }
+        try {
+            if (this.pooledImage != null) {
+                printerSocket.printImage(this.pooledImage, this.pooledImageLength);
+            } else if (this.imageBands != null) {
+                printerSocket.printImageBands(this.imageBands);
+            } else if (this.bitmap != null || this.imageDecoder != null) {
+                this.printBitmap(printerSocket);
+            }
+        } finally {
+            this.release();
+        }
         return this;
     }
 }
@@ -1,25 +1,80 @@
 package com.luna.escposprinter.util;
 
-import android.graphics.Bitmap;
+import android.content.Context;
 import android.graphics.BitmapFactory;
 import android.util.Base64;
+import android.util.Log;
 
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
 import com.luna.escposprinter.sdk.EscPosPrinter;
-import com.luna.escposprinter.sdk.textparser.PrinterTextParserImg;
+import com.luna.escposprinter.sdk.status.PrinterStatus;
+import com.luna.escposprinter.sdk.image.Ditherer;
+import com.luna.escposprinter.sdk.image.RasterCache;
+import com.luna.escposprinter.sdk.textparser.PrinterTextParser;
+
+import java.io.File;
 
 public class ConverterUtil {
 
-    public static String convertBase64ToBitmap(EscPosPrinter printer, String base64Encode) throws NullPointerException {
-        byte[] bytes = Base64.decode(base64Encode, Base64.DEFAULT);
-        Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    static final String TAG = "ConverterUtil";
+
+    static final String RASTER_CACHE_DIRECTORY = "luna-raster-cache";
+
+    static final long RASTER_CACHE_MEMORY_LENGTH = 4 * 1024 * 1024;
+
+    static final long RASTER_CACHE_DISK_LENGTH = 16 * 1024 * 1024;
 
-        // int width = bitmap.getWidth(), height = bitmap.getHeight();
-        // int printerWidth = printer.getPrinterWidthPx();
+    private static RasterCache rasterCache = null;
 
-        // Bitmap bitmap2 = Bitmap.createBitmap(decodedByte, 0, y, width, (y + 256 >= height) ? height - y : 256);
-    
+    /**
+     * Cache of the rasterized images shared by the printer modules, trimmed when the system runs low on memory.
+     */
+    public static synchronized RasterCache getRasterCache(Context context) {
+        if (rasterCache == null) {
+            Context applicationContext = context.getApplicationContext();
+            try {
+                rasterCache = new RasterCache(RASTER_CACHE_MEMORY_LENGTH, new File(applicationContext.getCacheDir(), RASTER_CACHE_DIRECTORY), RASTER_CACHE_DISK_LENGTH);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "getRasterCache: Disk cache unavailable", e);
+                rasterCache = new RasterCache(RASTER_CACHE_MEMORY_LENGTH, null, 0);
+            }
+            applicationContext.registerComponentCallbacks(rasterCache);
+        }
+        return rasterCache;
+    }
+
+    public static String convertBase64ToBitmap(EscPosPrinter printer, String base64Encode) throws NullPointerException {
+        // Check the image now, it is decoded and printed by bands of its full height at print time.
+        // An image in the raster cache has been decoded before, its check is a hash lookup.
+        // The hash is given to the parser in the tag, so it is computed once.
+        RasterCache printerRasterCache = printer.getRasterCache();
+        String imageHash = printerRasterCache != null ? RasterCache.getImageHash(base64Encode) : null;
+        if (printerRasterCache == null || !printerRasterCache.containsImage(imageHash)) {
+            byte[] bytes = Base64.decode(base64Encode, Base64.DEFAULT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new NullPointerException("Unable to decode the image.");
+            }
+        }
+
+        String hashAttribute = imageHash != null ? " " + PrinterTextParser.ATTR_IMAGE_HASH + "='" + imageHash + "'" : "";
+        return "<img " + PrinterTextParser.ATTR_IMAGE_DITHER + "='" + Ditherer.GRADIENT + "'" + hashAttribute + ">" + base64Encode.replaceAll("\\s", "") + "</img>";
+    }
 
-        return "<img>" + PrinterTextParserImg.bitmapToHexadecimalString(printer, bitmap) + "</img>";
+    public static WritableMap convertPrinterStatusToMap(String event, PrinterStatus status) {
+        WritableMap statusMap = Arguments.createMap();
+        statusMap.putString("event", event);
+        statusMap.putBoolean("paperNearEnd", status.isPaperNearEnd());
+        statusMap.putBoolean("paperOut", status.isPaperOut());
+        statusMap.putBoolean("coverOpen", status.isCoverOpen());
+        statusMap.putBoolean("drawerOpen", status.isDrawerOpen());
+        statusMap.putBoolean("offline", status.isOffline());
+        statusMap.putBoolean("error", status.isError());
+        statusMap.putBoolean("unrecoverableError", status.isUnrecoverableError());
+        return statusMap;
     }
 
 }